@@ -0,0 +1,99 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import search.Aligner;
+import search.SearchContext;
+import search.SearchMode;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of aligning whole reads, on one thread and on all the processors sharing one Aligner, for reads with
+ * and without errors against references with and without repeats.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AlignBenchmark {
+
+    private static final int READS = 4096;
+
+    @State(Scope.Benchmark)
+    public static class Data {
+
+        @Param({"1000000", "20000000"})
+        public int referenceLength;
+
+        @Param({"0", "0.2"})
+        public double repeatFraction;
+
+        @Param({"0", "0.02"})
+        public double errorRate;
+
+        @Param({"100"})
+        public int readLength;
+
+        //v2 for end to end with 2 mismatches, n2 for Bowtie's default seeded mode.
+        @Param({"v2", "n2"})
+        public String mode;
+
+        //Whether the index is addressed with longs, as references of more than 2^31 bases are, -p longAddressing=true
+        //to compare it with the ints a reference this size gets.
+        @Param({"false"})
+        public boolean longAddressing;
+
+        Aligner aligner;
+        byte[][] reads;
+        byte[] qualities;
+
+        @Setup
+        public void setUp() throws Exception {
+            SearchMode searchMode = mode.equals("v2") ? SearchMode.endToEnd(2) : SearchMode.defaultMode();
+            String index = SyntheticGenome.index(referenceLength, repeatFraction,
+                    SyntheticGenome.CHECKPOINT_DISTANCE, 32, true, false, true, longAddressing);
+            aligner = new Aligner(index, searchMode.withMaxHits(1));
+            reads = SyntheticGenome.reads(SyntheticGenome.reference(referenceLength, repeatFraction), READS,
+                    readLength, errorRate);
+            qualities = new byte[readLength];
+            Arrays.fill(qualities, (byte) 30);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Worker {
+        final SearchContext context = new SearchContext();
+        int next = 0;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int alignOneThread(Data data, Worker worker) {
+        return align(data, worker);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public int alignAllThreads(Data data, Worker worker) {
+        return align(data, worker);
+    }
+
+    private static int align(Data data, Worker worker) {
+        byte[] read = data.reads[worker.next];
+        worker.next = (worker.next + 1) % READS;
+        return data.aligner.align(worker.context, read, data.qualities, read.length);
+    }
+}
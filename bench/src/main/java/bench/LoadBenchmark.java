@@ -0,0 +1,51 @@
+package bench;
+
+import index.FMIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to load an index, which maps the index file and only reads its header unless the checksums of the sections
+ * are verified, which reads the whole file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class LoadBenchmark {
+
+    @Param({"1000000", "20000000"})
+    public int referenceLength;
+
+    @Param({"false", "true"})
+    public boolean packed;
+
+    @Param({"false", "true"})
+    public boolean verify;
+
+    private String directory;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = SyntheticGenome.index(referenceLength, 0, SyntheticGenome.CHECKPOINT_DISTANCE, 32, packed,
+                false, false, false);
+    }
+
+    @Benchmark
+    public FMIndex load() throws Exception {
+        return FMIndex.load(directory, verify);
+    }
+}
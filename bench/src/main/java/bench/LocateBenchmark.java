@@ -0,0 +1,68 @@
+package bench;
+
+import index.FMIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of locating random rows, the LF walk to a sampled row, at several suffix array sampling rates, sampling
+ * text positions or rows, with the byte per row or the packed occurrences, and for the packed layout addressed with
+ * longs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LocateBenchmark {
+
+    private static final int QUERIES = 1024;
+
+    @Param({"1000000", "20000000"})
+    public int referenceLength;
+
+    @Param({"8", "32", "128"})
+    public int suffixDistance;
+
+    //The sampling, of text positions or of rows, after the occurrence layout, none for a byte per row, packed for
+    //the 2 bit blocks, long-packed for the 2 bit blocks addressed with longs, which only samples text positions.
+    @Param({"text", "rows", "packed-text", "packed-rows", "long-packed-text"})
+    public String layout;
+
+    private FMIndex index;
+    private final long[] rows = new long[QUERIES];
+
+    @Setup
+    public void setUp() throws Exception {
+        index = FMIndex.load(SyntheticGenome.index(referenceLength, 0, SyntheticGenome.CHECKPOINT_DISTANCE,
+                suffixDistance, layout.contains("packed"), layout.endsWith("rows"), false, layout.startsWith("long")));
+        Random random = new Random(7);
+        for (int i = 0; i < QUERIES; i++) {
+            rows[i] = random.nextInt(referenceLength + 1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long locate() {
+        long sum = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            sum += index.getSuffixPosition(rows[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import index.FMIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of rank calls at random rows, the two dependent memory reads of every backward search step, for the
+ * byte per row layout at several checkpoint distances, for the packed layout and for the packed layout addressed
+ * with longs, which references of more than 2^31 bases get.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RankBenchmark {
+
+    private static final int QUERIES = 4096;
+
+    @Param({"1000000", "20000000"})
+    public int referenceLength;
+
+    //checkpoint-N for a byte per row with a checkpoint every N rows, packed for the 2 bit blocks, long-packed for
+    //the 2 bit blocks addressed with longs.
+    @Param({"checkpoint-16", "checkpoint-30", "checkpoint-64", "checkpoint-128", "packed", "long-packed"})
+    public String layout;
+
+    private FMIndex index;
+    private final long[] rows = new long[QUERIES];
+    private final int[] bases = new int[QUERIES];
+
+    @Setup
+    public void setUp() throws Exception {
+        boolean longAddressing = layout.equals("long-packed");
+        boolean packed = longAddressing || layout.equals("packed");
+        int checkpointDistance = packed ? SyntheticGenome.CHECKPOINT_DISTANCE
+                : Integer.parseInt(layout.substring(layout.indexOf('-') + 1));
+        index = FMIndex.load(SyntheticGenome.index(referenceLength, 0, checkpointDistance, 32, packed, false, false,
+                longAddressing));
+        Random random = new Random(7);
+        for (int i = 0; i < QUERIES; i++) {
+            rows[i] = random.nextInt(referenceLength + 1);
+            bases[i] = random.nextInt(4);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(QUERIES)
+    public long rank() {
+        long sum = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            sum += index.getRank(bases[i], rows[i]);
+        }
+        return sum;
+    }
+}
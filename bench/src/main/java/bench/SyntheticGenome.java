@@ -0,0 +1,126 @@
+package bench;
+
+import index.IndexBuilder;
+import index.IndexConfig;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * Synthetic references, reads and indexes for the benchmarks. Everything is generated from fixed seeds, so the
+ * same parameters always give the same data, and indexes are built once into the temporary directory and reused
+ * by the later forks and runs.
+ */
+final class SyntheticGenome {
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    //The length of the unit copied all over the reference to make its repeats.
+    private static final int REPEAT_LENGTH = 300;
+    private static final long SEED = 42;
+    //The checkpoint distance the builder uses by default.
+    static final int CHECKPOINT_DISTANCE = IndexConfig.DEFAULT_CHECKPOINT_DISTANCE;
+
+    private SyntheticGenome() {
+    }
+
+    /**
+     * @param repeatFraction The fraction of the reference covered by copies of a single repeat unit.
+     */
+    static char[] reference(int length, double repeatFraction) {
+        Random random = new Random(SEED);
+        char[] reference = new char[length];
+        for (int i = 0; i < length; i++) {
+            reference[i] = BASES[random.nextInt(4)];
+        }
+        int copies = (int) (repeatFraction * length / REPEAT_LENGTH);
+        for (int copy = 0; copy < copies && length > 2 * REPEAT_LENGTH; copy++) {
+            int at = REPEAT_LENGTH + random.nextInt(length - 2 * REPEAT_LENGTH);
+            System.arraycopy(reference, 0, reference, at, REPEAT_LENGTH);
+        }
+        return reference;
+    }
+
+    /**
+     * Samples reads of the reference with substitutions at the error rate, half of them reverse complemented.
+     * @return Returns the bases of every read, upper case.
+     */
+    static byte[][] reads(char[] reference, int count, int length, double errorRate) {
+        Random random = new Random(SEED + 1);
+        byte[][] reads = new byte[count][length];
+        for (int i = 0; i < count; i++) {
+            int start = random.nextInt(reference.length - length);
+            boolean reverse = random.nextBoolean();
+            for (int j = 0; j < length; j++) {
+                char base = reverse ? complement(reference[start + length - 1 - j]) : reference[start + j];
+                if (random.nextDouble() < errorRate) {
+                    base = BASES[(indexOf(base) + 1 + random.nextInt(3)) % 4];
+                }
+                reads[i][j] = (byte) base;
+            }
+        }
+        return reads;
+    }
+
+    /**
+     * @return Returns the directory of the index of the reference with the settings, building it when it is not
+     * there yet.
+     */
+    static String index(int length, double repeatFraction, int checkpointDistance, int suffixDistance,
+                        boolean packed, boolean sampleByRow, boolean mirror, boolean longAddressing) throws IOException {
+        String name = "bowtie-bench-" + length + "-" + repeatFraction + "-" + checkpointDistance + "-"
+                + suffixDistance + (packed ? "-packed" : "") + (sampleByRow ? "-rows" : "") + (mirror ? "-mirror" : "")
+                + (longAddressing ? "-long" : "");
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), name);
+        //The mirror is written last, so an index whose build was cut short is built again.
+        File last = mirror ? new File(dir.toFile(), "mirror/index.fm") : new File(dir.toFile(), "index.fm");
+        if (last.exists()) {
+            return dir.toString();
+        }
+
+        Path fasta = Files.createTempFile("bowtie-bench", ".fa");
+        try {
+            char[] reference = reference(length, repeatFraction);
+            try (BufferedWriter writer = Files.newBufferedWriter(fasta, StandardCharsets.US_ASCII)) {
+                writer.write(">synthetic\n");
+                for (int i = 0; i < reference.length; i += 80) {
+                    writer.write(reference, i, Math.min(80, reference.length - i));
+                    writer.write('\n');
+                }
+            }
+            new IndexBuilder()
+                    .setCheckpointDistance(checkpointDistance)
+                    .setSuffixDistance(suffixDistance)
+                    .setPackedOccurrences(packed)
+                    .setSampleByRow(sampleByRow)
+                    .setMirror(mirror)
+                    .setLongAddressing(longAddressing)
+                    .build(fasta.toString(), dir.toString());
+        } finally {
+            Files.deleteIfExists(fasta);
+        }
+        return dir.toString();
+    }
+
+    private static char complement(char base) {
+        return BASES[3 - indexOf(base)];
+    }
+
+    private static int indexOf(char base) {
+        switch (base) {
+            case 'A':
+                return 0;
+            case 'C':
+                return 1;
+            case 'G':
+                return 2;
+            default:
+                return 3;
+        }
+    }
+}
@@ -1,7 +0,0 @@
-package exceptions;
-
-/**
- * Created by ashwinsl on 12/1/15.
- */
-public class NoChoiceAvailable extends Exception {
-}
@@ -0,0 +1,62 @@
+package index;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * The last column stored one byte per row with the tally checkpoints every checkpoint distance rows.
+ * A rank walks the last column from the nearest checkpoint.
+ */
+class CheckpointOccurrences implements Occurrences {
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final ByteBuffer lastCol;
+    //Checkpoint counts interleaved as tally[position * 4 + base] so one lookup touches one cache line.
+    private final IntBuffer tally;
+    private final int distance;
+    private final int tallyLength;
+
+    CheckpointOccurrences(ByteBuffer lastCol, IntBuffer tally, int distance) {
+        this.lastCol = lastCol;
+        this.tally = tally;
+        this.distance = distance;
+        this.tallyLength = (lastCol.capacity() - 1) / distance;
+    }
+
+    @Override
+    public long getRank(int base, long at) {
+        if (at < 0) {
+            return 0;
+        }
+
+        int index = (int) at;
+        byte toCheck = BASES[base];
+        int position = index / distance;
+        int stepsToWalk = index % distance;
+
+        int seen = 0;
+        if (stepsToWalk > distance / 2 && position < tallyLength) {
+            //Closer to the next checkpoint, so walk back from it.
+            int nextCheckPoint = (position + 1) * distance;
+            for (int row = index + 1; row <= nextCheckPoint; row++) {
+                if (lastCol.get(row) == toCheck) {
+                    seen++;
+                }
+            }
+            return tally.get((position + 1) * 4 + base) - seen;
+        }
+
+        for (int row = index - stepsToWalk + 1; row <= index; row++) {
+            if (lastCol.get(row) == toCheck) {
+                seen++;
+            }
+        }
+        return tally.get(position * 4 + base) + seen;
+    }
+
+    @Override
+    public int getBase(long row) {
+        return FMIndex.getReleventRowNumber((char) lastCol.get((int) row));
+    }
+}
@@ -0,0 +1,84 @@
+package index;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32C;
+
+/**
+ * A section of longs of the index file of any length, memory mapped in chunks, as a mapped buffer holds at most
+ * 2^31 bytes. The chunks are 1 GB and start at multiples of it, so finding the chunk of an index is a shift, and a
+ * 64 byte block of the section never straddles two chunks, so a block is read from one chunk found once.
+ * Nothing is copied onto the heap.
+ */
+final class ChunkedBuffer {
+
+    //The longs of a chunk.
+    private static final int CHUNK_SHIFT = 27;
+    private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+    private final ByteBuffer[] bytes;
+    private final LongBuffer[] chunks;
+
+    private ChunkedBuffer(ByteBuffer[] bytes) {
+        this.bytes = bytes;
+        this.chunks = new LongBuffer[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chunks[i] = bytes[i].asLongBuffer();
+        }
+    }
+
+    /**
+     * Maps the bytes of the file from the offset on, little endian, read only.
+     * @param preload Whether the chunks are read into memory now rather than on their first use.
+     */
+    static ChunkedBuffer map(FileChannel channel, long offset, long length, boolean preload) throws IOException {
+        long chunkBytes = 8L << CHUNK_SHIFT;
+        ByteBuffer[] bytes = new ByteBuffer[(int) Math.max(1, (length + chunkBytes - 1) / chunkBytes)];
+        for (int i = 0; i < bytes.length; i++) {
+            long start = i * chunkBytes;
+            MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, offset + start,
+                    Math.min(length - start, chunkBytes));
+            if (preload) {
+                chunk.load();
+            }
+            bytes[i] = chunk.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new ChunkedBuffer(bytes);
+    }
+
+    /**
+     * @return Returns the long at the index.
+     */
+    long getLong(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)].get((int) (index & CHUNK_MASK));
+    }
+
+    /**
+     * @return Returns the chunk holding the long at the index, which it is read from at offset(index).
+     */
+    LongBuffer chunk(long index) {
+        return chunks[(int) (index >>> CHUNK_SHIFT)];
+    }
+
+    /**
+     * @return Returns the index of the long within its chunk.
+     */
+    static int offset(long index) {
+        return (int) (index & CHUNK_MASK);
+    }
+
+    /**
+     * @return Returns the CRC32C of all the bytes.
+     */
+    long checksum() {
+        CRC32C crc = new CRC32C();
+        for (ByteBuffer chunk : bytes) {
+            crc.update(chunk.duplicate());
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,283 @@
+package index;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The contigs of the reference, the records of its FASTA file, with the shard of the index each one is in. The index
+ * of a shard is built over the concatenation of its contigs in the order of the table, so a text position of a shard
+ * falls in one of its contigs, which find looks up.
+ *
+ * The table is the text file contigs of the index directory, with a line of name, length and shard directory,
+ * separated by tabs, for every contig, the contigs of a shard one after the other. An index which is not sharded has
+ * the shard ".", the index directory itself. Indexes built before the table have none, they are read as a single
+ * contig named after their directory.
+ *
+ * The runs of a contig which are not A, C, G or T in the reference, N runs mostly, are indexed as pseudo random bases
+ * so the coordinates are kept, and are listed in the text file masked, a line of contig number, start and end
+ * (exclusive) for every run, so the hits falling on them can be dropped.
+ */
+public final class ContigTable {
+
+    public static final String FILE_NAME = "contigs";
+    public static final String UNSHARDED = ".";
+    public static final String MASK_FILE_NAME = "masked";
+    private static final long[] NO_RUNS = new long[0];
+
+    private final String[] names;
+    private final long[] lengths;
+    //The shard of every contig and where the contig starts in the text of its shard.
+    private final int[] shards;
+    private final long[] starts;
+    //The directories of the shards in the order of the table, and the first contig of every shard followed by
+    //the number of contigs.
+    private final String[] shardDirectories;
+    private final int[] firstContigs;
+    //The masked runs of every contig, sorted, as pairs of start and end.
+    private final long[][] masked;
+
+    /**
+     * @param shardDirectories The shard directory of every contig, the contigs of a shard one after the other.
+     */
+    ContigTable(String[] names, long[] lengths, String[] shardDirectories) {
+        this(names, lengths, shardDirectories, null);
+    }
+
+    /**
+     * @param masked The masked runs of every contig, as pairs of start and end, null when none is.
+     */
+    ContigTable(String[] names, long[] lengths, String[] shardDirectories, long[][] masked) {
+        this.names = names;
+        this.lengths = lengths;
+        this.shards = new int[names.length];
+        this.starts = new long[names.length];
+
+        List<String> directories = new ArrayList<>();
+        List<Integer> firsts = new ArrayList<>();
+        long start = 0;
+        for (int contig = 0; contig < names.length; contig++) {
+            if (contig == 0 || !shardDirectories[contig].equals(shardDirectories[contig - 1])) {
+                if (directories.contains(shardDirectories[contig])) {
+                    throw new IllegalArgumentException("The contigs of shard " + shardDirectories[contig]
+                            + " are not one after the other");
+                }
+                directories.add(shardDirectories[contig]);
+                firsts.add(contig);
+                start = 0;
+            }
+            shards[contig] = directories.size() - 1;
+            starts[contig] = start;
+            start += lengths[contig];
+        }
+        firsts.add(names.length);
+        this.shardDirectories = directories.toArray(new String[0]);
+        this.firstContigs = firsts.stream().mapToInt(Integer::intValue).toArray();
+        this.masked = new long[names.length][];
+        for (int contig = 0; contig < names.length; contig++) {
+            this.masked[contig] = masked == null || masked[contig] == null ? NO_RUNS : masked[contig];
+        }
+    }
+
+    /**
+     * @return Returns the table of a reference of a single contig, which is not sharded.
+     */
+    public static ContigTable single(String name, long length) {
+        return new ContigTable(new String[]{name}, new long[]{length}, new String[]{UNSHARDED});
+    }
+
+    /**
+     * @param dir The index directory.
+     * @return Returns the table of the index, null when it has none.
+     */
+    public static ContigTable read(File dir) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> names = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        List<String> directories = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    throw new IOException("Expected name, length and shard in " + file + " : " + line);
+                }
+                names.add(fields[0]);
+                lengths.add(Long.parseLong(fields[1]));
+                directories.add(fields[2]);
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IOException("No contigs in " + file);
+        }
+        try {
+            return new ContigTable(names.toArray(new String[0]), lengths.stream().mapToLong(Long::longValue).toArray(),
+                    directories.toArray(new String[0]), readMasked(dir, names.size()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage() + " in " + file, e);
+        }
+    }
+
+    /**
+     * @return Returns the masked runs of every contig, null when the index has no mask file.
+     */
+    private static long[][] readMasked(File dir, int contigs) throws IOException {
+        File file = new File(dir, MASK_FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        List<List<Long>> runs = new ArrayList<>();
+        for (int contig = 0; contig < contigs; contig++) {
+            runs.add(new ArrayList<>());
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                if (fields.length != 3) {
+                    throw new IOException("Expected contig, start and end in " + file + " : " + line);
+                }
+                int contig = Integer.parseInt(fields[0]);
+                long start = Long.parseLong(fields[1]);
+                long end = Long.parseLong(fields[2]);
+                if (contig < 0 || contig >= contigs || start >= end) {
+                    throw new IOException("Invalid masked run in " + file + " : " + line);
+                }
+                runs.get(contig).add(start);
+                runs.get(contig).add(end);
+            }
+        }
+        long[][] masked = new long[contigs][];
+        for (int contig = 0; contig < contigs; contig++) {
+            masked[contig] = runs.get(contig).stream().mapToLong(Long::longValue).toArray();
+        }
+        return masked;
+    }
+
+    /**
+     * Writes the table into the index directory, with the mask file when a contig has masked runs.
+     */
+    void write(File dir) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(new File(dir, FILE_NAME).toPath(), StandardCharsets.UTF_8)) {
+            for (int contig = 0; contig < names.length; contig++) {
+                writer.write(names[contig] + "\t" + lengths[contig] + "\t" + shardDirectories[shards[contig]]);
+                writer.newLine();
+            }
+        }
+        File maskFile = new File(dir, MASK_FILE_NAME);
+        Files.deleteIfExists(maskFile.toPath());
+        boolean anyMasked = false;
+        for (long[] runs : masked) {
+            anyMasked |= runs.length > 0;
+        }
+        if (!anyMasked) {
+            return;
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(maskFile.toPath(), StandardCharsets.UTF_8)) {
+            for (int contig = 0; contig < names.length; contig++) {
+                for (int run = 0; run < masked[contig].length; run += 2) {
+                    writer.write(contig + "\t" + masked[contig][run] + "\t" + masked[contig][run + 1]);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Returns the number of contigs.
+     */
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int contig) {
+        return names[contig];
+    }
+
+    public long getLength(int contig) {
+        return lengths[contig];
+    }
+
+    /**
+     * @return Returns the shard the contig is in.
+     */
+    public int getShard(int contig) {
+        return shards[contig];
+    }
+
+    /**
+     * @return Returns the position of the first base of the contig in the text of its shard.
+     */
+    public long getStart(int contig) {
+        return starts[contig];
+    }
+
+    public int getShardCount() {
+        return shardDirectories.length;
+    }
+
+    /**
+     * @return Returns the directory of the index of the shard, relative to the index directory.
+     */
+    public String getShardDirectory(int shard) {
+        return shardDirectories[shard];
+    }
+
+    /**
+     * @return Returns the number of bases of the shard.
+     */
+    public long getShardLength(int shard) {
+        int last = firstContigs[shard + 1] - 1;
+        return starts[last] + lengths[last];
+    }
+
+    /**
+     * @return Returns whether the bases of the contig from the offset on overlap a masked run.
+     */
+    public boolean isMasked(int contig, long offset, long length) {
+        long[] runs = masked[contig];
+        //The first run ending after the offset is the only one which can overlap.
+        int low = 0;
+        int high = runs.length / 2;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (runs[2 * mid + 1] <= offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < runs.length / 2 && runs[2 * low] < offset + length;
+    }
+
+    /**
+     * @return Returns the contig of the shard holding the text position of the shard.
+     */
+    public int find(int shard, long position) {
+        int low = firstContigs[shard];
+        int high = firstContigs[shard + 1] - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+}
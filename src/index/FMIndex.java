@@ -1,11 +1,96 @@
 package index;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
 /**
  * Created by ashwinsl on 12/1/15.
  */
 public class FMIndex {
 
-    public static int FMDISTANCE = 30;
+    //Subdirectory of the index directory holding the index of the reversed reference.
+    public static final String MIRROR_DIR = "mirror";
+
+    //locate returns the text position in these low bits and the LF steps walked above them.
+    private static final int POSITION_BITS = 40;
+
+    //Starting row of A, C, G and T followed by the row after the last T. Row 0 is the sentinel '$'.
+    private final long[] firstCol;
+    private final IndexConfig config;
+
+    private final Occurrences occurrences;
+    private final SuffixSamples suffixSamples;
+
+    //Range of rows of every k-mer, as low at 2 * code and high at 2 * code + 1. A k-mer is coded with its
+    //first base in the lowest 2 bits. Null when the index was built without the table.
+    private final IntBuffer kmerTable;
+
+    //The text packed at 2 bits per base, 32 bases per long with the first in the lowest bits, in longReference
+    //when the index is addressed with longs. Both null when the index was built without it.
+    private final LongBuffer reference;
+    private final ChunkedBuffer longReference;
+
+    FMIndex(long[] firstCol, IndexConfig config, Occurrences occurrences, SuffixSamples suffixSamples,
+            IntBuffer kmerTable, LongBuffer reference, ChunkedBuffer longReference) {
+        this.firstCol = firstCol;
+        this.config = config;
+        this.occurrences = occurrences;
+        this.suffixSamples = suffixSamples;
+        this.kmerTable = kmerTable;
+        this.reference = reference;
+        this.longReference = longReference;
+    }
+
+    /**
+     * Loads the index from the directory. The memory mapped index file is used when present,
+     * otherwise the serialized extradata, lastColFile, tally and sa files are read.
+     * @param path The directory the index was built into.
+     */
+    public static FMIndex load(String path) throws IOException {
+        return load(path, false);
+    }
+
+    /**
+     * @param path The directory the index was built into.
+     * @param verify Whether the checksum of every section of the index file is verified, which reads the whole file.
+     */
+    public static FMIndex load(String path, boolean verify) throws IOException {
+        return load(path, verify, false);
+    }
+
+    /**
+     * @param path The directory the index was built into.
+     * @param verify Whether the checksum of every section of the index file is verified, which reads the whole file.
+     * @param preload Whether the index file is read into memory now, so its first searches do not fault its pages in.
+     */
+    public static FMIndex load(String path, boolean verify, boolean preload) throws IOException {
+        File file = new File(path, IndexFile.FILE_NAME);
+        return file.exists() ? IndexFile.open(file, verify, preload) : IndexFile.openLegacy(new File(path));
+    }
+
+    /**
+     * Loads the index of the reversed reference, which the builder writes next to the index when asked to.
+     * @param path The directory the index was built into.
+     * @return Returns the mirror index, or null when the index was built without it.
+     */
+    public static FMIndex loadMirror(String path) throws IOException {
+        return loadMirror(path, false);
+    }
+
+    /**
+     * @param path The directory the index was built into.
+     * @param preload Whether the index file of the mirror is read into memory now.
+     */
+    public static FMIndex loadMirror(String path, boolean preload) throws IOException {
+        File dir = new File(path, MIRROR_DIR);
+        if (!dir.isDirectory()) {
+            return null;
+        }
+        File file = new File(dir, IndexFile.FILE_NAME);
+        return file.exists() ? IndexFile.open(file, false, preload) : IndexFile.openLegacy(dir);
+    }
 
     public static int getReleventRowNumber(char toGet){
         switch (toGet) {
@@ -21,5 +106,147 @@ public class FMIndex {
         return -1;
     }
 
+    /**
+     * @return Returns the number of bases in the indexed text, excluding the sentinel.
+     */
+    public long getLength() {
+        return firstCol[4] - 1;
+    }
+
+    /**
+     * @return Returns the parameters the index was built with.
+     */
+    public IndexConfig getConfig() {
+        return config;
+    }
+
+    public int getCheckpointDistance() {
+        return config.getCheckpointDistance();
+    }
+
+    public int getSuffixDistance() {
+        return config.getSuffixDistance();
+    }
 
+    /**
+     * @return Returns whether the index holds the text itself, which getReferenceBase reads.
+     */
+    public boolean hasReference() {
+        return reference != null || longReference != null;
+    }
+
+    /**
+     * @return Returns the code of the base of the text at the position.
+     */
+    public int getReferenceBase(long position) {
+        long word = reference != null ? reference.get((int) (position >>> 5)) : longReference.getLong(position >>> 5);
+        return (int) (word >>> ((position & 31) << 1)) & 3;
+    }
+
+    /**
+     * @return Returns the length of the k-mers in the k-mer table, 0 when the index has no table.
+     */
+    public int getKmerLength() {
+        return config.getKmerLength();
+    }
+
+    /**
+     * @param code The k-mer, with its first base in the lowest 2 bits.
+     * @return Returns the first row of the BWT whose suffix starts with the k-mer. Greater than the last row
+     * when the k-mer does not occur.
+     */
+    public long getKmerFirstRow(int code) {
+        return kmerTable.get(2 * code);
+    }
+
+    /**
+     * @param code The k-mer, with its first base in the lowest 2 bits.
+     * @return Returns the last row of the BWT whose suffix starts with the k-mer.
+     */
+    public long getKmerLastRow(int code) {
+        return kmerTable.get(2 * code + 1);
+    }
+
+    /**
+     * @return Returns the first row of the BWT whose suffix starts with the base.
+     */
+    public long getFirstRow(int base) {
+        return firstCol[base];
+    }
+
+    /**
+     * @return Returns the last row of the BWT whose suffix starts with the base.
+     */
+    public long getLastRow(int base) {
+        return firstCol[base + 1] - 1;
+    }
+
+    /**
+     * @return Returns the offset which added to a rank of the base gives the row in the first column.
+     */
+    public long getOffset(int base) {
+        return firstCol[base] - 1;
+    }
+
+    /**
+     * @return Returns the number of times the base occurs in the last column up to and including the row.
+     */
+    public long getRank(int base, long row) {
+        return occurrences.getRank(base, row);
+    }
+
+    /**
+     * @return Returns the code of the base in the last column at the row, -1 for the sentinel.
+     */
+    public int getBase(long row) {
+        return occurrences.getBase(row);
+    }
+
+    /**
+     * @return Returns the suffix position of the row when it is sampled, which needs no LF walk, else -1.
+     */
+    public long getSampledSuffixPosition(long row) {
+        return suffixSamples.get(row);
+    }
+
+    /**
+     * @param row The index of the Last column from where we need to find the suffix.
+     * @return Returns the suffix positon for the corresponding Last column entry
+     */
+    public long getSuffixPosition(long row) {
+        return locatedPosition(locate(row));
+    }
+
+    /**
+     * Like getSuffixPosition, also counting the LF steps walked to a sampled row.
+     * @return Returns the text position and the number of LF steps, see locatedPosition and locatedSteps.
+     */
+    public long locate(long row) {
+        long value = suffixSamples.get(row);
+        int iteration = 0;
+        for ( ; value < 0; iteration++) {
+            int base = occurrences.getBase(row);
+            row = getOffset(base) + occurrences.getRank(base, row);
+            value = suffixSamples.get(row);
+        }
+
+        //Every LF step moves one position back in the text.
+        return (long) iteration << POSITION_BITS | (value + iteration);
+    }
+
+    /**
+     * @param located What locate returned.
+     * @return Returns the text position located.
+     */
+    public static long locatedPosition(long located) {
+        return located & ((1L << POSITION_BITS) - 1);
+    }
+
+    /**
+     * @param located What locate returned.
+     * @return Returns the number of LF steps walked to a sampled row.
+     */
+    public static int locatedSteps(long located) {
+        return (int) (located >>> POSITION_BITS);
+    }
 }
@@ -0,0 +1,843 @@
+package index;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Builds the FM Index of a FASTA reference and writes the files which are loaded by the Aligner.
+ * The suffix array is built with SA-IS, everything derived from it is computed in parallel chunks.
+ */
+public class IndexBuilder {
+
+    //Symbols of the text. The sentinel is the smallest and only appears at the end.
+    private static final int SENTINEL = 0;
+    private static final int ALPHABET_SIZE = 5;
+    private static final byte[] SYMBOLS = {'$', 'A', 'C', 'G', 'T'};
+
+    //Number of BWT rows handled by a single parallel task.
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    //A table of 12-mers already takes 128 MB.
+    private static final int MAX_KMER_LENGTH = 12;
+
+    //The bytes a base of a shard takes at most while it is indexed : a byte of text and an int of suffix array, the
+    //reduced problem of SA-IS and its suffix array, at most half an int each, and its type bits and recursion.
+    private static final long HEAP_PER_BASE = 10;
+
+    private int checkpointDistance = IndexConfig.DEFAULT_CHECKPOINT_DISTANCE;
+    private int suffixDistance = IndexConfig.DEFAULT_SUFFIX_DISTANCE;
+    private long memoryBudget = 0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean legacyFormat = false;
+    private boolean packedOccurrences = false;
+    private boolean sampleByRow = false;
+    private boolean mirror = false;
+    private int kmerLength = 0;
+    private boolean longAddressing = false;
+    private int shardCount = 1;
+    private boolean shardPerContig = false;
+    private Consumer<String> progress = message -> { };
+
+    /**
+     * @param checkpointDistance The number of BWT rows between two tally checkpoints.
+     */
+    public IndexBuilder setCheckpointDistance(int checkpointDistance) {
+        if (checkpointDistance < 1 || checkpointDistance > IndexConfig.MAX_DISTANCE) {
+            throw new IllegalArgumentException("Checkpoint distance must be between 1 and " + IndexConfig.MAX_DISTANCE);
+        }
+        this.checkpointDistance = checkpointDistance;
+        return this;
+    }
+
+    /**
+     * @param suffixDistance Every text position which is a multiple of this is kept in the sampled suffix array,
+     *                       or every row which is a multiple of this when sampling by row.
+     */
+    public IndexBuilder setSuffixDistance(int suffixDistance) {
+        if (suffixDistance < 1 || suffixDistance > IndexConfig.MAX_DISTANCE) {
+            throw new IllegalArgumentException("Suffix distance must be between 1 and " + IndexConfig.MAX_DISTANCE);
+        }
+        this.suffixDistance = suffixDistance;
+        return this;
+    }
+
+    /**
+     * @param memoryBudget The bytes the index, with its mirror, may take. The checkpoint and suffix distances are
+     *                     then picked for the reference, in place of the ones set, so that the rank calls and
+     *                     locates of a read are expected to be the cheapest, see IndexConfig. 0, the default,
+     *                     keeps the distances set.
+     */
+    public IndexBuilder setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("The memory budget cannot be negative");
+        }
+        this.memoryBudget = memoryBudget;
+        return this;
+    }
+
+    /**
+     * @param threads The number of threads used to derive the BWT, tally and sampled suffix array.
+     */
+    public IndexBuilder setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param legacyFormat Whether to write the serialized extradata, lastColFile, tally and sa files
+     *                     instead of the memory mapped index file.
+     */
+    public IndexBuilder setLegacyFormat(boolean legacyFormat) {
+        this.legacyFormat = legacyFormat;
+        return this;
+    }
+
+    /**
+     * @param packedOccurrences Whether the last column is packed at 2 bits per base with the counts inlined
+     *                          in every 64 byte block, instead of one byte per row with separate checkpoints.
+     */
+    public IndexBuilder setPackedOccurrences(boolean packedOccurrences) {
+        this.packedOccurrences = packedOccurrences;
+        return this;
+    }
+
+    /**
+     * @param sampleByRow Whether the suffix array is sampled every suffix distance rows instead of every suffix
+     *                    distance text positions. That needs no bitvector but does not bound the walk of a locate.
+     */
+    public IndexBuilder setSampleByRow(boolean sampleByRow) {
+        this.sampleByRow = sampleByRow;
+        return this;
+    }
+
+    /**
+     * @param mirror Whether an index of the reversed reference is also built, into the mirror subdirectory,
+     *               so reads can be searched from either end.
+     */
+    public IndexBuilder setMirror(boolean mirror) {
+        this.mirror = mirror;
+        return this;
+    }
+
+    /**
+     * @param kmerLength The length of the k-mers whose ranges of rows are tabled, so the first steps of a backward
+     *                   search are a single lookup. The table takes 2 ints for each of the 4^k k-mers.
+     *                   0, the default, builds no table.
+     */
+    public IndexBuilder setKmerLength(int kmerLength) {
+        if (kmerLength < 0 || kmerLength > MAX_KMER_LENGTH) {
+            throw new IllegalArgumentException("K-mer length must be between 0 and " + MAX_KMER_LENGTH);
+        }
+        this.kmerLength = kmerLength;
+        return this;
+    }
+
+    /**
+     * @param longAddressing Whether the index is addressed with longs, packed and sampled by text position, with its
+     *                       sampled text positions stored as longs, which a reference of more than 2^31 bases needs.
+     *                       References needing it get it anyway; this writes it for smaller ones too, to test and
+     *                       benchmark it.
+     */
+    public IndexBuilder setLongAddressing(boolean longAddressing) {
+        this.longAddressing = longAddressing;
+        return this;
+    }
+
+    /**
+     * @param shardCount The number of shards the contigs of the reference are split into, balancing their bases.
+     *                   Every shard is an index of its own, in a subdirectory, with the memory budget its own.
+     *                   1, the default, builds a single index.
+     */
+    public IndexBuilder setShardCount(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Need at least one shard");
+        }
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    /**
+     * @param shardPerContig Whether every contig of the reference is a shard of its own, which the shard count
+     *                       is then ignored for.
+     */
+    public IndexBuilder setShardPerContig(boolean shardPerContig) {
+        this.shardPerContig = shardPerContig;
+        return this;
+    }
+
+    /**
+     * @param progress Is given a line for every shard, with its contigs, for the config of every index and for the
+     *                 time its suffix array took. The builder writes nothing itself, the default drops them.
+     */
+    public IndexBuilder setProgress(Consumer<String> progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * Reads the reference and writes the index into the output directory, with its table of contigs.
+     * @param fastaPath Path of the FASTA reference. The records of a shard are concatenated.
+     * @param outputDir The directory the index files are written to.
+     */
+    public void build(String fastaPath, String outputDir) throws IOException {
+
+        File dir = new File(outputDir);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create the index directory " + outputDir);
+        }
+
+        if (legacyFormat && sampleByRow) {
+            throw new IllegalStateException("The serialized index files only support sampling by text position");
+        }
+        if (legacyFormat && kmerLength > 0) {
+            throw new IllegalStateException("The serialized index files have no k-mer table");
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            List<Contig> contigs = readFasta(fastaPath);
+            List<List<Contig>> shards = shardContigs(contigs);
+
+            List<String> names = new ArrayList<>();
+            List<Long> lengths = new ArrayList<>();
+            List<String> directories = new ArrayList<>();
+            List<long[]> masked = new ArrayList<>();
+            long held = 0;
+            for (Contig contig : contigs) {
+                held += contig.bases.length;
+            }
+            for (int shard = 0; shard < shards.size(); shard++) {
+                String directory = shards.size() == 1 ? ContigTable.UNSHARDED : "shard-" + shard;
+                StringBuilder shardNames = new StringBuilder();
+                long shardLength = 0;
+                for (Contig contig : shards.get(shard)) {
+                    names.add(contig.name);
+                    lengths.add((long) contig.length);
+                    directories.add(directory);
+                    masked.add(contig.maskedRuns());
+                    shardLength += contig.length;
+                    shardNames.append(shardNames.length() == 0 ? "" : ", ").append(contig.name);
+                }
+                if (shards.size() > 1) {
+                    progress.accept("Shard " + directory + " : " + shardNames);
+                }
+                checkHeap(held, shardLength, directory);
+                byte[] text = concatenate(shards.get(shard), fastaPath);
+                //The text holds the bases of the contigs of the shard from now on.
+                for (Contig contig : shards.get(shard)) {
+                    held -= contig.bases.length;
+                    contig.bases = null;
+                }
+                buildShard(pool, text, new File(dir, directory));
+            }
+            new ContigTable(names.toArray(new String[0]), lengths.stream().mapToLong(Long::longValue).toArray(),
+                    directories.toArray(new String[0]), masked.toArray(new long[0][])).write(dir);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The builder holds the whole text of a shard, its suffix array and the arrays of SA-IS in the heap, up to
+     * HEAP_PER_BASE bytes a base, on top of the bases of the contigs still to index. A shard which cannot
+     * fit is refused before any of it is built, rather than failing with an OutOfMemoryError hours in : the reference
+     * has to be sharded, or the heap raised.
+     * @param held The bytes the bases of the contigs read take.
+     */
+    private static void checkHeap(long held, long shardLength, String directory) {
+        long needed = held + HEAP_PER_BASE * (shardLength + 1);
+        long available = Runtime.getRuntime().maxMemory();
+        if (needed > available) {
+            String shard = directory.equals(ContigTable.UNSHARDED) ? "the reference" : "shard " + directory;
+            throw new IllegalStateException("Indexing " + shard + " of " + shardLength
+                    + " bases needs about " + (needed >> 20) + " MB of heap and the JVM has " + (available >> 20)
+                    + " MB : use more shards or a larger -Xmx");
+        }
+    }
+
+    /**
+     * Builds the index of the text, with its mirror, into the directory.
+     */
+    private void buildShard(ForkJoinPool pool, byte[] text, File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create the index directory " + dir);
+        }
+        IndexConfig config = new IndexConfig(text.length - 1, checkpointDistance, suffixDistance,
+                packedOccurrences && !legacyFormat, legacyFormat ? IndexFile.SORTED_SAMPLING
+                : sampleByRow ? IndexFile.ROW_SAMPLING : IndexFile.TEXT_SAMPLING, kmerLength, !legacyFormat,
+                false);
+        //The distances are tuned before the layout is picked, as they decide how large the sections are. Tuning
+        //only picks distances the layout holds, so the ints are only left when the reference needs longs.
+        if (memoryBudget > 0 && !longAddressing && !config.needsLongAddressing()) {
+            config = config.tune(memoryBudget, mirror);
+        }
+        if (longAddressing || config.needsLongAddressing()) {
+            if (legacyFormat || sampleByRow || kmerLength > 0) {
+                throw new IllegalStateException("An index addressed with longs is packed, sampled by text position"
+                        + " and has no k-mer table");
+            }
+            config = new IndexConfig(text.length - 1, config.getCheckpointDistance(), config.getSuffixDistance(),
+                    true, IndexFile.TEXT_SAMPLING, 0, true, true);
+            if (memoryBudget > 0) {
+                config = config.tune(memoryBudget, mirror);
+            }
+        }
+        progress.accept("Index : " + config);
+        writeIndex(pool, text, dir, config);
+
+        if (mirror) {
+            File mirrorDir = new File(dir, FMIndex.MIRROR_DIR);
+            if (!mirrorDir.isDirectory() && !mirrorDir.mkdirs()) {
+                throw new IOException("Cannot create the index directory " + mirrorDir);
+            }
+            //Reverse the bases, the sentinel stays at the end.
+            for (int i = 0, j = text.length - 2; i < j; i++, j--) {
+                byte base = text[i];
+                text[i] = text[j];
+                text[j] = base;
+            }
+            writeIndex(pool, text, mirrorDir, config.withoutReference());
+        }
+    }
+
+    /**
+     * Splits the contigs into the shards, in the order of the reference. Balancing the shards hands every contig,
+     * the longest first, to the shard with the fewest bases so far; the shards then keep their contigs in the order
+     * of the reference, and are in the order of their first contig.
+     */
+    private List<List<Contig>> shardContigs(List<Contig> contigs) {
+        List<List<Contig>> shards = new ArrayList<>();
+        if (shardPerContig) {
+            for (Contig contig : contigs) {
+                shards.add(List.of(contig));
+            }
+            return shards;
+        }
+
+        int count = Math.min(shardCount, contigs.size());
+        long[] bases = new long[count];
+        List<List<Contig>> balanced = new ArrayList<>();
+        for (int shard = 0; shard < count; shard++) {
+            balanced.add(new ArrayList<>());
+        }
+        List<Contig> longestFirst = new ArrayList<>(contigs);
+        longestFirst.sort(Comparator.comparingInt((Contig contig) -> contig.length).reversed());
+        for (Contig contig : longestFirst) {
+            int smallest = 0;
+            for (int shard = 1; shard < count; shard++) {
+                if (bases[shard] < bases[smallest]) {
+                    smallest = shard;
+                }
+            }
+            balanced.get(smallest).add(contig);
+            bases[smallest] += contig.length;
+        }
+        for (List<Contig> shard : balanced) {
+            shard.sort(Comparator.comparingInt(contig -> contig.order));
+        }
+        balanced.sort(Comparator.comparingInt(shard -> shard.get(0).order));
+        return balanced;
+    }
+
+    /**
+     * @return Returns the text of the contigs, one after the other, terminated by the sentinel.
+     */
+    private static byte[] concatenate(List<Contig> contigs, String fastaPath) throws IOException {
+        long length = 1;
+        for (Contig contig : contigs) {
+            length += contig.length;
+        }
+        //The text and its suffix array are built in arrays, so the builder stops at 2^31 bases a shard, although
+        //an index addressed with longs holds more.
+        if (length >= Integer.MAX_VALUE) {
+            throw new IOException("Reference is too large for the builder to index, shard it : " + fastaPath);
+        }
+        byte[] text = new byte[(int) length];
+        int position = 0;
+        for (Contig contig : contigs) {
+            System.arraycopy(contig.bases, 0, text, position, contig.length);
+            position += contig.length;
+        }
+        text[position] = SENTINEL;
+        return text;
+    }
+
+    /**
+     * Builds the index of the text, which is left as it is, and writes it into the directory.
+     */
+    private void writeIndex(ForkJoinPool pool, byte[] text, File dir, IndexConfig config) throws IOException {
+        int length = text.length;
+
+        long a = System.currentTimeMillis();
+        int[] suffixArray = SAIS.build(text, length, ALPHABET_SIZE);
+        progress.accept("Suffix array of " + (length - 1) + " bases built in milliseconds : "
+                + (System.currentTimeMillis() - a));
+
+        byte[] lastCol = buildLastColumn(pool, text, suffixArray);
+        int[] firstCol = buildFirstColumn(text);
+        long[] longFirstCol = new long[firstCol.length];
+        for (int i = 0; i < firstCol.length; i++) {
+            longFirstCol[i] = firstCol[i];
+        }
+
+        int dollarRow = findDollarRow(lastCol);
+        int[] kmerTable = kmerLength > 0 ? buildKmerTable(pool, text, suffixArray) : null;
+        int suffixDistance = config.getSuffixDistance();
+        int[] sampledRows = config.isSampledByRow() ? everyRow(length, suffixDistance)
+                : sampleRows(pool, suffixArray, suffixDistance);
+        int[] sampledValues = new int[sampledRows.length];
+        for (int i = 0; i < sampledRows.length; i++) {
+            sampledValues[i] = suffixArray[sampledRows[i]];
+        }
+        suffixArray = null;
+
+        if (legacyFormat) {
+            IndexFile.writeLegacy(dir, firstCol, config.getCheckpointDistance(), suffixDistance, lastCol,
+                    buildTally(pool, lastCol, config.getCheckpointDistance()), sampledRows, sampledValues);
+        } else {
+            try (IndexFile.Writer writer = new IndexFile.Writer(new File(dir, IndexFile.FILE_NAME))) {
+                writer.setParameters(longFirstCol, dollarRow, config);
+                if (config.isLongAddressing()) {
+                    long[] packed = buildPackedOccurrences(pool, lastCol);
+                    long[] superblocks = LongPackedOccurrences.splitCounts(packed);
+                    writer.writeSection(IndexFile.PACKED_OCCURRENCES, packed);
+                    writer.writeSection(IndexFile.SUPERBLOCK_COUNTS, superblocks);
+                } else if (config.isPackedOccurrences()) {
+                    writer.writeSection(IndexFile.PACKED_OCCURRENCES, buildPackedOccurrences(pool, lastCol));
+                } else {
+                    writer.writeSection(IndexFile.LAST_COLUMN, lastCol);
+                    writer.writeSection(IndexFile.TALLY,
+                            IndexFile.interleave(buildTally(pool, lastCol, config.getCheckpointDistance())));
+                }
+                if (!config.isSampledByRow()) {
+                    writer.writeSection(IndexFile.SUFFIX_BITS, RankedSuffixSamples.buildBits(sampledRows, length));
+                }
+                if (config.isLongAddressing()) {
+                    long[] longValues = new long[sampledValues.length];
+                    for (int i = 0; i < sampledValues.length; i++) {
+                        longValues[i] = sampledValues[i];
+                    }
+                    writer.writeSection(IndexFile.LONG_SUFFIX_VALUES, longValues);
+                } else {
+                    writer.writeSection(IndexFile.SUFFIX_VALUES, sampledValues);
+                }
+                if (kmerTable != null) {
+                    writer.writeSection(IndexFile.KMER_TABLE, kmerTable);
+                }
+                if (config.hasReference()) {
+                    writer.writeSection(IndexFile.REFERENCE, packReference(text));
+                }
+                writer.commit();
+            }
+        }
+    }
+
+    /**
+     * A record of the FASTA file, as symbol codes.
+     */
+    private static final class Contig {
+        private final String name;
+        private final int order;
+        private byte[] bases = new byte[1 << 10];
+        private int length;
+        //The runs of bases other than A, C, G and T, as pairs of start and end.
+        private int[] masked = new int[0];
+        private int maskedLength;
+
+        private Contig(String name, int order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        private void add(int code) {
+            if (length == bases.length) {
+                if (length == Integer.MAX_VALUE - 8) {
+                    throw new IllegalStateException("Contig " + name + " is too large for the builder to index");
+                }
+                bases = Arrays.copyOf(bases, (int) Math.min(2L * length, Integer.MAX_VALUE - 8));
+            }
+            bases[length++] = (byte) code;
+        }
+
+        /**
+         * Marks the last base added as masked, extending the run it follows.
+         */
+        private void maskLast() {
+            if (maskedLength > 0 && masked[maskedLength - 1] == length - 1) {
+                masked[maskedLength - 1] = length;
+                return;
+            }
+            if (maskedLength == masked.length) {
+                masked = Arrays.copyOf(masked, Math.max(16, 2 * masked.length));
+            }
+            masked[maskedLength++] = length - 1;
+            masked[maskedLength++] = length;
+        }
+
+        private long[] maskedRuns() {
+            long[] runs = new long[maskedLength];
+            for (int i = 0; i < maskedLength; i++) {
+                runs[i] = masked[i];
+            }
+            return runs;
+        }
+    }
+
+    /**
+     * Reads every record of the FASTA file, named after the first word of its header, as symbol codes. Bases before
+     * the first header are a record named after the file, and records without bases are left out.
+     * Bases other than A, C, G and T are replaced by a pseudo random base so the coordinates are kept, and masked,
+     * so the aligner drops the hits on them.
+     */
+    private List<Contig> readFasta(String fastaPath) throws IOException {
+        File file = new File(fastaPath);
+        String fileName = file.getName();
+        List<Contig> contigs = new ArrayList<>();
+        Contig contig = new Contig(fileName.contains(".") ? fileName.substring(0, fileName.indexOf('.')) : fileName, 0);
+        int random = 0x2545F491;
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+            boolean header = false;
+            boolean lineStart = true;
+            StringBuilder name = null;
+            int read;
+            while ((read = in.read()) != -1) {
+                if (read == '\n' || read == '\r') {
+                    if (name != null) {
+                        contig = next(name, contig);
+                        name = null;
+                    }
+                    header = false;
+                    lineStart = true;
+                    continue;
+                }
+                if (lineStart && read == '>') {
+                    if (contig.length > 0) {
+                        contigs.add(contig);
+                    }
+                    header = true;
+                    lineStart = false;
+                    name = new StringBuilder();
+                    continue;
+                }
+                lineStart = false;
+                if (header) {
+                    //The name is the first word of the header.
+                    if (name != null && Character.isWhitespace(read)) {
+                        if (name.length() > 0) {
+                            contig = next(name, contig);
+                            name = null;
+                        }
+                    } else if (name != null) {
+                        name.append((char) read);
+                    }
+                    continue;
+                }
+                if (Character.isWhitespace(read)) {
+                    continue;
+                }
+                int code = FMIndex.getReleventRowNumber(Character.toUpperCase((char) read));
+                if (code >= 0) {
+                    contig.add(code + 1);
+                    continue;
+                }
+                random ^= random << 13;
+                random ^= random >>> 17;
+                random ^= random << 5;
+                contig.add((random & 3) + 1);
+                contig.maskLast();
+            }
+        }
+        if (contig.length > 0) {
+            contigs.add(contig);
+        }
+
+        if (contigs.isEmpty()) {
+            throw new IOException("No bases found in " + fastaPath);
+        }
+        return contigs;
+    }
+
+    /**
+     * @return Returns the record following the previous one, named after its header, or after its order when the
+     * header is empty.
+     */
+    private static Contig next(StringBuilder name, Contig previous) {
+        int order = previous.order + 1;
+        return new Contig(name.length() > 0 ? name.toString() : "contig" + order, order);
+    }
+
+    /**
+     * The first column is stored as the starting row of every base, the sentinel occupies row 0.
+     */
+    private int[] buildFirstColumn(byte[] text) {
+        int[] counts = new int[ALPHABET_SIZE];
+        for (byte symbol : text) {
+            counts[symbol]++;
+        }
+        int[] firstCol = new int[ALPHABET_SIZE];
+        int start = counts[SENTINEL];
+        for (int c = 1; c < ALPHABET_SIZE; c++) {
+            firstCol[c - 1] = start;
+            start += counts[c];
+        }
+        firstCol[ALPHABET_SIZE - 1] = start;
+        return firstCol;
+    }
+
+    private byte[] buildLastColumn(ForkJoinPool pool, byte[] text, int[] suffixArray) {
+        int length = suffixArray.length;
+        byte[] lastCol = new byte[length];
+        forEachChunk(pool, length, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                int position = suffixArray[row];
+                lastCol[row] = SYMBOLS[position == 0 ? text[length - 1] : text[position - 1]];
+            }
+        });
+        return lastCol;
+    }
+
+    /**
+     * @return Returns the sorted rows whose text position is a multiple of the suffix distance.
+     */
+    private int[] sampleRows(ForkJoinPool pool, int[] suffixArray, int suffixDistance) {
+        int length = suffixArray.length;
+        int chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        //Collect the rows of every chunk in parallel, then merge them in order.
+        int[][] rows = new int[chunks][];
+        forEachChunk(pool, length, (from, to) -> {
+            int count = 0;
+            for (int row = from; row < to; row++) {
+                if (suffixArray[row] % suffixDistance == 0) {
+                    count++;
+                }
+            }
+            int[] chunkRows = new int[count];
+            count = 0;
+            for (int row = from; row < to; row++) {
+                if (suffixArray[row] % suffixDistance == 0) {
+                    chunkRows[count++] = row;
+                }
+            }
+            rows[from / CHUNK_SIZE] = chunkRows;
+        });
+
+        int total = 0;
+        for (int[] chunkRows : rows) {
+            total += chunkRows.length;
+        }
+        int[] sampled = new int[total];
+        int count = 0;
+        for (int[] chunkRows : rows) {
+            System.arraycopy(chunkRows, 0, sampled, count, chunkRows.length);
+            count += chunkRows.length;
+        }
+        return sampled;
+    }
+
+    private int[] everyRow(int length, int suffixDistance) {
+        int[] rows = new int[(length + suffixDistance - 1) / suffixDistance];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = i * suffixDistance;
+        }
+        return rows;
+    }
+
+    /**
+     * @return Returns the bases of the text, without the sentinel, at 2 bits each with the first in the lowest bits.
+     */
+    private static long[] packReference(byte[] text) {
+        int length = text.length - 1;
+        long[] packed = new long[(length + 31) / 32];
+        for (int i = 0; i < length; i++) {
+            packed[i >>> 5] |= (long) (text[i] - 1) << ((i & 31) << 1);
+        }
+        return packed;
+    }
+
+    /**
+     * The rows of the suffixes starting with a k-mer are contiguous, so every row whose neighbour starts with
+     * another k-mer is the first or last row of its k-mer, and the rows can be looked at independently.
+     * @return Returns the first and last row of every k-mer, the first above the last when it does not occur.
+     */
+    private int[] buildKmerTable(ForkJoinPool pool, byte[] text, int[] suffixArray) {
+        int length = suffixArray.length;
+        int[] table = new int[2 << (2 * kmerLength)];
+        for (int code = 0; code < table.length; code += 2) {
+            table[code + 1] = -1;
+        }
+        forEachChunk(pool, length, (from, to) -> {
+            for (int row = from; row < to; row++) {
+                int code = kmerCode(text, suffixArray[row]);
+                if (code < 0) {
+                    continue;
+                }
+                if (row == 0 || kmerCode(text, suffixArray[row - 1]) != code) {
+                    table[2 * code] = row;
+                }
+                if (row == length - 1 || kmerCode(text, suffixArray[row + 1]) != code) {
+                    table[2 * code + 1] = row;
+                }
+            }
+        });
+        return table;
+    }
+
+    /**
+     * @return Returns the code of the k-mer at the position, with its first base in the lowest 2 bits,
+     * or -1 when the k-mer would run into the sentinel.
+     */
+    private int kmerCode(byte[] text, int position) {
+        if (position + kmerLength >= text.length) {
+            return -1;
+        }
+        int code = 0;
+        for (int i = kmerLength - 1; i >= 0; i--) {
+            code = (code << 2) | (text[position + i] - 1);
+        }
+        return code;
+    }
+
+    /**
+     * tally[base][i] holds the number of times the base occurs in the last column up to and including
+     * row i * checkpointDistance.
+     */
+    private int[][] buildTally(ForkJoinPool pool, byte[] lastCol, int checkpointDistance) {
+        int length = lastCol.length;
+        int tallyLength = (length - 1) / checkpointDistance;
+        int[][] tally = new int[4][tallyLength + 1];
+
+        //Chunks start on a checkpoint so each one can fill its own checkpoints after a prefix sum.
+        int chunkRows = Math.max(1, CHUNK_SIZE / checkpointDistance) * checkpointDistance;
+        int chunks = (length + chunkRows - 1) / chunkRows;
+        int[][] chunkCounts = new int[chunks + 1][4];
+
+        runParallel(pool, chunks, chunk -> {
+            int from = chunk * chunkRows;
+            int to = Math.min(length, from + chunkRows);
+            int[] counts = chunkCounts[chunk + 1];
+            for (int row = from; row < to; row++) {
+                int code = FMIndex.getReleventRowNumber((char) lastCol[row]);
+                if (code >= 0) {
+                    counts[code]++;
+                }
+            }
+        });
+
+        for (int chunk = 1; chunk <= chunks; chunk++) {
+            for (int c = 0; c < 4; c++) {
+                chunkCounts[chunk][c] += chunkCounts[chunk - 1][c];
+            }
+        }
+
+        runParallel(pool, chunks, chunk -> {
+            int from = chunk * chunkRows;
+            int to = Math.min(length, from + chunkRows);
+            int[] counts = chunkCounts[chunk].clone();
+            for (int row = from; row < to; row++) {
+                int code = FMIndex.getReleventRowNumber((char) lastCol[row]);
+                if (code >= 0) {
+                    counts[code]++;
+                }
+                if (row % checkpointDistance == 0) {
+                    int position = row / checkpointDistance;
+                    for (int c = 0; c < 4; c++) {
+                        tally[c][position] = counts[c];
+                    }
+                }
+            }
+        });
+
+        return tally;
+    }
+
+    /**
+     * Packs the last column into 64 byte blocks of inlined counts and 2 bit bases.
+     */
+    private long[] buildPackedOccurrences(ForkJoinPool pool, byte[] lastCol) {
+        int length = lastCol.length;
+        int blocks = (length + PackedOccurrences.BASES_PER_BLOCK - 1) / PackedOccurrences.BASES_PER_BLOCK;
+        long[] packed = new long[blocks * PackedOccurrences.LONGS_PER_BLOCK];
+
+        int chunkBlocks = Math.max(1, CHUNK_SIZE / PackedOccurrences.BASES_PER_BLOCK);
+        int chunks = (blocks + chunkBlocks - 1) / chunkBlocks;
+        int[][] chunkCounts = new int[chunks + 1][4];
+
+        //The sentinel is counted as an A, as that is how it is packed.
+        runParallel(pool, chunks, chunk -> {
+            int from = chunk * chunkBlocks * PackedOccurrences.BASES_PER_BLOCK;
+            int to = Math.min(length, from + chunkBlocks * PackedOccurrences.BASES_PER_BLOCK);
+            int[] counts = chunkCounts[chunk + 1];
+            for (int row = from; row < to; row++) {
+                counts[Math.max(0, FMIndex.getReleventRowNumber((char) lastCol[row]))]++;
+            }
+        });
+
+        for (int chunk = 1; chunk <= chunks; chunk++) {
+            for (int c = 0; c < 4; c++) {
+                chunkCounts[chunk][c] += chunkCounts[chunk - 1][c];
+            }
+        }
+
+        runParallel(pool, chunks, chunk -> {
+            int[] counts = chunkCounts[chunk].clone();
+            int to = Math.min(blocks, (chunk + 1) * chunkBlocks);
+            for (int block = chunk * chunkBlocks; block < to; block++) {
+                PackedOccurrences.packBlock(lastCol, block, counts, packed);
+            }
+        });
+
+        return packed;
+    }
+
+    private static int findDollarRow(byte[] lastCol) {
+        for (int row = 0; row < lastCol.length; row++) {
+            if (lastCol[row] == SYMBOLS[SENTINEL]) {
+                return row;
+            }
+        }
+        throw new IllegalStateException("The last column has no sentinel");
+    }
+
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private interface ChunkTask {
+        void run(int chunk);
+    }
+
+    private static void forEachChunk(ForkJoinPool pool, int length, RangeTask task) {
+        int chunks = (length + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        runParallel(pool, chunks, chunk -> {
+            int from = chunk * CHUNK_SIZE;
+            task.run(from, Math.min(length, from + CHUNK_SIZE));
+        });
+    }
+
+    private static void runParallel(ForkJoinPool pool, int chunks, ChunkTask task) {
+        try {
+            pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(task::run)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Index construction was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Index construction failed", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package index;
+
+/**
+ * The parameters an index was built with, which are read from its header when it is loaded, so indexes built
+ * differently can be loaded side by side.
+ *
+ * It also estimates the size of the index and the cost of a rank and of a locate, from a simple model of the
+ * memory reads they do, which the builder uses to pick the distances fitting a memory budget. The estimates are
+ * written into the header of the index file.
+ */
+public final class IndexConfig {
+
+    public static final int DEFAULT_CHECKPOINT_DISTANCE = 30;
+    public static final int DEFAULT_SUFFIX_DISTANCE = 32;
+    static final int MAX_DISTANCE = 255;
+
+    //The cost model. A read of a cache line the search has not touched yet, which is most of them on a genome,
+    //and a row of the last column compared while walking from a checkpoint.
+    private static final double MISS_NANOS = 80;
+    private static final double SCAN_NANOS = 0.5;
+    //The popcounts of a packed rank, within its one cache line.
+    private static final double POPCOUNT_NANOS = 4;
+    //What a read costs, as measured with -metrics on 100 base reads: about 250 rank calls for its search and a
+    //locate for its hit.
+    private static final double RANKS_PER_READ = 250;
+    private static final double LOCATES_PER_READ = 1;
+
+    private final long length;
+    private final int checkpointDistance;
+    private final int suffixDistance;
+    private final boolean packedOccurrences;
+    private final int suffixSampling;
+    private final int kmerLength;
+    private final boolean reference;
+    private final boolean longAddressing;
+
+    /**
+     * @param length The number of bases of the text, without the sentinel.
+     * @param suffixSampling IndexFile.TEXT_SAMPLING, ROW_SAMPLING or SORTED_SAMPLING.
+     * @param reference Whether the index holds the text packed at 2 bits per base.
+     * @param longAddressing Whether rows and text positions are longs, see isLongAddressing.
+     */
+    IndexConfig(long length, int checkpointDistance, int suffixDistance, boolean packedOccurrences,
+                int suffixSampling, int kmerLength, boolean reference, boolean longAddressing) {
+        this.length = length;
+        this.checkpointDistance = checkpointDistance;
+        this.suffixDistance = suffixDistance;
+        this.packedOccurrences = packedOccurrences;
+        this.suffixSampling = suffixSampling;
+        this.kmerLength = kmerLength;
+        this.reference = reference;
+        this.longAddressing = longAddressing;
+    }
+
+    /**
+     * @return Returns whether the index has more rows than an int addresses, or a section larger than a mapped
+     * buffer holds, so it has to be addressed with longs.
+     */
+    boolean needsLongAddressing() {
+        long rows = length + 1;
+        long samples = (rows + suffixDistance - 1) / suffixDistance;
+        //The largest sections : the last column, its checkpoints and the sampled suffix array.
+        long largest = Math.max(packedOccurrences ? rows / 3 : Math.max(rows, 16 * ((rows - 1) / checkpointDistance + 1)),
+                8 * samples);
+        return rows > Integer.MAX_VALUE || largest > Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return Returns the same configuration with other distances.
+     */
+    IndexConfig withDistances(int checkpointDistance, int suffixDistance) {
+        return new IndexConfig(length, checkpointDistance, suffixDistance, packedOccurrences, suffixSampling,
+                kmerLength, reference, longAddressing);
+    }
+
+    /**
+     * @return Returns the same configuration without the packed text, which is what the mirror index has.
+     */
+    IndexConfig withoutReference() {
+        return new IndexConfig(length, checkpointDistance, suffixDistance, packedOccurrences, suffixSampling,
+                kmerLength, false, longAddressing);
+    }
+
+    /**
+     * Picks the distances fitting the budget whose reads are expected to be the cheapest. Distances whose sections
+     * are too large for the layout of the configuration, one addressed with ints, are never picked.
+     * @param budget The bytes the index, and its mirror when there is one, may take.
+     * @param mirror Whether the budget also holds a mirror index, which has no packed text.
+     * @return Returns the configuration with the distances picked.
+     */
+    IndexConfig tune(long budget, boolean mirror) {
+        IndexConfig best = null;
+        double bestCost = Double.MAX_VALUE;
+        long smallest = Long.MAX_VALUE;
+        //The distance of the checkpoints means nothing to the packed layout.
+        int maxCheckpointDistance = packedOccurrences ? 1 : MAX_DISTANCE;
+        for (int checkpoint = 1; checkpoint <= maxCheckpointDistance; checkpoint++) {
+            for (int suffix = 1; suffix <= MAX_DISTANCE; suffix++) {
+                IndexConfig candidate = withDistances(packedOccurrences ? checkpointDistance : checkpoint, suffix);
+                if (!longAddressing && candidate.needsLongAddressing()) {
+                    continue;
+                }
+                long bytes = candidate.estimateBytes() + (mirror ? candidate.withoutReference().estimateBytes() : 0);
+                smallest = Math.min(smallest, bytes);
+                double cost = candidate.estimateReadNanos();
+                if (bytes <= budget && cost < bestCost) {
+                    best = candidate;
+                    bestCost = cost;
+                }
+            }
+        }
+        if (best == null) {
+            throw new IllegalStateException(smallest == Long.MAX_VALUE
+                    ? "No index of " + length + " bases addressed with ints can be built, it needs longs"
+                    : "No index of " + length + " bases fits in " + budget + " bytes, the smallest takes " + smallest);
+        }
+        return best;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getCheckpointDistance() {
+        return checkpointDistance;
+    }
+
+    public int getSuffixDistance() {
+        return suffixDistance;
+    }
+
+    public boolean isPackedOccurrences() {
+        return packedOccurrences;
+    }
+
+    /**
+     * @return Returns whether every suffix distance rows are sampled, rather than every suffix distance text
+     * positions.
+     */
+    public boolean isSampledByRow() {
+        return suffixSampling == IndexFile.ROW_SAMPLING;
+    }
+
+    int getSuffixSampling() {
+        return suffixSampling;
+    }
+
+    /**
+     * @return Returns the length of the k-mers in the k-mer table, 0 when the index has no table.
+     */
+    public int getKmerLength() {
+        return kmerLength;
+    }
+
+    public boolean hasReference() {
+        return reference;
+    }
+
+    /**
+     * @return Returns whether the index is addressed with longs : packed, sampled by text position, with its
+     * sampled text positions stored as longs, and its sections mapped in chunks.
+     */
+    public boolean isLongAddressing() {
+        return longAddressing;
+    }
+
+    /**
+     * @return Returns the estimated size of the index file in bytes.
+     */
+    public long estimateBytes() {
+        long rows = length + 1;
+        long bytes = 1024;
+        if (packedOccurrences) {
+            long blocks = (rows + PackedOccurrences.BASES_PER_BLOCK - 1) / PackedOccurrences.BASES_PER_BLOCK;
+            bytes += blocks * PackedOccurrences.LONGS_PER_BLOCK * 8;
+            if (longAddressing) {
+                bytes += 32 * ((blocks >>> LongPackedOccurrences.SUPERBLOCK_SHIFT) + 1);
+            }
+        } else {
+            bytes += rows + 16 * ((rows - 1) / checkpointDistance + 1);
+        }
+        long samples = (rows + suffixDistance - 1) / suffixDistance;
+        if (suffixSampling == IndexFile.TEXT_SAMPLING) {
+            bytes += (longAddressing ? 8 : 4) * samples + (rows + RankedSuffixSamples.BITS_PER_BLOCK - 1)
+                    / RankedSuffixSamples.BITS_PER_BLOCK * RankedSuffixSamples.LONGS_PER_BLOCK * 8;
+        } else if (suffixSampling == IndexFile.ROW_SAMPLING) {
+            bytes += 4 * samples;
+        } else {
+            bytes += 8 * samples;
+        }
+        if (kmerLength > 0) {
+            bytes += 8L << (2 * kmerLength);
+        }
+        if (reference) {
+            bytes += 8 * ((length + 31L) / 32);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Returns the estimated time of a rank call in nanoseconds.
+     */
+    public double estimateRankNanos() {
+        if (packedOccurrences) {
+            return MISS_NANOS + POPCOUNT_NANOS;
+        }
+        //A checkpoint and the rows to it, a quarter of the distance on average as the nearest one is walked from.
+        double walk = checkpointDistance / 4.0;
+        return 2 * MISS_NANOS + walk * SCAN_NANOS + walk / 64 * MISS_NANOS;
+    }
+
+    /**
+     * @return Returns the estimated time of locating a row in nanoseconds.
+     */
+    public double estimateLocateNanos() {
+        //The LF steps to a sampled row, each a rank, and the look up of the sample at every row on the way.
+        double steps;
+        double lookup;
+        if (suffixSampling == IndexFile.TEXT_SAMPLING) {
+            steps = (suffixDistance - 1) / 2.0;
+            lookup = MISS_NANOS;
+        } else if (suffixSampling == IndexFile.ROW_SAMPLING) {
+            //A row is sampled with a chance of one in the distance, so the walk is geometric.
+            steps = suffixDistance - 1;
+            lookup = 0;
+        } else {
+            steps = (suffixDistance - 1) / 2.0;
+            lookup = MISS_NANOS * Math.log(Math.max(2, length / suffixDistance)) / Math.log(2);
+        }
+        return steps * (estimateRankNanos() + lookup) + lookup + MISS_NANOS;
+    }
+
+    /**
+     * @return Returns the estimated time of the rank calls and locates of aligning a read, in nanoseconds.
+     */
+    public double estimateReadNanos() {
+        return RANKS_PER_READ * estimateRankNanos() + LOCATES_PER_READ * estimateLocateNanos();
+    }
+
+    @Override
+    public String toString() {
+        String sampling = suffixSampling == IndexFile.ROW_SAMPLING ? "rows"
+                : suffixSampling == IndexFile.TEXT_SAMPLING ? "text positions" : "text positions, looked up by row";
+        return length + " bases, " + (packedOccurrences ? "packed occurrences"
+                : "checkpoints every " + checkpointDistance + " rows") + ", suffix array sampled every "
+                + suffixDistance + " " + sampling + (kmerLength > 0 ? ", " + kmerLength + "-mer table" : "")
+                + (reference ? ", packed reference" : "") + (longAddressing ? ", long addressing" : "")
+                + String.format(" : about %.1f MB, %.0f ns a rank, %.0f ns a locate", estimateBytes() / 1e6,
+                estimateRankNanos(), estimateLocateNanos());
+    }
+}
@@ -0,0 +1,531 @@
+package index;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * The on disk layout of the index.
+ *
+ * The index file is little endian. It starts with a fixed size header followed by sections aligned to 64 bytes.
+ * The header holds the magic, the format version, the index parameters, the estimates of the size and speed of the
+ * index (see IndexConfig) and a table of the sections with their offset, length and CRC32C. The header itself is
+ * protected by a CRC32C in its last bytes.
+ * Sections are memory mapped when the index is opened, so nothing is copied onto the heap.
+ *
+ * An index with more rows than an int addresses, or sections larger than a mapped buffer holds, is addressed with
+ * longs : its first column and sentinel row are the long fields of the header, its sections are mapped in chunks and
+ * read by the long implementations of the occurrences and the sampled suffix array. Which implementations an index
+ * gets is decided here, from its header, so an index addressed with ints is read exactly as before.
+ *
+ * The older layout of serialized extradata, lastColFile, tally and sa files can still be written and read.
+ */
+public class IndexFile {
+
+    public static final String FILE_NAME = "index.fm";
+
+    static final int VERSION = 7;
+    //Fields added since version 1 read as 0 in older files, which is the layout those files have.
+    private static final int MIN_VERSION = 1;
+
+    private static final byte[] MAGIC = {'B', 'O', 'W', 'T', 'I', 'D', 'X', 0};
+    private static final int HEADER_SIZE = 1024;
+    private static final int ALIGNMENT = 64;
+
+    //Offsets of the header fields.
+    private static final int VERSION_OFFSET = 8;
+    private static final int HEADER_SIZE_OFFSET = 12;
+    private static final int CHECKPOINT_DISTANCE_OFFSET = 16;
+    private static final int SUFFIX_DISTANCE_OFFSET = 20;
+    private static final int FIRST_COL_OFFSET = 24;
+    private static final int SECTION_COUNT_OFFSET = 44;
+    private static final int OCCURRENCE_LAYOUT_OFFSET = 48;
+    private static final int DOLLAR_ROW_OFFSET = 52;
+    private static final int SUFFIX_SAMPLING_OFFSET = 56;
+    private static final int KMER_LENGTH_OFFSET = 60;
+    //The estimates, for whoever reads the header. The index recomputes them from its parameters.
+    private static final int ESTIMATED_BYTES_OFFSET = 64;
+    private static final int ESTIMATED_RANK_NANOS_OFFSET = 72;
+    private static final int ESTIMATED_LOCATE_NANOS_OFFSET = 76;
+    //The first column and the sentinel row as longs, and the addressing, written since version 7.
+    private static final int LONG_FIRST_COL_OFFSET = 80;
+    private static final int LONG_DOLLAR_ROW_OFFSET = 120;
+    private static final int ADDRESSING_OFFSET = 128;
+    private static final int SECTION_TABLE_OFFSET = 480;
+    private static final int SECTION_ENTRY_SIZE = 32;
+    private static final int MAX_SECTIONS = 16;
+    private static final int HEADER_CHECKSUM_OFFSET = HEADER_SIZE - 8;
+
+    //Section ids.
+    static final int LAST_COLUMN = 1;
+    static final int TALLY = 2;
+    static final int SUFFIX_ROWS = 3;
+    static final int SUFFIX_VALUES = 4;
+    static final int PACKED_OCCURRENCES = 5;
+    static final int SUFFIX_BITS = 6;
+    static final int KMER_TABLE = 7;
+    static final int REFERENCE = 8;
+    static final int SUPERBLOCK_COUNTS = 9;
+    static final int LONG_SUFFIX_VALUES = 10;
+
+    //Occurrence layouts.
+    static final int CHECKPOINT_LAYOUT = 0;
+    static final int PACKED_LAYOUT = 1;
+
+    //Suffix array samplings.
+    static final int SORTED_SAMPLING = 0;
+    static final int TEXT_SAMPLING = 1;
+    static final int ROW_SAMPLING = 2;
+
+    //Addressings.
+    static final int INT_ADDRESSING = 0;
+    static final int LONG_ADDRESSING = 1;
+
+    /**
+     * Memory maps the index file.
+     * @param file The index file.
+     * @param verify Whether to verify the checksum of every section.
+     * @param preload Whether every section is read into memory now rather than on its first use.
+     */
+    static FMIndex open(File file, boolean verify, boolean preload) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("Index file is truncated : " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[MAGIC.length];
+            header.get(0, magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not an index file : " + file);
+            }
+            int version = header.getInt(VERSION_OFFSET);
+            if (version < MIN_VERSION || version > VERSION) {
+                throw new IOException("Unsupported index version " + version + " in " + file);
+            }
+            if (header.getInt(HEADER_SIZE_OFFSET) != HEADER_SIZE) {
+                throw new IOException("Unexpected header size in " + file);
+            }
+            if (checksum(header.duplicate().position(0).limit(HEADER_CHECKSUM_OFFSET)) != header.getLong(HEADER_CHECKSUM_OFFSET)) {
+                throw new IOException("Header checksum mismatch in " + file);
+            }
+
+            int checkpointDistance = header.getInt(CHECKPOINT_DISTANCE_OFFSET);
+            int suffixDistance = header.getInt(SUFFIX_DISTANCE_OFFSET);
+            boolean longAddressing = version >= 7 && header.getInt(ADDRESSING_OFFSET) == LONG_ADDRESSING;
+            long[] firstCol = new long[5];
+            for (int i = 0; i < firstCol.length; i++) {
+                firstCol[i] = longAddressing ? header.getLong(LONG_FIRST_COL_OFFSET + 8 * i)
+                        : header.getInt(FIRST_COL_OFFSET + 4 * i);
+            }
+            long dollarRow = longAddressing ? header.getLong(LONG_DOLLAR_ROW_OFFSET) : header.getInt(DOLLAR_ROW_OFFSET);
+            int layout = header.getInt(OCCURRENCE_LAYOUT_OFFSET);
+            int sampling = header.getInt(SUFFIX_SAMPLING_OFFSET);
+            int kmerLength = header.getInt(KMER_LENGTH_OFFSET);
+
+            //The offset, length and checksum of every section, which is mapped when it is used.
+            Map<Integer, long[]> sections = new HashMap<>();
+            int sectionCount = header.getInt(SECTION_COUNT_OFFSET);
+            for (int i = 0; i < sectionCount; i++) {
+                int entry = SECTION_TABLE_OFFSET + i * SECTION_ENTRY_SIZE;
+                int id = header.getInt(entry);
+                long offset = header.getLong(entry + 8);
+                long length = header.getLong(entry + 16);
+                long checksum = header.getLong(entry + 24);
+
+                if (offset + length > channel.size()) {
+                    throw new IOException("Section " + id + " runs past the end of " + file);
+                }
+                sections.put(id, new long[]{offset, length, checksum});
+            }
+            Sections mapper = new Sections(channel, sections, verify, preload, file);
+
+            Occurrences occurrences;
+            SuffixSamples suffixSamples;
+            if (longAddressing) {
+                if (layout != PACKED_LAYOUT || sampling != TEXT_SAMPLING || kmerLength > 0) {
+                    throw new IOException("An index addressed with longs is packed and sampled by text position : " + file);
+                }
+                //The counts of the superblocks are few and read by every rank, so they are copied onto the heap.
+                LongBuffer counts = mapper.section(SUPERBLOCK_COUNTS).asLongBuffer();
+                long[] superblocks = new long[counts.capacity()];
+                counts.get(superblocks);
+                occurrences = new LongPackedOccurrences(mapper.chunked(PACKED_OCCURRENCES), superblocks, dollarRow);
+                suffixSamples = new LongSuffixSamples(mapper.chunked(SUFFIX_BITS), mapper.chunked(LONG_SUFFIX_VALUES));
+            } else {
+                if (layout == PACKED_LAYOUT) {
+                    occurrences = new PackedOccurrences(mapper.section(PACKED_OCCURRENCES).asLongBuffer(), (int) dollarRow);
+                } else if (layout == CHECKPOINT_LAYOUT) {
+                    ByteBuffer lastCol = mapper.section(LAST_COLUMN);
+                    IntBuffer tally = mapper.section(TALLY).asIntBuffer();
+                    occurrences = new CheckpointOccurrences(lastCol, tally, checkpointDistance);
+                } else {
+                    throw new IOException("Unknown occurrence layout " + layout + " in " + file);
+                }
+
+                IntBuffer values = mapper.section(SUFFIX_VALUES).asIntBuffer();
+                if (sampling == TEXT_SAMPLING) {
+                    suffixSamples = new RankedSuffixSamples(mapper.section(SUFFIX_BITS).asLongBuffer(), values);
+                } else if (sampling == ROW_SAMPLING) {
+                    suffixSamples = new RowSuffixSamples(values, suffixDistance, (int) dollarRow);
+                } else if (sampling == SORTED_SAMPLING) {
+                    suffixSamples = new SortedSuffixSamples(mapper.section(SUFFIX_ROWS).asIntBuffer(), values);
+                } else {
+                    throw new IOException("Unknown suffix array sampling " + sampling + " in " + file);
+                }
+            }
+
+            IntBuffer kmerTable = kmerLength > 0 ? mapper.section(KMER_TABLE).asIntBuffer() : null;
+
+            boolean reference = sections.containsKey(REFERENCE);
+            IndexConfig config = new IndexConfig(firstCol[4] - 1, checkpointDistance, suffixDistance,
+                    layout == PACKED_LAYOUT, sampling, kmerLength, reference, longAddressing);
+            return new FMIndex(firstCol, config, occurrences, suffixSamples, kmerTable,
+                    reference && !longAddressing ? mapper.section(REFERENCE).asLongBuffer() : null,
+                    reference && longAddressing ? mapper.chunked(REFERENCE) : null);
+        }
+    }
+
+    /**
+     * Maps the sections of an open index file.
+     */
+    private static final class Sections {
+
+        private final FileChannel channel;
+        private final Map<Integer, long[]> sections;
+        private final boolean verify;
+        private final boolean preload;
+        private final File file;
+
+        Sections(FileChannel channel, Map<Integer, long[]> sections, boolean verify, boolean preload, File file) {
+            this.channel = channel;
+            this.sections = sections;
+            this.verify = verify;
+            this.preload = preload;
+            this.file = file;
+        }
+
+        /**
+         * @return Returns the section mapped as a single buffer.
+         */
+        ByteBuffer section(int id) throws IOException {
+            long[] entry = entry(id);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, entry[0], entry[1]);
+            if (preload) {
+                mapped.load();
+            }
+            ByteBuffer section = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (verify && checksum(section.duplicate()) != entry[2]) {
+                throw new IOException("Checksum mismatch in section " + id + " of " + file);
+            }
+            return section;
+        }
+
+        /**
+         * @return Returns the section mapped in chunks, which it can be of any length.
+         */
+        ChunkedBuffer chunked(int id) throws IOException {
+            long[] entry = entry(id);
+            ChunkedBuffer section = ChunkedBuffer.map(channel, entry[0], entry[1], preload);
+            if (verify && section.checksum() != entry[2]) {
+                throw new IOException("Checksum mismatch in section " + id + " of " + file);
+            }
+            return section;
+        }
+
+        private long[] entry(int id) throws IOException {
+            long[] entry = sections.get(id);
+            if (entry == null) {
+                throw new IOException("Section " + id + " is missing from " + file);
+            }
+            return entry;
+        }
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer);
+        return crc.getValue();
+    }
+
+    /**
+     * Reads the serialized extradata, lastColFile, tally and sa files onto the heap.
+     * @param dir The directory holding the files.
+     */
+    @SuppressWarnings("unchecked")
+    static FMIndex openLegacy(File dir) throws IOException {
+        try {
+            ObjectInputStream in = new ObjectInputStream(new FileInputStream(new File(dir, "extradata")));
+            int[] firstColInts = (int[]) in.readObject();
+            int checkpointDistance = in.read();
+            int suffixDistance = in.read();
+            in.close();
+
+            in = new ObjectInputStream(new FileInputStream(new File(dir, "lastColFile")));
+            char[] lastColChars = (char[]) in.readObject();
+            in.close();
+
+            in = new ObjectInputStream(new FileInputStream(new File(dir, "tally")));
+            int[][] tallyRows = (int[][]) in.readObject();
+            in.close();
+
+            in = new ObjectInputStream(new FileInputStream(new File(dir, "sa")));
+            HashMap<Integer, Integer> suffixArray = (HashMap<Integer, Integer>) in.readObject();
+            in.close();
+
+            byte[] lastCol = new byte[lastColChars.length];
+            for (int i = 0; i < lastCol.length; i++) {
+                lastCol[i] = (byte) lastColChars[i];
+            }
+
+            int[] rows = new int[suffixArray.size()];
+            int count = 0;
+            for (int row : suffixArray.keySet()) {
+                rows[count++] = row;
+            }
+            Arrays.sort(rows);
+            int[] values = new int[rows.length];
+            for (int i = 0; i < rows.length; i++) {
+                values[i] = suffixArray.get(rows[i]);
+            }
+
+            Occurrences occurrences = new CheckpointOccurrences(ByteBuffer.wrap(lastCol),
+                    IntBuffer.wrap(interleave(tallyRows)), checkpointDistance);
+            SuffixSamples suffixSamples = new SortedSuffixSamples(IntBuffer.wrap(rows), IntBuffer.wrap(values));
+
+            long[] firstCol = new long[firstColInts.length];
+            for (int i = 0; i < firstCol.length; i++) {
+                firstCol[i] = firstColInts[i];
+            }
+            IndexConfig config = new IndexConfig(firstCol[4] - 1, checkpointDistance, suffixDistance, false,
+                    SORTED_SAMPLING, 0, false, false);
+            return new FMIndex(firstCol, config, occurrences, suffixSamples, null, null, null);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Index files in " + dir + " are not readable", e);
+        }
+    }
+
+    /**
+     * @return Returns the tally as tally[position * 4 + base].
+     */
+    static int[] interleave(int[][] tally) {
+        int[] interleaved = new int[tally[0].length * 4];
+        for (int position = 0; position < tally[0].length; position++) {
+            for (int base = 0; base < 4; base++) {
+                interleaved[position * 4 + base] = tally[base][position];
+            }
+        }
+        return interleaved;
+    }
+
+    /**
+     * Writes the serialized extradata, lastColFile, tally and sa files.
+     */
+    static void writeLegacy(File dir, int[] firstCol, int checkpointDistance, int suffixDistance, byte[] lastCol,
+                            int[][] tally, int[] sampledRows, int[] sampledValues) throws IOException {
+
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(dir, "extradata")))) {
+            out.writeObject(firstCol);
+            out.write(checkpointDistance);
+            out.write(suffixDistance);
+        }
+
+        char[] lastColChars = new char[lastCol.length];
+        for (int i = 0; i < lastCol.length; i++) {
+            lastColChars[i] = (char) lastCol[i];
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(dir, "lastColFile")))) {
+            out.writeObject(lastColChars);
+        }
+
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(dir, "tally")))) {
+            out.writeObject(tally);
+        }
+
+        HashMap<Integer, Integer> sampled = new HashMap<>((int) (sampledRows.length / 0.75f) + 1);
+        for (int i = 0; i < sampledRows.length; i++) {
+            sampled.put(sampledRows[i], sampledValues[i]);
+        }
+        try (ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(new File(dir, "sa")))) {
+            out.writeObject(sampled);
+        }
+    }
+
+    /**
+     * Writes the sections of an index file one after the other into a temporary file next to it, and the header once
+     * committed, which then renames the temporary file over the index file. A writer closed without being committed,
+     * as when the build failed partway, deletes the temporary file, so an index file is always complete and a failed
+     * build leaves the index file there was, if any.
+     */
+    static class Writer implements Closeable {
+
+        private final File file;
+        private final File temporary;
+        private final FileChannel channel;
+        private final ByteBuffer header;
+        private final ByteBuffer buffer;
+        private int sectionCount = 0;
+        private boolean committed = false;
+
+        Writer(File file) throws IOException {
+            this.file = file;
+            this.temporary = new File(file.getPath() + ".tmp");
+            channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+
+            header.put(0, MAGIC);
+            header.putInt(VERSION_OFFSET, VERSION);
+            header.putInt(HEADER_SIZE_OFFSET, HEADER_SIZE);
+            channel.position(HEADER_SIZE);
+        }
+
+        /**
+         * Writes the parameters of the index and their estimates. The sections have to match them.
+         * The int first column and sentinel row are only written when they hold them.
+         * @param dollarRow The row of the last column holding the sentinel.
+         */
+        void setParameters(long[] firstCol, long dollarRow, IndexConfig config) {
+            header.putInt(CHECKPOINT_DISTANCE_OFFSET, config.getCheckpointDistance());
+            header.putInt(SUFFIX_DISTANCE_OFFSET, config.getSuffixDistance());
+            for (int i = 0; i < firstCol.length; i++) {
+                if (!config.isLongAddressing()) {
+                    header.putInt(FIRST_COL_OFFSET + 4 * i, (int) firstCol[i]);
+                }
+                header.putLong(LONG_FIRST_COL_OFFSET + 8 * i, firstCol[i]);
+            }
+            header.putInt(OCCURRENCE_LAYOUT_OFFSET, config.isPackedOccurrences() ? PACKED_LAYOUT : CHECKPOINT_LAYOUT);
+            if (!config.isLongAddressing()) {
+                header.putInt(DOLLAR_ROW_OFFSET, (int) dollarRow);
+            }
+            header.putLong(LONG_DOLLAR_ROW_OFFSET, dollarRow);
+            header.putInt(ADDRESSING_OFFSET, config.isLongAddressing() ? LONG_ADDRESSING : INT_ADDRESSING);
+            header.putInt(SUFFIX_SAMPLING_OFFSET, config.getSuffixSampling());
+            header.putInt(KMER_LENGTH_OFFSET, config.getKmerLength());
+            header.putLong(ESTIMATED_BYTES_OFFSET, config.estimateBytes());
+            header.putFloat(ESTIMATED_RANK_NANOS_OFFSET, (float) config.estimateRankNanos());
+            header.putFloat(ESTIMATED_LOCATE_NANOS_OFFSET, (float) config.estimateLocateNanos());
+        }
+
+        void writeSection(int id, byte[] data) throws IOException {
+            CRC32C crc = beginSection();
+            long start = channel.position();
+            for (int i = 0; i < data.length; ) {
+                int count = Math.min(buffer.capacity(), data.length - i);
+                buffer.clear();
+                buffer.put(data, i, count);
+                i += count;
+                flush(crc);
+            }
+            endSection(id, start, crc);
+        }
+
+        void writeSection(int id, int[] data) throws IOException {
+            CRC32C crc = beginSection();
+            long start = channel.position();
+            buffer.clear();
+            for (int value : data) {
+                if (buffer.remaining() < 4) {
+                    flush(crc);
+                    buffer.clear();
+                }
+                buffer.putInt(value);
+            }
+            flush(crc);
+            endSection(id, start, crc);
+        }
+
+        void writeSection(int id, long[] data) throws IOException {
+            CRC32C crc = beginSection();
+            long start = channel.position();
+            buffer.clear();
+            for (long value : data) {
+                if (buffer.remaining() < 8) {
+                    flush(crc);
+                    buffer.clear();
+                }
+                buffer.putLong(value);
+            }
+            flush(crc);
+            endSection(id, start, crc);
+        }
+
+        private CRC32C beginSection() throws IOException {
+            if (sectionCount == MAX_SECTIONS) {
+                throw new IOException("Too many sections in the index file");
+            }
+            long position = channel.position();
+            long aligned = (position + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+            if (aligned != position) {
+                channel.write(ByteBuffer.allocate((int) (aligned - position)));
+            }
+            return new CRC32C();
+        }
+
+        private void flush(CRC32C crc) throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private void endSection(int id, long start, CRC32C crc) throws IOException {
+            int entry = SECTION_TABLE_OFFSET + sectionCount * SECTION_ENTRY_SIZE;
+            header.putInt(entry, id);
+            header.putLong(entry + 8, start);
+            header.putLong(entry + 16, channel.position() - start);
+            header.putLong(entry + 24, crc.getValue());
+            sectionCount++;
+        }
+
+        /**
+         * Writes the header of the sections written and moves the file in place of the index file.
+         */
+        void commit() throws IOException {
+            header.putInt(SECTION_COUNT_OFFSET, sectionCount);
+            header.putLong(HEADER_CHECKSUM_OFFSET, checksum(header.duplicate().position(0).limit(HEADER_CHECKSUM_OFFSET)));
+            header.position(0).limit(HEADER_SIZE);
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            channel.force(true);
+            channel.close();
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            committed = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            try {
+                channel.close();
+            } finally {
+                Files.deleteIfExists(temporary.toPath());
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package index;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the text positions of BWT rows, so rows which are located again and again, in repeats and at
+ * loci of high coverage, do not walk to a sampled row every time.
+ *
+ * It is shared by all the alignment threads. Rows are spread over segments, each with its own lock, holding its
+ * rows and their positions in primitive arrays at the slots of an LruTable, which evicts the least recently used
+ * row when the segment is full.
+ */
+public class LocateCache {
+
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity The number of rows the cache holds at most.
+     */
+    public LocateCache(int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("The cache must hold at least " + SEGMENTS + " rows");
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    /**
+     * @return Returns the text position of the row, or -1 when the row is not cached.
+     */
+    public long get(long row) {
+        int hash = hash(row);
+        long position = segments[hash & (SEGMENTS - 1)].get(row, hash >>> 4);
+        if (position < 0) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return position;
+    }
+
+    public void put(long row, long position) {
+        int hash = hash(row);
+        segments[hash & (SEGMENTS - 1)].put(row, position, hash >>> 4);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static int hash(long row) {
+        //The high bits of the product are the well mixed ones.
+        return (int) ((row * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    private static final class Segment {
+
+        private final LruTable table;
+        private final long[] rows;
+        private final long[] positions;
+
+        Segment(int capacity) {
+            table = new LruTable(capacity);
+            rows = new long[capacity];
+            positions = new long[capacity];
+        }
+
+        synchronized long get(long row, int hash) {
+            int entry = find(row, hash);
+            if (entry == LruTable.NONE) {
+                return -1;
+            }
+            table.touch(entry);
+            return positions[entry];
+        }
+
+        synchronized void put(long row, long position, int hash) {
+            int entry = find(row, hash);
+            if (entry == LruTable.NONE) {
+                entry = table.add(hash);
+                rows[entry] = row;
+            } else {
+                table.touch(entry);
+            }
+            positions[entry] = position;
+        }
+
+        private int find(long row, int hash) {
+            int entry = table.first(hash);
+            while (entry != LruTable.NONE && rows[entry] != row) {
+                entry = table.next(entry, hash);
+            }
+            return entry;
+        }
+    }
+}
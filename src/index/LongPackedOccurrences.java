@@ -0,0 +1,90 @@
+package index;
+
+import java.nio.LongBuffer;
+
+/**
+ * The packed layout of PackedOccurrences for an index of more than 2^31 rows. The 64 byte blocks are the same, but
+ * the counts they start with, which only hold 32 bits, are those since the start of their superblock of 2^16 blocks.
+ * The counts before every superblock are longs kept on the heap, 4 for every 12 million rows, so a rank still reads
+ * the one cache line of its block.
+ */
+class LongPackedOccurrences implements Occurrences {
+
+    static final int SUPERBLOCK_SHIFT = 16;
+
+    private final ChunkedBuffer blocks;
+    //The counts of the four bases before every superblock, as superblocks[superblock * 4 + base].
+    private final long[] superblocks;
+    private final long dollarRow;
+
+    LongPackedOccurrences(ChunkedBuffer blocks, long[] superblocks, long dollarRow) {
+        this.blocks = blocks;
+        this.superblocks = superblocks;
+        this.dollarRow = dollarRow;
+    }
+
+    @Override
+    public long getRank(int base, long row) {
+        if (row < 0) {
+            return 0;
+        }
+
+        long block = row / PackedOccurrences.BASES_PER_BLOCK;
+        long first = block * PackedOccurrences.LONGS_PER_BLOCK;
+        //The block is read from its chunk alone.
+        LongBuffer blocks = this.blocks.chunk(first);
+        int start = ChunkedBuffer.offset(first);
+        long count = superblocks[(int) (block >>> SUPERBLOCK_SHIFT) * 4 + base]
+                + ((blocks.get(start + (base >>> 1)) >>> ((base & 1) << 5)) & 0xFFFFFFFFL);
+
+        long pattern = PackedOccurrences.PATTERNS[base];
+        int word = start + PackedOccurrences.COUNT_LONGS;
+        int remaining = (int) (row - block * PackedOccurrences.BASES_PER_BLOCK) + 1;
+        for (; remaining >= 32; remaining -= 32) {
+            count += Long.bitCount(PackedOccurrences.matches(blocks.get(word++), pattern));
+        }
+        if (remaining > 0) {
+            count += Long.bitCount(PackedOccurrences.matches(blocks.get(word), pattern) & ((1L << (remaining << 1)) - 1));
+        }
+
+        if (base == 0 && row >= dollarRow) {
+            count--;
+        }
+        return count;
+    }
+
+    @Override
+    public int getBase(long row) {
+        if (row == dollarRow) {
+            return -1;
+        }
+        long block = row / PackedOccurrences.BASES_PER_BLOCK;
+        int offset = (int) (row - block * PackedOccurrences.BASES_PER_BLOCK);
+        long word = blocks.getLong(block * PackedOccurrences.LONGS_PER_BLOCK + PackedOccurrences.COUNT_LONGS + (offset >>> 5));
+        return (int) (word >>> ((offset & 31) << 1)) & 3;
+    }
+
+    /**
+     * Makes the counts of the blocks packed by PackedOccurrences.packBlock relative to their superblock.
+     * @param packed The blocks, whose counts are rewritten.
+     * @return Returns the counts before every superblock.
+     */
+    static long[] splitCounts(long[] packed) {
+        int blocks = packed.length / PackedOccurrences.LONGS_PER_BLOCK;
+        long[] superblocks = new long[4 * ((blocks >>> SUPERBLOCK_SHIFT) + 1)];
+        long[] before = new long[4];
+        for (int block = 0; block < blocks; block++) {
+            int start = block * PackedOccurrences.LONGS_PER_BLOCK;
+            long[] counts = {packed[start] & 0xFFFFFFFFL, packed[start] >>> 32,
+                    packed[start + 1] & 0xFFFFFFFFL, packed[start + 1] >>> 32};
+            int superblock = block >>> SUPERBLOCK_SHIFT;
+            if ((block & ((1 << SUPERBLOCK_SHIFT) - 1)) == 0) {
+                System.arraycopy(counts, 0, before, 0, 4);
+                System.arraycopy(counts, 0, superblocks, superblock * 4, 4);
+            }
+            packed[start] = (counts[0] - before[0]) | (counts[1] - before[1]) << 32;
+            packed[start + 1] = (counts[2] - before[2]) | (counts[3] - before[3]) << 32;
+        }
+        return superblocks;
+    }
+}
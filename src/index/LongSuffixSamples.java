@@ -0,0 +1,41 @@
+package index;
+
+import java.nio.LongBuffer;
+
+/**
+ * The sampled suffix array of RankedSuffixSamples for an index of more than 2^31 rows : the same bitvector, whose
+ * blocks already count their set bits in a long, with the text positions stored as longs.
+ */
+class LongSuffixSamples implements SuffixSamples {
+
+    private final ChunkedBuffer bits;
+    private final ChunkedBuffer values;
+
+    LongSuffixSamples(ChunkedBuffer bits, ChunkedBuffer values) {
+        this.bits = bits;
+        this.values = values;
+    }
+
+    @Override
+    public long get(long row) {
+        long block = row / RankedSuffixSamples.BITS_PER_BLOCK;
+        int offset = (int) (row - block * RankedSuffixSamples.BITS_PER_BLOCK);
+        long first = block * RankedSuffixSamples.LONGS_PER_BLOCK;
+        //The block is read from its chunk alone.
+        LongBuffer bits = this.bits.chunk(first);
+        int start = ChunkedBuffer.offset(first);
+        int wordIndex = start + 1 + (offset >>> 6);
+
+        long word = bits.get(wordIndex);
+        if ((word & (1L << offset)) == 0) {
+            return -1;
+        }
+
+        long rank = bits.get(start);
+        for (int i = start + 1; i < wordIndex; i++) {
+            rank += Long.bitCount(bits.get(i));
+        }
+        rank += Long.bitCount(word & ((1L << offset) - 1));
+        return values.getLong(rank);
+    }
+}
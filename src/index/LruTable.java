@@ -0,0 +1,128 @@
+package index;
+
+import java.util.Arrays;
+
+/**
+ * The bookkeeping of a bounded cache evicting the least recently used entry, in primitive arrays. The entries are the
+ * slots 0 to capacity - 1, at which the cache keeps their keys and values in arrays of its own : a hash table chains
+ * the entries of a bucket, and a doubly linked list holds them in the order they were last used, whose tail makes room
+ * for a new entry once every slot is taken. Nothing allocates once built.
+ *
+ * It is not thread safe, the caches guard it with the lock of the segment holding it.
+ */
+public final class LruTable {
+
+    public static final int NONE = -1;
+
+    private final int[] buckets;
+    private final int[] hashes;
+    //The next entry of the same bucket.
+    private final int[] chain;
+    //Neighbours in the order of use, head the most recently used.
+    private final int[] newer;
+    private final int[] older;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size = 0;
+
+    /**
+     * @param capacity The number of entries the table holds at most.
+     */
+    public LruTable(int capacity) {
+        buckets = new int[Integer.highestOneBit(2 * capacity - 1) << 1];
+        Arrays.fill(buckets, NONE);
+        hashes = new int[capacity];
+        chain = new int[capacity];
+        newer = new int[capacity];
+        older = new int[capacity];
+    }
+
+    /**
+     * @return Returns the first entry with the hash, whose key the cache then compares, NONE when there is none.
+     */
+    public int first(int hash) {
+        return skip(buckets[hash & (buckets.length - 1)], hash);
+    }
+
+    /**
+     * @return Returns the entry with the hash after the entry, NONE when there is none.
+     */
+    public int next(int entry, int hash) {
+        return skip(chain[entry], hash);
+    }
+
+    private int skip(int entry, int hash) {
+        while (entry != NONE && hashes[entry] != hash) {
+            entry = chain[entry];
+        }
+        return entry;
+    }
+
+    /**
+     * Makes the entry the most recently used.
+     */
+    public void touch(int entry) {
+        unlink(entry);
+        pushHead(entry);
+    }
+
+    /**
+     * Adds an entry with the hash, the most recently used, in a free slot or else in the slot of the least recently
+     * used entry, which is evicted.
+     * @return Returns the slot of the entry, at which the cache then keeps its key and value.
+     */
+    public int add(int hash) {
+        int entry;
+        if (size < hashes.length) {
+            entry = size++;
+        } else {
+            entry = tail;
+            unlink(entry);
+            removeFromBucket(entry);
+        }
+        int bucket = hash & (buckets.length - 1);
+        hashes[entry] = hash;
+        chain[entry] = buckets[bucket];
+        buckets[bucket] = entry;
+        pushHead(entry);
+        return entry;
+    }
+
+    private void removeFromBucket(int entry) {
+        int bucket = hashes[entry] & (buckets.length - 1);
+        if (buckets[bucket] == entry) {
+            buckets[bucket] = chain[entry];
+            return;
+        }
+        int previous = buckets[bucket];
+        while (chain[previous] != entry) {
+            previous = chain[previous];
+        }
+        chain[previous] = chain[entry];
+    }
+
+    private void unlink(int entry) {
+        if (newer[entry] == NONE) {
+            head = older[entry];
+        } else {
+            older[newer[entry]] = older[entry];
+        }
+        if (older[entry] == NONE) {
+            tail = newer[entry];
+        } else {
+            newer[older[entry]] = newer[entry];
+        }
+    }
+
+    private void pushHead(int entry) {
+        newer[entry] = NONE;
+        older[entry] = head;
+        if (head != NONE) {
+            newer[head] = entry;
+        }
+        head = entry;
+        if (tail == NONE) {
+            tail = entry;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package index;
+
+/**
+ * Answers rank queries over the last column (BWT) of the FM Index.
+ *
+ * Rows are longs so an index of more than 2^31 rows answers through the same interface. The layouts addressed with
+ * ints only ever hold rows an int holds, see IndexFile.open, which picks the layout when the index loads.
+ */
+public interface Occurrences {
+
+    /**
+     * @param base The code of the base as returned by FMIndex.getReleventRowNumber.
+     * @param row The row of the last column, -1 is allowed and has rank 0.
+     * @return Returns the number of times the base occurs in the last column up to and including the row.
+     */
+    long getRank(int base, long row);
+
+    /**
+     * @param row The row of the last column.
+     * @return Returns the code of the base at the row, or -1 for the sentinel '$'.
+     */
+    int getBase(long row);
+}
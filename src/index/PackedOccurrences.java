@@ -0,0 +1,99 @@
+package index;
+
+import java.nio.LongBuffer;
+
+/**
+ * The last column packed at 2 bits per base in 64 byte blocks. Every block starts with the counts of the four
+ * bases before the block, followed by the 192 bases of the block, so a rank touches a single cache line and
+ * counts the bases inside the block with a few popcounts.
+ *
+ * The sentinel has no 2 bit code, it is stored as an A and corrected for using its row.
+ */
+class PackedOccurrences implements Occurrences {
+
+    static final int LONGS_PER_BLOCK = 8;
+    static final int BASES_PER_BLOCK = 192;
+    static final int COUNT_LONGS = 2;
+    private static final long LOW_BITS = 0x5555555555555555L;
+
+    //Every 2 bit slot holding the code of the base.
+    static final long[] PATTERNS = {0L, LOW_BITS, LOW_BITS << 1, -1L};
+
+    private final LongBuffer blocks;
+    private final int dollarRow;
+
+    PackedOccurrences(LongBuffer blocks, int dollarRow) {
+        this.blocks = blocks;
+        this.dollarRow = dollarRow;
+    }
+
+    @Override
+    public long getRank(int base, long index) {
+        if (index < 0) {
+            return 0;
+        }
+
+        int row = (int) index;
+        int block = row / BASES_PER_BLOCK;
+        int start = block * LONGS_PER_BLOCK;
+        int count = (int) (blocks.get(start + (base >>> 1)) >>> ((base & 1) << 5));
+
+        long pattern = PATTERNS[base];
+        int word = start + COUNT_LONGS;
+        int remaining = row - block * BASES_PER_BLOCK + 1;
+        for (; remaining >= 32; remaining -= 32) {
+            count += Long.bitCount(matches(blocks.get(word++), pattern));
+        }
+        if (remaining > 0) {
+            count += Long.bitCount(matches(blocks.get(word), pattern) & ((1L << (remaining << 1)) - 1));
+        }
+
+        if (base == 0 && row >= dollarRow) {
+            count--;
+        }
+        return count;
+    }
+
+    @Override
+    public int getBase(long index) {
+        int row = (int) index;
+        if (row == dollarRow) {
+            return -1;
+        }
+        int block = row / BASES_PER_BLOCK;
+        int offset = row - block * BASES_PER_BLOCK;
+        long word = blocks.get(block * LONGS_PER_BLOCK + COUNT_LONGS + (offset >>> 5));
+        return (int) (word >>> ((offset & 31) << 1)) & 3;
+    }
+
+    /**
+     * @return Returns a word with the low bit of every 2 bit slot set where the slot holds the pattern's base.
+     */
+    static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(x | (x >>> 1)) & LOW_BITS;
+    }
+
+    /**
+     * Packs one block of the last column.
+     * @param lastCol The last column, one ASCII byte per row.
+     * @param block The block to pack.
+     * @param counts The counts of every base before the block, updated with the bases of the block.
+     * @param packed The array of all the blocks.
+     */
+    static void packBlock(byte[] lastCol, int block, int[] counts, long[] packed) {
+        int start = block * LONGS_PER_BLOCK;
+        packed[start] = (counts[0] & 0xFFFFFFFFL) | ((long) counts[1] << 32);
+        packed[start + 1] = (counts[2] & 0xFFFFFFFFL) | ((long) counts[3] << 32);
+
+        int from = block * BASES_PER_BLOCK;
+        int to = Math.min(lastCol.length, from + BASES_PER_BLOCK);
+        for (int row = from; row < to; row++) {
+            //The sentinel is stored as an A.
+            int base = Math.max(0, FMIndex.getReleventRowNumber((char) lastCol[row]));
+            counts[base]++;
+            int offset = row - from;
+            packed[start + COUNT_LONGS + (offset >>> 5)] |= (long) base << ((offset & 31) << 1);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package index;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Sampled suffix array of the rows whose text position is a multiple of the suffix distance.
+ * A bitvector marks the sampled rows and the values are stored in row order, so the value of a sampled row
+ * lives at the rank of the row in the bitvector.
+ *
+ * The bitvector is stored in 64 byte blocks of the number of set bits before the block followed by 448 bits,
+ * so a lookup touches one cache line of the bitvector and one of the values.
+ */
+class RankedSuffixSamples implements SuffixSamples {
+
+    static final int LONGS_PER_BLOCK = 8;
+    static final int BITS_PER_BLOCK = 448;
+
+    private final LongBuffer bits;
+    private final IntBuffer values;
+
+    RankedSuffixSamples(LongBuffer bits, IntBuffer values) {
+        this.bits = bits;
+        this.values = values;
+    }
+
+    @Override
+    public long get(long index) {
+        int row = (int) index;
+        int block = row / BITS_PER_BLOCK;
+        int offset = row - block * BITS_PER_BLOCK;
+        int start = block * LONGS_PER_BLOCK;
+        int wordIndex = start + 1 + (offset >>> 6);
+
+        long word = bits.get(wordIndex);
+        if ((word & (1L << offset)) == 0) {
+            return -1;
+        }
+
+        int rank = (int) bits.get(start);
+        for (int i = start + 1; i < wordIndex; i++) {
+            rank += Long.bitCount(bits.get(i));
+        }
+        rank += Long.bitCount(word & ((1L << offset) - 1));
+        return values.get(rank);
+    }
+
+    /**
+     * @param sampledRows The sorted sampled rows.
+     * @param length The number of rows of the BWT.
+     * @return Returns the blocks of the bitvector marking the sampled rows.
+     */
+    static long[] buildBits(int[] sampledRows, int length) {
+        int blocks = (length + BITS_PER_BLOCK - 1) / BITS_PER_BLOCK;
+        long[] bits = new long[blocks * LONGS_PER_BLOCK];
+
+        int count = 0;
+        int block = -1;
+        for (int row : sampledRows) {
+            int rowBlock = row / BITS_PER_BLOCK;
+            while (block < rowBlock) {
+                block++;
+                bits[block * LONGS_PER_BLOCK] = count;
+            }
+            int offset = row - rowBlock * BITS_PER_BLOCK;
+            bits[rowBlock * LONGS_PER_BLOCK + 1 + (offset >>> 6)] |= 1L << offset;
+            count++;
+        }
+        while (block < blocks - 1) {
+            block++;
+            bits[block * LONGS_PER_BLOCK] = count;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,32 @@
+package index;
+
+import java.nio.IntBuffer;
+
+/**
+ * Sampled suffix array of every suffix distance'th row, which needs no bitvector as whether a row is sampled
+ * and where its value lives follow from the row. The walk to a sampled row is not bounded by the suffix distance,
+ * it only takes that many steps on average.
+ *
+ * The row holding the sentinel in the last column is always sampled, as the LF step from it wraps around the text.
+ */
+class RowSuffixSamples implements SuffixSamples {
+
+    private final IntBuffer values;
+    private final int distance;
+    private final int dollarRow;
+
+    RowSuffixSamples(IntBuffer values, int distance, int dollarRow) {
+        this.values = values;
+        this.distance = distance;
+        this.dollarRow = dollarRow;
+    }
+
+    @Override
+    public long get(long index) {
+        int row = (int) index;
+        if (row % distance == 0) {
+            return values.get(row / distance);
+        }
+        return row == dollarRow ? 0 : -1;
+    }
+}
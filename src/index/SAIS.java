@@ -0,0 +1,201 @@
+package index;
+
+import java.util.Arrays;
+
+/**
+ * Linear time suffix array construction using induced sorting (SA-IS, Nong, Zhang and Chan).
+ * The text must end with a unique sentinel which is smaller than every other symbol.
+ */
+class SAIS {
+
+    private interface Text {
+        int get(int i);
+    }
+
+    private static class ByteText implements Text {
+        private final byte[] text;
+
+        ByteText(byte[] text) {
+            this.text = text;
+        }
+
+        @Override
+        public int get(int i) {
+            return text[i];
+        }
+    }
+
+    private static class IntText implements Text {
+        private final int[] text;
+
+        IntText(int[] text) {
+            this.text = text;
+        }
+
+        @Override
+        public int get(int i) {
+            return text[i];
+        }
+    }
+
+    /**
+     * @param text The text, symbols in the range [0, alphabetSize) with text[length - 1] being the unique 0.
+     * @param length The number of symbols of text to use.
+     * @param alphabetSize The number of distinct symbols.
+     * @return Returns the suffix array of the text.
+     */
+    static int[] build(byte[] text, int length, int alphabetSize) {
+        int[] sa = new int[length];
+        if (length == 1) {
+            return sa;
+        }
+        sais(new ByteText(text), sa, length, alphabetSize);
+        return sa;
+    }
+
+    private static void sais(Text t, int[] sa, int n, int k) {
+
+        //Bit i is set when the suffix at i is S-type.
+        long[] stype = new long[(n + 63) >>> 6];
+        setS(stype, n - 1);
+        for (int i = n - 2; i >= 0; i--) {
+            int a = t.get(i), b = t.get(i + 1);
+            if (a < b || (a == b && isS(stype, i + 1))) {
+                setS(stype, i);
+            }
+        }
+
+        //Stage 1 : sort the LMS substrings by inducing from their unsorted positions.
+        int[] bucket = new int[k];
+        getBuckets(t, n, bucket, true);
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = 1; i < n; i++) {
+            if (isLMS(stype, i)) {
+                sa[--bucket[t.get(i)]] = i;
+            }
+        }
+        induceL(t, sa, n, bucket, stype);
+        induceS(t, sa, n, bucket, stype);
+
+        //Compact the sorted LMS substrings into the front of the suffix array.
+        int n1 = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLMS(stype, sa[i])) {
+                sa[n1++] = sa[i];
+            }
+        }
+
+        //Name the LMS substrings. LMS positions are at least two apart so pos/2 is a unique slot.
+        Arrays.fill(sa, n1, n, -1);
+        int name = 0;
+        int previous = -1;
+        for (int i = 0; i < n1; i++) {
+            int pos = sa[i];
+            if (previous == -1 || !equalLMS(t, stype, pos, previous)) {
+                name++;
+                previous = pos;
+            }
+            sa[n1 + (pos >>> 1)] = name - 1;
+        }
+        for (int i = n - 1, j = n - 1; i >= n1; i--) {
+            if (sa[i] >= 0) {
+                sa[j--] = sa[i];
+            }
+        }
+
+        //Stage 2 : sort the reduced problem, recursing only if the names are not unique.
+        int[] reduced = Arrays.copyOfRange(sa, n - n1, n);
+        int[] reducedSa = new int[n1];
+        if (name < n1) {
+            sais(new IntText(reduced), reducedSa, n1, name);
+        } else {
+            for (int i = 0; i < n1; i++) {
+                reducedSa[reduced[i]] = i;
+            }
+        }
+
+        //Stage 3 : induce the final order from the sorted LMS suffixes.
+        for (int i = 1, j = 0; i < n; i++) {
+            if (isLMS(stype, i)) {
+                reduced[j++] = i;
+            }
+        }
+        for (int i = 0; i < n1; i++) {
+            reducedSa[i] = reduced[reducedSa[i]];
+        }
+        reduced = null;
+
+        getBuckets(t, n, bucket, true);
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = n1 - 1; i >= 0; i--) {
+            int j = reducedSa[i];
+            sa[--bucket[t.get(j)]] = j;
+        }
+        reducedSa = null;
+
+        induceL(t, sa, n, bucket, stype);
+        induceS(t, sa, n, bucket, stype);
+    }
+
+    private static void induceL(Text t, int[] sa, int n, int[] bucket, long[] stype) {
+        getBuckets(t, n, bucket, false);
+        for (int i = 0; i < n; i++) {
+            int j = sa[i] - 1;
+            if (j >= 0 && !isS(stype, j)) {
+                sa[bucket[t.get(j)]++] = j;
+            }
+        }
+    }
+
+    private static void induceS(Text t, int[] sa, int n, int[] bucket, long[] stype) {
+        getBuckets(t, n, bucket, true);
+        for (int i = n - 1; i >= 0; i--) {
+            int j = sa[i] - 1;
+            if (j >= 0 && isS(stype, j)) {
+                sa[--bucket[t.get(j)]] = j;
+            }
+        }
+    }
+
+    /**
+     * Fills the bucket array with the start or the end (exclusive) of every symbol's bucket.
+     */
+    private static void getBuckets(Text t, int n, int[] bucket, boolean end) {
+        Arrays.fill(bucket, 0);
+        for (int i = 0; i < n; i++) {
+            bucket[t.get(i)]++;
+        }
+        int sum = 0;
+        for (int c = 0; c < bucket.length; c++) {
+            sum += bucket[c];
+            bucket[c] = end ? sum : sum - bucket[c];
+        }
+    }
+
+    private static boolean equalLMS(Text t, long[] stype, int a, int b) {
+        for (int d = 0; ; d++) {
+            if (t.get(a + d) != t.get(b + d) || isS(stype, a + d) != isS(stype, b + d)) {
+                return false;
+            }
+            if (d > 0) {
+                boolean lmsA = isLMS(stype, a + d);
+                boolean lmsB = isLMS(stype, b + d);
+                if (lmsA || lmsB) {
+                    return lmsA && lmsB;
+                }
+            }
+        }
+    }
+
+    private static void setS(long[] stype, int i) {
+        stype[i >>> 6] |= 1L << i;
+    }
+
+    private static boolean isS(long[] stype, int i) {
+        return (stype[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private static boolean isLMS(long[] stype, int i) {
+        return i > 0 && isS(stype, i) && !isS(stype, i - 1);
+    }
+}
@@ -0,0 +1,36 @@
+package index;
+
+import java.nio.IntBuffer;
+
+/**
+ * Sampled suffix array stored as the sorted sampled rows and their text positions.
+ */
+class SortedSuffixSamples implements SuffixSamples {
+
+    private final IntBuffer rows;
+    private final IntBuffer values;
+
+    SortedSuffixSamples(IntBuffer rows, IntBuffer values) {
+        this.rows = rows;
+        this.values = values;
+    }
+
+    @Override
+    public long get(long index) {
+        int row = (int) index;
+        int low = 0;
+        int high = rows.capacity() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midRow = rows.get(mid);
+            if (midRow < row) {
+                low = mid + 1;
+            } else if (midRow > row) {
+                high = mid - 1;
+            } else {
+                return values.get(mid);
+            }
+        }
+        return -1;
+    }
+}
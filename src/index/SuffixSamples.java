@@ -0,0 +1,13 @@
+package index;
+
+/**
+ * The sampled suffix array, used to turn BWT rows into text positions.
+ */
+public interface SuffixSamples {
+
+    /**
+     * @param row The row of the BWT.
+     * @return Returns the text position of the suffix at the row, or -1 if the row is not sampled.
+     */
+    long get(long row);
+}
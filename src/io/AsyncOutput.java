@@ -0,0 +1,133 @@
+package io;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Writes chunks of bytes on a thread of its own, through a large buffer, optionally compressed into BGZF.
+ * Writing a chunk only queues it, so whoever produces the output never waits for the disk or the terminal. The
+ * producer is told when a chunk was written so it can reuse it, which is what bounds the memory queued here.
+ */
+public class AsyncOutput implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 4 << 20;
+
+    private final OutputStream out;
+    //The compressing stream, null when not compressing.
+    private final BgzfOutputStream bgzf;
+    private final boolean closeOut;
+    private final LinkedBlockingQueue<Chunk> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    //The first failure of the writer thread, thrown to the producer by the next write or the close.
+    private volatile IOException failure;
+
+    /**
+     * @param out Where the bytes go.
+     * @param bgzf Whether they are compressed into BGZF.
+     * @param closeOut Whether closing this closes out, else it is only flushed.
+     */
+    public AsyncOutput(OutputStream out, boolean bgzf, boolean closeOut) {
+        OutputStream buffered = new BufferedOutputStream(out, BUFFER_SIZE);
+        this.bgzf = bgzf ? new BgzfOutputStream(buffered) : null;
+        this.out = bgzf ? this.bgzf : buffered;
+        this.closeOut = closeOut;
+        this.writer = new Thread(this::drain, "output-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * @param path The file to write, or - for the standard output.
+     */
+    public static AsyncOutput open(String path, boolean bgzf) throws IOException {
+        if ("-".equals(path)) {
+            //The file descriptor itself, not System.out, which locks and flushes on every write.
+            return new AsyncOutput(new FileOutputStream(FileDescriptor.out), bgzf, false);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new AsyncOutput(Channels.newOutputStream(channel), bgzf, true);
+    }
+
+    /**
+     * Queues the first length bytes for writing.
+     * @param written Run on the writer thread once the bytes are written, after which the array can be reused.
+     */
+    public void write(byte[] bytes, int length, Runnable written) throws IOException {
+        checkFailure();
+        queue.add(new Chunk(bytes, length, written));
+    }
+
+    private void drain() {
+        try {
+            while (true) {
+                Chunk chunk = queue.take();
+                if (chunk.bytes == null) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        out.write(chunk.bytes, 0, chunk.length);
+                    } catch (IOException e) {
+                        failure = e;
+                    }
+                }
+                //Handed back even after a failure, so the producer never waits for a chunk which is not coming.
+                if (chunk.written != null) {
+                    chunk.written.run();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Writing the output failed", failure);
+        }
+    }
+
+    /**
+     * Writes everything queued, and the end of the BGZF file when compressing, then closes or flushes the stream.
+     * Being interrupted while waiting for the writer thread is an IOException, with the interrupt flag kept.
+     */
+    @Override
+    public void close() throws IOException {
+        queue.add(new Chunk(null, 0, null));
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing the output", e);
+        }
+        checkFailure();
+        if (closeOut) {
+            out.close();
+        } else if (bgzf != null) {
+            bgzf.finish();
+        } else {
+            out.flush();
+        }
+    }
+
+    private static final class Chunk {
+        private final byte[] bytes;
+        private final int length;
+        private final Runnable written;
+
+        Chunk(byte[] bytes, int length, Runnable written) {
+            this.bytes = bytes;
+            this.length = length;
+            this.written = written;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses into BGZF, the blocked gzip of BAM and tabix : a series of gzip members of at most 64 KB each, whose
+ * header records the size of the member, ended by an empty member. Any gzip reader reads it as plain gzip, and
+ * samtools and htslib can seek in it.
+ */
+public class BgzfOutputStream extends OutputStream {
+
+    //The uncompressed bytes of a block, as in htslib, so even incompressible data fits a block once deflated.
+    private static final int BLOCK_INPUT = 0xff00;
+    private static final int MAX_BLOCK = 0x10000;
+    private static final int HEADER = 18;
+    private static final int FOOTER = 8;
+    private static final byte[] EOF_BLOCK = {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    private final OutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] input = new byte[BLOCK_INPUT];
+    private final byte[] block = new byte[MAX_BLOCK];
+    private int inputLength = 0;
+    private boolean finished = false;
+
+    public BgzfOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (inputLength == BLOCK_INPUT) {
+            writeBlock();
+        }
+        input[inputLength++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (inputLength == BLOCK_INPUT) {
+                writeBlock();
+            }
+            int count = Math.min(length, BLOCK_INPUT - inputLength);
+            System.arraycopy(bytes, offset, input, inputLength, count);
+            inputLength += count;
+            offset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * Writes what is buffered as a block of its own, so everything written so far can be read back.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (inputLength > 0) {
+            writeBlock();
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the last block and the empty block which marks the end of the file, leaving the stream under it open.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            flush();
+            out.write(EOF_BLOCK);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock() throws IOException {
+        deflater.reset();
+        deflater.setInput(input, 0, inputLength);
+        deflater.finish();
+        int compressed = deflater.deflate(block, HEADER, MAX_BLOCK - HEADER - FOOTER);
+        if (!deflater.finished()) {
+            throw new IOException("A BGZF block does not fit in " + MAX_BLOCK + " bytes");
+        }
+        crc.reset();
+        crc.update(input, 0, inputLength);
+
+        int size = HEADER + compressed + FOOTER;
+        block[0] = 0x1f;
+        block[1] = (byte) 0x8b;
+        block[2] = 8;
+        //FEXTRA, with the BC subfield holding the size of the block less one.
+        block[3] = 4;
+        block[4] = block[5] = block[6] = block[7] = 0;
+        block[8] = 0;
+        block[9] = (byte) 0xff;
+        block[10] = 6;
+        block[11] = 0;
+        block[12] = 'B';
+        block[13] = 'C';
+        block[14] = 2;
+        block[15] = 0;
+        block[16] = (byte) (size - 1);
+        block[17] = (byte) ((size - 1) >>> 8);
+        putInt(HEADER + compressed, (int) crc.getValue());
+        putInt(HEADER + compressed + 4, inputLength);
+        out.write(block, 0, size);
+        inputLength = 0;
+    }
+
+    private void putInt(int offset, int value) {
+        block[offset] = (byte) value;
+        block[offset + 1] = (byte) (value >>> 8);
+        block[offset + 2] = (byte) (value >>> 16);
+        block[offset + 3] = (byte) (value >>> 24);
+    }
+}
@@ -0,0 +1,176 @@
+package io;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Streams the records of a FASTQ file into a reused FastqRecord, reading the file in large blocks.
+ * Gzip compressed files, including multi member files such as bgzip output, are detected by their magic.
+ * Memory use is bounded by the block size and the longest line, whatever the size of the file.
+ */
+public class FastqReader implements Closeable {
+
+    private static final int BLOCK_SIZE = 4 << 20;
+    private static final int PHRED_OFFSET = 33;
+
+    private final ReadableByteChannel channel;
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+
+    //Bounds of the line returned by the last readLine.
+    private int lineStart;
+    private int lineEnd;
+
+    public FastqReader(String path) throws IOException {
+        this(Paths.get(path));
+    }
+
+    public FastqReader(Path path) throws IOException {
+        if (isGzip(path)) {
+            InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16), 1 << 16);
+            channel = Channels.newChannel(in);
+        } else {
+            channel = FileChannel.open(path, StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * Reads from an already open stream, which is not checked for compression.
+     */
+    public FastqReader(InputStream in) {
+        channel = Channels.newChannel(in);
+    }
+
+    private static boolean isGzip(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        }
+    }
+
+    /**
+     * Reads the next record.
+     * @param record The record to fill in.
+     * @return Returns false once there are no more records.
+     */
+    public boolean next(FastqRecord record) throws IOException {
+
+        //Skip blank lines between records.
+        do {
+            if (!readLine()) {
+                return false;
+            }
+        } while (lineStart == lineEnd);
+
+        if (buffer[lineStart] != '@') {
+            throw new IOException("FASTQ record does not start with '@'");
+        }
+        int nameEnd = lineStart + 1;
+        while (nameEnd < lineEnd && buffer[nameEnd] != ' ' && buffer[nameEnd] != '\t') {
+            nameEnd++;
+        }
+        record.setName(buffer, lineStart + 1, nameEnd - lineStart - 1);
+
+        if (!readLine()) {
+            throw new IOException("FASTQ record " + record.getName() + " has no bases");
+        }
+        int length = lineEnd - lineStart;
+        record.ensureLength(length);
+        byte[] bases = record.getBases();
+        for (int i = 0; i < length; i++) {
+            byte base = buffer[lineStart + i];
+            //Upper case the letters.
+            bases[i] = base >= 'a' && base <= 'z' ? (byte) (base - ('a' - 'A')) : base;
+        }
+
+        if (!readLine() || lineStart == lineEnd || buffer[lineStart] != '+') {
+            throw new IOException("FASTQ record " + record.getName() + " has no '+' line");
+        }
+
+        if (!readLine() || lineEnd - lineStart != length) {
+            throw new IOException("FASTQ record " + record.getName() + " has a quality line of the wrong length");
+        }
+        byte[] qualities = record.getQualities();
+        for (int i = 0; i < length; i++) {
+            qualities[i] = (byte) (buffer[lineStart + i] - PHRED_OFFSET);
+        }
+
+        record.setLength(length);
+        return true;
+    }
+
+    /**
+     * Makes the next line available between lineStart and lineEnd, without its line terminator.
+     * @return Returns false at the end of the input.
+     */
+    private boolean readLine() throws IOException {
+        int scan = position;
+        while (true) {
+            for (; scan < limit; scan++) {
+                if (buffer[scan] == '\n') {
+                    lineStart = position;
+                    lineEnd = scan > position && buffer[scan - 1] == '\r' ? scan - 1 : scan;
+                    position = scan + 1;
+                    return true;
+                }
+            }
+
+            if (endOfInput) {
+                if (position == limit) {
+                    return false;
+                }
+                //Last line without a line terminator.
+                lineStart = position;
+                lineEnd = limit > position && buffer[limit - 1] == '\r' ? limit - 1 : limit;
+                position = limit;
+                return true;
+            }
+
+            //Move the partial line to the front and read the next block behind it.
+            scan -= position;
+            limit -= position;
+            System.arraycopy(buffer, position, buffer, 0, limit);
+            position = 0;
+            if (limit == buffer.length) {
+                byte[] larger = new byte[2 * buffer.length];
+                System.arraycopy(buffer, 0, larger, 0, limit);
+                buffer = larger;
+                wrapped = ByteBuffer.wrap(buffer);
+            }
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        wrapped.clear().position(limit);
+        while (wrapped.hasRemaining()) {
+            int read = channel.read(wrapped);
+            if (read < 0) {
+                endOfInput = true;
+                break;
+            }
+            if (read == 0 && wrapped.position() > limit) {
+                break;
+            }
+        }
+        limit = wrapped.position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
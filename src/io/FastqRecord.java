@@ -0,0 +1,78 @@
+package io;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One read of a FASTQ file. Records are meant to be reused, so the arrays are only grown and hold the read
+ * in their first getLength() entries.
+ */
+public class FastqRecord {
+
+    private byte[] name = new byte[64];
+    private int nameLength = 0;
+
+    private byte[] bases = new byte[256];
+    private byte[] qualities = new byte[256];
+    private int length = 0;
+
+    /**
+     * @return Returns the bases of the read in upper case, valid up to getLength().
+     */
+    public byte[] getBases() {
+        return bases;
+    }
+
+    /**
+     * @return Returns the Phred quality scores of the read, valid up to getLength().
+     */
+    public byte[] getQualities() {
+        return qualities;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return Returns the name of the read, valid up to getNameLength().
+     */
+    public byte[] getNameBytes() {
+        return name;
+    }
+
+    public int getNameLength() {
+        return nameLength;
+    }
+
+    public String getName() {
+        return new String(name, 0, nameLength, StandardCharsets.US_ASCII);
+    }
+
+    public void copyFrom(FastqRecord other) {
+        setName(other.name, 0, other.nameLength);
+        ensureLength(other.length);
+        System.arraycopy(other.bases, 0, bases, 0, other.length);
+        System.arraycopy(other.qualities, 0, qualities, 0, other.length);
+        length = other.length;
+    }
+
+    void setName(byte[] source, int from, int count) {
+        if (name.length < count) {
+            name = new byte[Math.max(count, 2 * name.length)];
+        }
+        System.arraycopy(source, from, name, 0, count);
+        nameLength = count;
+    }
+
+    void ensureLength(int length) {
+        if (bases.length < length) {
+            int size = Math.max(length, 2 * bases.length);
+            bases = new byte[size];
+            qualities = new byte[size];
+        }
+    }
+
+    void setLength(int length) {
+        this.length = length;
+    }
+}
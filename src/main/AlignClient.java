@@ -0,0 +1,56 @@
+package main;
+
+import io.SocketStreams;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Sends reads to a ReadFASTQ -serve server and writes their output to the standard output.
+ * Usage : AlignClient socket [reads.fastq[.gz]]
+ * The reads are read from the standard input when no file is given.
+ */
+public class AlignClient {
+
+    private static final String USAGE = "Usage : AlignClient socket [reads.fastq[.gz]]";
+
+    public static void main(String[] args)
+    {
+        if(args.length != 1 && args.length != 2){
+            System.out.println(USAGE);
+            return;
+        }
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(Paths.get(args[0])))) {
+            //The server only takes the reads as fast as their output is read, so they are sent on a thread of
+            //their own.
+            IOException[] failure = new IOException[1];
+            Thread sender = new Thread(() -> {
+                //Closing the output shuts down the sending side, which tells the server the reads are all sent, even
+                //when the reads could not be opened.
+                try (OutputStream out = SocketStreams.output(channel);
+                     InputStream in = args.length == 2 ? Files.newInputStream(Paths.get(args[1]))
+                             : new FileInputStream(FileDescriptor.in)) {
+                    in.transferTo(out);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }, "reads-sender");
+            sender.start();
+            SocketStreams.input(channel).transferTo(new FileOutputStream(FileDescriptor.out));
+            sender.join();
+            if(failure[0] != null){
+                throw failure[0];
+            }
+        }catch (Exception e){
+            e.printStackTrace();
+        }
+    }
+}
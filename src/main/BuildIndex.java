@@ -0,0 +1,86 @@
+package main;
+
+import index.IndexBuilder;
+
+/**
+ * Builds the index files of a FASTA reference.
+ * Usage : BuildIndex [-d checkpointDistance] [-s suffixDistance] [-p threads] [-legacy] [-packed] [-rowsample] [-mirror] [-kmer k] [-budget bytes[K|M|G]] [-long] [-shards count|contig] reference.fasta indexDir
+ */
+public class BuildIndex {
+
+    public static void main(String[] args)
+    {
+        try {
+
+            IndexBuilder builder = new IndexBuilder().setProgress(System.out::println);
+            int i = 0;
+            while (i < args.length - 2 && args[i].startsWith("-")) {
+                String option = args[i++];
+                switch (option) {
+                    case "-d":
+                        builder.setCheckpointDistance(Integer.parseInt(args[i++]));
+                        break;
+                    case "-s":
+                        builder.setSuffixDistance(Integer.parseInt(args[i++]));
+                        break;
+                    case "-p":
+                        builder.setThreads(Integer.parseInt(args[i++]));
+                        break;
+                    case "-legacy":
+                        builder.setLegacyFormat(true);
+                        break;
+                    case "-packed":
+                        builder.setPackedOccurrences(true);
+                        break;
+                    case "-rowsample":
+                        builder.setSampleByRow(true);
+                        break;
+                    case "-mirror":
+                        builder.setMirror(true);
+                        break;
+                    case "-kmer":
+                        builder.setKmerLength(Integer.parseInt(args[i++]));
+                        break;
+                    case "-budget":
+                        builder.setMemoryBudget(parseSize(args[i++]));
+                        break;
+                    case "-long":
+                        builder.setLongAddressing(true);
+                        break;
+                    case "-shards":
+                        String shards = args[i++];
+                        if (shards.equals("contig")) {
+                            builder.setShardPerContig(true);
+                        } else {
+                            builder.setShardCount(Integer.parseInt(shards));
+                        }
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+
+            if(args.length - i != 2){
+                System.out.println("Usage : BuildIndex [-d checkpointDistance] [-s suffixDistance] [-p threads] [-legacy] [-packed] [-rowsample] [-mirror] [-kmer k] [-budget bytes[K|M|G]] [-long] [-shards count|contig] reference.fasta indexDir");
+                return;
+            }
+
+            long a = System.currentTimeMillis();
+            builder.build(args[i], args[i + 1]);
+            System.out.println("Index built in milliseconds : " + (System.currentTimeMillis() - a));
+
+        }catch (Exception e){
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return Returns the bytes of a size such as 512M, with a K, M or G suffix of powers of 1024.
+     */
+    private static long parseSize(String size) {
+        char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+        int shift = unit == 'K' ? 10 : unit == 'M' ? 20 : unit == 'G' ? 30 : 0;
+        String digits = shift == 0 ? size : size.substring(0, size.length() - 1);
+        return Long.parseLong(digits) << shift;
+    }
+}
@@ -1,63 +1,275 @@
 package main;
 
-import org.biojava.nbio.core.sequence.DNASequence;
-import org.biojava.nbio.core.sequence.compound.NucleotideCompound;
-import org.biojava.nbio.core.sequence.features.FeatureInterface;
-import org.biojava.nbio.core.sequence.features.QualityFeature;
-import org.biojava.nbio.core.sequence.template.AbstractSequence;
-import org.biojava.nbio.sequencing.io.fastq.*;
+import io.AsyncOutput;
+import io.FastqReader;
+import io.FastqRecord;
 import search.Aligner;
+import search.AlignmentPipeline;
+import search.AlignmentServer;
+import search.OutputFormat;
+import search.MetricsReporter;
+import search.PairedEndMode;
+import search.SearchMetrics;
+import search.SearchMode;
 
-import java.io.File;
-import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by ashwinsl on 12/1/15.
+ * Usage : ReadFASTQ [-v mismatches | -n seedMismatches] [-l seedLength] [-e maxQualitySum] [-best] [-k hits | -count] [-cache rows] [-read-cache reads] [-gaps maxGaps] [-nosort] [-norc] [-sam] [-bgzf] [-o output] [-metrics file [-metrics-format json | prometheus] [-metrics-interval seconds]] [-2 mates.fastq[.gz] [-I minInsert] [-X maxInsert] [-fr | -rf | -ff]] [-p threads] [-pin shards] [-shard-threads threads] (indexDir reads.fastq[.gz] [threads] | -serve socket [-drain seconds] indexDir)
  */
 public class ReadFASTQ {
 
+    private static final int BATCH_SIZE = 256;
+    private static final String USAGE = "Usage : ReadFASTQ [-v mismatches | -n seedMismatches] [-l seedLength] [-e maxQualitySum] [-best] [-k hits | -count] [-cache rows] [-read-cache reads] [-gaps maxGaps] [-nosort] [-norc] [-sam] [-bgzf] [-o output] [-metrics file [-metrics-format json | prometheus] [-metrics-interval seconds]] [-2 mates.fastq[.gz] [-I minInsert] [-X maxInsert] [-fr | -rf | -ff]] [-p threads] [-pin shards] [-shard-threads threads] (indexDir reads.fastq[.gz] [threads] | -serve socket [-drain seconds] indexDir)";
+
     public static void main(String[] args)
     {
         try {
 
-            if(args.length != 2){
-                System.out.println("");
+            //Bowtie's defaults, -n 2 -l 28 -e 70, unless -v asks for end to end alignment.
+            int endToEnd = -1;
+            int seedMismatches = 2;
+            int seedLength = 28;
+            int maxQualitySum = 70;
+            boolean best = false;
+            int maxHits = Integer.MAX_VALUE;
+            boolean countOnly = false;
+            int cacheSize = 0;
+            int readCacheSize = 0;
+            int maxGaps = 0;
+            boolean sortBatches = true;
+            boolean bothStrands = true;
+            OutputFormat format = OutputFormat.TEXT;
+            boolean bgzf = false;
+            String outputPath = "-";
+            String metricsPath = null;
+            SearchMetrics.Format metricsFormat = SearchMetrics.Format.JSON;
+            long metricsInterval = 0;
+            String matesPath = null;
+            PairedEndMode.Orientation orientation = PairedEndMode.Orientation.FR;
+            int minInsert = PairedEndMode.defaultMode().getMinInsert();
+            int maxInsert = PairedEndMode.defaultMode().getMaxInsert();
+            String socketPath = null;
+            long drainSeconds = 60;
+            int threads = Runtime.getRuntime().availableProcessors();
+            int pinnedShards = 0;
+            //The threads searching the shards of a read, as many as the workers unless given.
+            int shardThreads = -1;
+            int i = 0;
+            while (i < args.length - 1 && args[i].startsWith("-")) {
+                String option = args[i++];
+                switch (option) {
+                    case "-v":
+                        endToEnd = Integer.parseInt(args[i++]);
+                        break;
+                    case "-n":
+                        seedMismatches = Integer.parseInt(args[i++]);
+                        break;
+                    case "-l":
+                        seedLength = Integer.parseInt(args[i++]);
+                        break;
+                    case "-e":
+                        maxQualitySum = Integer.parseInt(args[i++]);
+                        break;
+                    case "-best":
+                        best = true;
+                        break;
+                    case "-k":
+                        maxHits = Integer.parseInt(args[i++]);
+                        break;
+                    case "-count":
+                        countOnly = true;
+                        break;
+                    case "-cache":
+                        cacheSize = Integer.parseInt(args[i++]);
+                        break;
+                    case "-read-cache":
+                        readCacheSize = Integer.parseInt(args[i++]);
+                        break;
+                    case "-gaps":
+                        maxGaps = Integer.parseInt(args[i++]);
+                        break;
+                    case "-nosort":
+                        sortBatches = false;
+                        break;
+                    case "-norc":
+                        bothStrands = false;
+                        break;
+                    case "-sam":
+                        format = OutputFormat.SAM;
+                        break;
+                    case "-bgzf":
+                        bgzf = true;
+                        break;
+                    case "-o":
+                        outputPath = args[i++];
+                        break;
+                    case "-metrics":
+                        metricsPath = args[i++];
+                        break;
+                    case "-metrics-format":
+                        metricsFormat = SearchMetrics.Format.valueOf(args[i++].toUpperCase());
+                        break;
+                    case "-metrics-interval":
+                        metricsInterval = Long.parseLong(args[i++]);
+                        break;
+                    case "-2":
+                        matesPath = args[i++];
+                        break;
+                    case "-I":
+                        minInsert = Integer.parseInt(args[i++]);
+                        break;
+                    case "-X":
+                        maxInsert = Integer.parseInt(args[i++]);
+                        break;
+                    case "-fr":
+                        orientation = PairedEndMode.Orientation.FR;
+                        break;
+                    case "-rf":
+                        orientation = PairedEndMode.Orientation.RF;
+                        break;
+                    case "-ff":
+                        orientation = PairedEndMode.Orientation.FF;
+                        break;
+                    case "-p":
+                        threads = Integer.parseInt(args[i++]);
+                        break;
+                    case "-pin":
+                        pinnedShards = Integer.parseInt(args[i++]);
+                        break;
+                    case "-shard-threads":
+                        shardThreads = Integer.parseInt(args[i++]);
+                        break;
+                    case "-serve":
+                        socketPath = args[i++];
+                        break;
+                    case "-drain":
+                        drainSeconds = Long.parseLong(args[i++]);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + option);
+                }
             }
 
-            FastqReader fastqReader = new SangerFastqReader();
-            List<DNASequence> sequences = new LinkedList<DNASequence>();
-
-            for (Fastq fastq : fastqReader.read(new File(args[1]))) {
-                sequences.add(FastqTools.createDNASequenceWithQualityScores(fastq));
+            if(socketPath != null ? args.length - i != 1 : args.length - i != 2 && args.length - i != 3){
+                System.out.println(USAGE);
+                return;
             }
+            if(args.length - i == 3){
+                threads = Integer.parseInt(args[i + 2]);
+            }
+            SearchMode mode = endToEnd >= 0 ? SearchMode.endToEnd(endToEnd)
+                    : SearchMode.seed(seedMismatches, seedLength, maxQualitySum).withBest(best);
+            mode = mode.withMaxHits(maxHits).withCountOnly(countOnly).withBothStrands(bothStrands)
+                    .withMaxGaps(maxGaps);
 
-            Aligner aligner = new Aligner(args[0]);
-            List<Integer> quality = new ArrayList<>();
-
-            //Reading all the sequences and their quality scores from the fastq file
-            for(DNASequence sequence1 : sequences){
-
-                List<FeatureInterface<AbstractSequence<NucleotideCompound>, NucleotideCompound>> features = sequence1.getFeaturesByType("qualityScores");
+            SearchMetrics metrics = metricsPath == null ? null : new SearchMetrics();
+            Aligner aligner = new Aligner(args[i], mode, cacheSize, metrics, pinnedShards,
+                    shardThreads < 0 ? threads : shardThreads, readCacheSize);
+            FastqRecord record = new FastqRecord();
+            //Dumps the metrics every interval and at the end.
+            MetricsReporter reporter = metrics == null ? null
+                    : new MetricsReporter(metrics, metricsFormat, metricsPath, metricsInterval);
 
-                QualityFeature<AbstractSequence<NucleotideCompound>, NucleotideCompound> qualityScores = (QualityFeature<AbstractSequence<NucleotideCompound>, NucleotideCompound>)features.get(0);
+            if(socketPath != null){
+                //Serves until the process is told to stop, then lets the jobs running finish before it exits.
+                AlignmentServer server = new AlignmentServer(aligner, threads, BATCH_SIZE, format, bgzf, sortBatches,
+                        socketPath);
+                long drain = drainSeconds;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    try {
+                        if(!server.drain(drain, TimeUnit.SECONDS)){
+                            System.err.println("Jobs still running after " + drain + " seconds, stopping them");
+                        }
+                        server.close();
+                        aligner.close();
+                        if(reporter != null){
+                            reporter.close();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }, "server-drain"));
+                System.err.println("Serving " + args[i] + " on " + socketPath);
+                //The hook finishes the shutdown, the metrics included.
+                server.serve();
+                return;
+            }
 
-                for(Number num : qualityScores.getQualities()){
-                    quality.add(num.intValue());
+            if(matesPath != null){
+                //The two files hold the mates of the same pairs in the same order.
+                FastqRecord mate = new FastqRecord();
+                PairedEndMode pairing = new PairedEndMode(orientation, minInsert, maxInsert);
+                try (aligner;
+                     FastqReader reader = new FastqReader(args[i + 1]);
+                     FastqReader mateReader = new FastqReader(matesPath);
+                     AsyncOutput out = AsyncOutput.open(outputPath, bgzf);
+                     AlignmentPipeline pipeline = new AlignmentPipeline(aligner, threads, BATCH_SIZE, out, format, false, pairing)) {
+                    while (reader.next(record)) {
+                        if(!mateReader.next(mate)){
+                            throw new IOException(matesPath + " has fewer reads than " + args[i + 1]);
+                        }
+                        if(!isSamePair(record, mate)){
+                            throw new IOException("The mates " + record.getName() + " and " + mate.getName() + " do not pair");
+                        }
+                        pipeline.submit(record, mate);
+                    }
+                    if(mateReader.next(mate)){
+                        throw new IOException(matesPath + " has more reads than " + args[i + 1]);
+                    }
                 }
+            } else {
+                //Streaming the reads from the fastq file into the alignment, in parallel but reported in order, the
+                //output written on a thread of its own.
+                try (aligner;
+                     FastqReader reader = new FastqReader(args[i + 1]);
+                     AsyncOutput out = AsyncOutput.open(outputPath, bgzf);
+                     AlignmentPipeline pipeline = new AlignmentPipeline(aligner, threads, BATCH_SIZE, out, format, sortBatches, null)) {
+                    while (reader.next(record)) {
+                        pipeline.submit(record);
+                    }
+                }
+            }
 
-                //Calling the alignment for all the reads in the fastq.
-                long a = System.currentTimeMillis();
-                aligner.align(sequence1.getSequenceAsString().toUpperCase().toCharArray(),quality);
-                System.out.println("Time taken in milliseconds : " + (System.currentTimeMillis() - a));
-
-                quality.clear();
-
+            if(reporter != null){
+                reporter.close();
+            }
+            if(cacheSize > 0){
+                System.err.println("Locate cache hits : " + aligner.getLocateCacheHits()
+                        + " misses : " + aligner.getLocateCacheMisses());
+            }
+            if(aligner.getReadCache() != null){
+                long hits = aligner.getReadCache().getHits();
+                long lookups = hits + aligner.getReadCache().getMisses();
+                System.err.println("Read cache hits : " + hits + " misses : " + (lookups - hits) + String.format(
+                        " hit rate : %.1f%%", lookups == 0 ? 0.0 : 100.0 * hits / lookups));
             }
 
         }catch (Exception e){
             e.printStackTrace();
         }
     }
+
+    /**
+     * @return Returns whether the names of the mates are the same but for a /1 and /2 at their end.
+     */
+    private static boolean isSamePair(FastqRecord first, FastqRecord second) {
+        int length = first.getNameLength();
+        if(length != second.getNameLength()){
+            return false;
+        }
+        byte[] a = first.getNameBytes();
+        byte[] b = second.getNameBytes();
+        if(length >= 2 && a[length - 2] == '/' && b[length - 2] == '/'){
+            length -= 2;
+        }
+        for (int i = 0; i < length; i++) {
+            if(a[i] != b[i]){
+                return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,112 @@
+package metrics;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non negative longs with a bounded relative error, laid out like HdrHistogram : values below
+ * 2^SUB_BUCKET_BITS have a bucket each, and every power of two above has half that many buckets, so any value is
+ * counted in a bucket at most 1 / 64th of it wide, whatever its magnitude. Recording is a few shifts and an
+ * increment into a fixed array.
+ *
+ * Not thread safe, every thread records into its own and they are added up to be read.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int BUCKETS = index(Long.MAX_VALUE) + 1;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long sum = 0;
+    private long max = 0;
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Only non negative values can be recorded");
+        }
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * Adds the values recorded in the other histogram to this one.
+     */
+    public void add(Histogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return Returns the highest value of the bucket the percentile falls in, at most the largest value recorded,
+     * so the value at or below which the percentile of the values are, within the error of the buckets.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Values below SUB_BUCKETS are their own bucket. Above, a value whose top bit is b is shifted right by
+     * b - SUB_BUCKET_BITS + 1, which leaves it between HALF and SUB_BUCKETS, and every shift has HALF buckets.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * HALF + (int) (value >>> shift);
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / HALF - 1;
+        long mantissa = index - (long) shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -1,536 +1,959 @@
 package search;
 
-import exceptions.NoChoiceAvailable;
+import index.ContigTable;
 import index.FMIndex;
+import index.LocateCache;
 
-import java.io.FileInputStream;
-import java.io.ObjectInputStream;
-import java.util.*;
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Created by ashwinsl on 12/1/15.
  */
-public class Aligner {
+public class Aligner implements AutoCloseable {
 
-    private static final int BACKTRACK_THRESHOLD = 1000;
-    private static final int BACKTRACK_ITER_THRESHOLD = 50;
-    private static final int HIGH_QUALITY_READ_VALUE = 100;
-    private static final int READ_QUALITY_CUTOFF = 35;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
 
+    //Only the read only index is kept here, everything about a read lives in its SearchContext.
+    private final ThreadLocal<SearchContext> contexts = ThreadLocal.withInitial(SearchContext::new);
 
-    private Stack<Status> alignedTillNow = new Stack<>();
-    private Status firstPositionStatus = null;
-
-    //Using hashmap for now, can do a lot better.
-    private HashMap<String,Object> map = new HashMap<>();
-    private final String TOCHECK = "TOCHECK";
-    private final String LOWINDEX = "LOWINDEX";
-    private final String HIGHINDEX = "HIGHINDEX";
-
-    private char[] dnaToAlign = null;
-    private List<Integer> quality = null;
-
-    private char[] lastCol;
-    private int[][] tally;
-    private int tallyLength;
-    private HashMap<Integer, Integer> suffixArray = null;
-
-    private int numberOfAs;
-    private int numberOfCs;
-    private int numberOfGs;
-    private int numberOfTs;
-
-    private int totalLength;
+    //The contigs of the reference, and the shards of the index over them, a single one when it is not sharded.
+    private final ContigTable contigs;
+    private final Shard[] shards;
+    private final SearchMode mode;
+    //Searches the shards of a read in parallel, null when they are searched one after the other.
+    private final ForkJoinPool shardPool;
+    //The outcomes of the reads aligned before, for their duplicates, null when not caching.
+    private final ReadCache readCache;
+    //Where the work and latency of every read is recorded, null when not measuring.
+    private final SearchMetrics metrics;
 
 
     public Aligner(String path){
-        //Path is the absolute path where the index and LRow are present.
-        //Can change this based on how the index is going to be.
-
-        try {
+        this(path, SearchMode.defaultMode());
+    }
 
-            ObjectInputStream in = new ObjectInputStream(new FileInputStream(path + "/extradata"));
-            int[] firstCol = (int[]) in.readObject();
-            FMIndex.FMDISTANCE = in.read();
-            int suffixDistance = (int) in.read();
+    public Aligner(String path, SearchMode mode){
+        this(path, mode, 0);
+    }
 
-            in.close();
+    /**
+     * @param locateCacheSize The number of rows whose text position is cached for every index, 0 for none.
+     */
+    public Aligner(String path, SearchMode mode, int locateCacheSize){
+        this(path, mode, locateCacheSize, null);
+    }
 
-            numberOfAs = firstCol[1] - firstCol[0];
-            numberOfCs = firstCol[2] - numberOfAs - 1;
-            numberOfGs = firstCol[3] - numberOfAs - numberOfCs - 1 ;
-            numberOfTs = firstCol[4] - numberOfAs - numberOfCs - numberOfGs - 1;
+    /**
+     * @param metrics Where every read aligned is recorded, null for nowhere.
+     */
+    public Aligner(String path, SearchMode mode, int locateCacheSize, SearchMetrics metrics){
+        this(path, mode, locateCacheSize, metrics, 0, 0);
+    }
 
-            totalLength = numberOfAs + numberOfCs + numberOfGs + numberOfTs;
+    /**
+     * @param pinnedShards The number of shards, the first ones of the contig table, which are read into memory now.
+     *                     The others are loaded on their first search. An index which is not sharded is always
+     *                     loaded now, and only read into memory when pinned.
+     * @param shardThreads The number of threads searching the shards of a read in parallel, 0 to search them one
+     *                     after the other on the thread aligning the read.
+     */
+    public Aligner(String path, SearchMode mode, int locateCacheSize, SearchMetrics metrics, int pinnedShards,
+                   int shardThreads){
+        this(path, mode, locateCacheSize, metrics, pinnedShards, shardThreads, 0);
+    }
 
-            tallyLength = totalLength/FMIndex.FMDISTANCE;
+    /**
+     * @param readCacheSize The number of reads whose outcome is kept for their duplicates, 0 for none.
+     */
+    public Aligner(String path, SearchMode mode, int locateCacheSize, SearchMetrics metrics, int pinnedShards,
+                   int shardThreads, int readCacheSize){
+        //Path is the directory where the index was built.
+        //The index files are memory mapped, so this returns before any of the index is read, unless pinned.
+        this.mode = mode;
+        this.metrics = metrics;
+
+        Path directory = Paths.get(path).toAbsolutePath().normalize().getFileName();
+        String referenceName = directory == null ? "reference" : directory.toString();
+        ContigTable table = null;
+        Shard[] loaded = null;
+        try {
+            table = ContigTable.read(new File(path));
+            if(table == null){
+                //Built before the contig table : a single contig, named after the index directory.
+                Shard shard = new Shard(path, mode, locateCacheSize);
+                shard.load(pinnedShards > 0);
+                table = ContigTable.single(referenceName, shard.getIndex().getLength());
+                loaded = new Shard[]{shard};
+            } else {
+                loaded = new Shard[table.getShardCount()];
+                for (int shard = 0; shard < loaded.length; shard++) {
+                    loaded[shard] = new Shard(new File(path, table.getShardDirectory(shard)).getPath(), mode,
+                            locateCacheSize);
+                    if(shard < pinnedShards || loaded.length == 1){
+                        loaded[shard].load(shard < pinnedShards);
+                    }
+                }
+            }
+        } catch (Exception e){
+            e.printStackTrace();
+        }
+        if(loaded == null){
+            //Searching it tries to load it again, and fails with why.
+            table = ContigTable.single(referenceName, 0);
+            loaded = new Shard[]{new Shard(path, mode, locateCacheSize)};
+        }
+        contigs = table;
+        shards = loaded;
+        shardPool = shards.length > 1 && shardThreads > 0 ? new ForkJoinPool(shardThreads) : null;
+        readCache = readCacheSize > 0 ? new ReadCache(readCacheSize) : null;
+    }
 
-            in = new ObjectInputStream(new FileInputStream(path + "/lastColFile"));
-            lastCol = (char[]) in.readObject();
-            in.close();
+    /**
+     * @return Returns the cache of the outcomes of the reads aligned, null when not caching.
+     */
+    public ReadCache getReadCache() {
+        return readCache;
+    }
 
+    /**
+     * @return Returns the number of rows whose text position was found in the caches of located rows of the
+     * indexes, their mirrors left out, of the shards loaded.
+     */
+    public long getLocateCacheHits() {
+        long hits = 0;
+        for (Shard shard : shards) {
+            if(shard.isLoaded() && shard.getCache() != null){
+                hits += shard.getCache().getHits();
+            }
+        }
+        return hits;
+    }
 
-            in = new ObjectInputStream(new FileInputStream(path + "/tally"));
-            tally = (int[][]) in.readObject();
-            in.close();
+    /**
+     * @return Returns the number of rows walked after not being found in the caches of located rows.
+     */
+    public long getLocateCacheMisses() {
+        long misses = 0;
+        for (Shard shard : shards) {
+            if(shard.isLoaded() && shard.getCache() != null){
+                misses += shard.getCache().getMisses();
+            }
+        }
+        return misses;
+    }
 
-            in = new ObjectInputStream(new FileInputStream(path + "/sa"));
-            suffixArray = (HashMap<Integer, Integer>) in.readObject();
-            in.close();
+    /**
+     * @return Returns where the reads aligned are recorded, null when nowhere.
+     */
+    public SearchMetrics getMetrics() {
+        return metrics;
+    }
 
+    /**
+     * @return Returns the contigs of the reference, which the hits of a read are in.
+     */
+    public ContigTable getContigs() {
+        return contigs;
+    }
 
-        } catch (Exception e){
-            e.printStackTrace();
+    /**
+     * Stops the threads searching the shards of a read in parallel, once the reads they search are done. The caches
+     * and the counters can still be read, the indexes are memory mapped and need no closing.
+     */
+    @Override
+    public void close(){
+        if(shardPool != null){
+            shardPool.shutdown();
         }
     }
 
     /**
-     * This function is called when we train to align the dna read.
-     * The Index of the genome is already loaded before this is called using hte constructor.
+     * Aligns the read with a context of the calling thread.
      * @param dnaToAlign The read of the DNA which needs to be aligned to the Genome.
      * @param qualityScores THe quality scores of the DNA read which needs to e aligned.
-     * @return 1 : Successful Exit, -1 : Something went wrong !!
+     * @return Returns what the alignment found.
      */
-    public int align(char[] dnaToAlign, List<Integer> qualityScores){
-
-        this.dnaToAlign = dnaToAlign;
-        this.quality = qualityScores;
-
-        //This stack contains all the data regarding which position is aligned to which position.
-        alignedTillNow.clear();
-
-        int iteration = 0;
+    public AlignmentResult align(char[] dnaToAlign, List<Integer> qualityScores){
         int length = dnaToAlign.length;
+        byte[] bases = new byte[length];
+        byte[] qualities = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = (byte) Character.toUpperCase(dnaToAlign[i]);
+            qualities[i] = (byte) (int) qualityScores.get(i);
+        }
 
-        int lastRankLow = 0;
-        int lastRankHigh = 0;
-
-        ArrayList<Character> checkedTillNow = new ArrayList<>();
-
-        char toCheck = dnaToAlign[length -1];
-        char previous = ' ';
-
-        Character[] firstPositionChar = {toCheck};
-
-        firstPositionStatus = new Status(0,0,toCheck,Arrays.asList(firstPositionChar));
-
-        boolean completed = true;
-        int backtrackTimes = 0;
+        SearchContext context = contexts.get();
+        align(context, bases, qualities, length);
+        return new AlignmentResult(context, contigs);
+    }
 
-        if(length <= 1){
-            //throw new Exception();
-            System.out.println("Length is one or less, so cannot perform");
+    /**
+     * This function is called when we train to align the dna read.
+     * The Index of the genome is already loaded before this is called using hte constructor.
+     * Can be called from many threads at once, as long as every thread passes its own context.
+     * Once the context has seen a read this long, the alignment does not allocate.
+     * @param context The context of the calling thread, which holds the outcome of the alignment afterwards.
+     * @param bases The read of the DNA which needs to be aligned to the Genome, in upper case.
+     * @param qualities THe Phred quality scores of the DNA read which needs to e aligned.
+     * @param length The length of the read.
+     * @return 1 : Successful Exit, -1 : Something went wrong !!
+     */
+    public int align(SearchContext context, byte[] bases, byte[] qualities, int length){
+        long start = System.nanoTime();
+        int result = prepare(context, bases, qualities, length) ? finish(context) : -1;
+        if(metrics != null){
+            metrics.record(context, System.nanoTime() - start);
         }
+        return result;
+    }
 
-        int lowIndex = 0, highIndex =0;
-
-        try {
-            for (iteration=0; iteration < length; iteration++) {
-
-                //For position 0, the number of the same character we are trying to align forms the initial range.
-                if(iteration == 0){
-                    switch (toCheck) {
-                        case 'a':
-                        case 'A':
-                            lowIndex = 1;
-                            highIndex = numberOfAs;
-                            break;
-                        case 'c':
-                        case 'C':
-                            lowIndex = numberOfAs + 1;
-                            highIndex = numberOfAs + numberOfCs;
-                            break;
-                        case 'g':
-                        case 'G':
-                            lowIndex = numberOfAs + numberOfCs + 1;
-                            highIndex = numberOfAs + numberOfCs + numberOfGs;
-                            break;
-                        case 't':
-                        case 'T':
-                            lowIndex = numberOfAs + numberOfCs + numberOfGs + 1;
-                            highIndex = numberOfAs + numberOfCs + numberOfGs + numberOfTs;
-                            break;
-                        default: throw new Exception("Not a valid alphabet");
-                    }
+    /**
+     * Aligns the two mates of a pair. The first mate is searched in the index, then the second one is looked for
+     * next to it, where the pairing allows it to be, which is much cheaper than searching the index. Only when it
+     * is not there is the second mate searched in the index, and then the first mate looked for next to it when
+     * the first mate did not align on its own.
+     * @param first The context of the first mate, which holds its alignment afterwards.
+     * @param second The context of the second mate, which holds its alignment afterwards.
+     * @return Returns the insert size when the mates aligned as the pairing allows, else -1.
+     */
+    public int alignPair(SearchContext first, SearchContext second, byte[] bases1, byte[] qualities1, int length1,
+                         byte[] bases2, byte[] qualities2, int length2, PairedEndMode pairing){
+        boolean valid1 = prepare(first, bases1, qualities1, length1);
+        boolean valid2 = prepare(second, bases2, qualities2, length2);
 
-                    previous = toCheck;
-                    toCheck = dnaToAlign[length-1-iteration-1];
-                    checkedTillNow.add(toCheck);
-                    alignedTillNow.add(new Status(lowIndex,highIndex,previous,checkedTillNow));
+        if(valid1){
+            finish(first);
+        }
+        if(valid2 && first.exitReason == ExitReason.MATCH){
+            int insert = rescue(second, first, true, pairing);
+            if(insert >= 0){
+                return insert;
+            }
+        }
+        if(valid2){
+            finish(second);
+        }
+        if(first.exitReason == ExitReason.MATCH && second.exitReason == ExitReason.MATCH){
+            return concordantInsert(first, second, pairing);
+        }
+        if(valid1 && second.exitReason == ExitReason.MATCH){
+            return rescue(first, second, false, pairing);
+        }
+        return -1;
+    }
 
-                    checkedTillNow.clear();
+    /**
+     * Pairs the hits of the mates, and makes the first pair the pairing allows their primary hits.
+     * @return Returns the insert size of the first pair of hits of the mates which the pairing allows, else -1.
+     */
+    private static int concordantInsert(SearchContext first, SearchContext second, PairedEndMode pairing){
+        if(pairing.isOtherReverse(first.bestReverse) != second.bestReverse){
+            return -1;
+        }
+        boolean right = pairing.isUpstream(true, first.bestReverse);
+        for (int i = 0; i < first.hitCount; i++) {
+            for (int j = 0; j < second.hitCount; j++) {
+                if(first.hitContigs[i] != second.hitContigs[j]){
                     continue;
-
                 }
-
-                int previousOffset = offsetForLRow(toCheck);
-
-                //This will denote the lowest rank of the next character that the query can align to.
-                lastRankLow = getRank(toCheck,lowIndex,true);
-                int newLowIndex = previousOffset + lastRankLow + 1;
-
-                //This denotes the highest rank of the next character that the query can align to.
-                lastRankHigh = getRank(toCheck,highIndex,false);
-                int newHighIndex = previousOffset + lastRankHigh;
-
-                //If the range of the ranks of the next character is not greater than one means
-                // there is no match. Hence we need to backtrack.
-                if(lastRankLow >= lastRankHigh){
-                    //This is where we need to backtrack.
-                    backtrackTimes ++;
-
-                    int numberOfStepsBackTracked = 0;
-                    try {
-                        //Backtracking.
-                        numberOfStepsBackTracked = backTrack(iteration,toCheck);
-                    } catch (NoChoiceAvailable e) {
-                        //This is thrown only when we have backtracked for more than the
-                        // threshold assigned to backtrack in the same position. Hence say no match.
-                        System.out.println("No match found after backtracking more than " + BACKTRACK_ITER_THRESHOLD + " times from the same position.\n");
-                        return -1;
-                    } catch (Exception e){
-                        //This is thrown when there is an unhandled exception.
-                        //So report that there is a bug!!
-                        System.out.println("No!! There is bug in the code.");
-                        return -1;
-                    }
-                    iteration = iteration - numberOfStepsBackTracked;
-                    toCheck = (char)map.get(TOCHECK);
-                    lowIndex = (int)map.get(LOWINDEX);
-                    highIndex = (int)map.get(HIGHINDEX);
-
-                    if(backtrackTimes >= BACKTRACK_THRESHOLD){
-                        //Tried backtracking more than 400 times. No match even after that.
-                        System.out.println("No match Found even after " + BACKTRACK_THRESHOLD + " backtracks.\n");
-                        return -1;
-                    }
-
-                } else {
-
-                    if(length - 1 - (iteration + 1) < 0){
-                        //We have reached the end of the DNA alignment.
-                        //And Yay!! We have a match. So push the last letter and Break out of the loop.
-                        alignedTillNow.add(new Status(lowIndex,highIndex,toCheck,null));
-                        break;
-                    }
-                    previous = toCheck;
-                    toCheck = dnaToAlign[length-1-iteration-1];
-                    checkedTillNow.add(toCheck);
-                    lowIndex = newLowIndex;
-                    highIndex = newHighIndex;
-                    alignedTillNow.add(new Status(lowIndex,highIndex,previous,checkedTillNow));
-                    checkedTillNow.clear();
+                int insert = insertSize(first.hits[i], first.length, second.hits[j], second.length, right, pairing);
+                if(insert >= 0){
+                    first.makePrimary(i);
+                    second.makePrimary(j);
+                    return insert;
                 }
-
             }
-        } catch (Exception e) {
-            completed = false;
-            //e.printStackTrace();
         }
+        return -1;
+    }
 
-        //Now need to get the starting locations of the string which were aligned.
-        //And pop off the stack to get all the elements which were aligned.
-
-        if(completed) {
-            StringBuilder stringBuilder = new StringBuilder();
-            //stringBuilder.append(toCheck);
-            int size = alignedTillNow.size();
-            for (int iter = 0; iter < size; iter++) {
-                Status status = alignedTillNow.pop();
-                stringBuilder.append(status.toUse);
-            }
-            System.out.println("Aligned Against : " + stringBuilder);
-
-            System.out.println("Suffixs are : ");
-
-            //Find the suffixs for all the positions matched.
-            for (int j = lowIndex; j <= highIndex; j++) {
-                System.out.print(getSuffixPosition(j) + "\t");
-            }
-            System.out.println("\n");
+    /**
+     * @param right Whether the other mate has to start at or after the anchored one.
+     * @return Returns the insert size of the mates at the positions when the pairing allows it, else -1.
+     */
+    private static int insertSize(long anchor, int anchorLength, long other, int otherLength, boolean right,
+                                  PairedEndMode pairing){
+        if(right ? other < anchor : other > anchor){
+            return -1;
         }
-        return 1;
+        long insert = Math.max(anchor + anchorLength, other + otherLength) - Math.min(anchor, other);
+        return insert >= pairing.getMinInsert() && insert <= pairing.getMaxInsert() ? (int) insert : -1;
     }
 
     /**
-     * Does a backtrack of the exact match till a point where we find a read which have the lowest quality.
-     * Uses a different character at the lowest read quality position and backtracks the progress made until then to that position
-     * @param iter : The current iteration the alignment is in.
-     * @param toCheck : the character which is checked upon currently.
-     * @return : the number of steps the backtracking has occurred.
-     * @throws NoChoiceAvailable
+     * Mate rescue : compares the mate with the reference, base by base, at every position the pairing allows
+     * next to a hit of the anchored mate, in its contig and off its masked runs, and keeps the best one the mode
+     * allows, which the context then holds as the alignment of the mate. The hit of the anchored mate it pairs with
+     * becomes its primary hit. Needs the index to hold the reference.
+     * @param target The context of the mate looked for, already prepared.
+     * @param anchor The context of the aligned mate.
+     * @return Returns the insert size when the mate was found, else -1.
      */
-    private int backTrack(int iter, char toCheck) throws NoChoiceAvailable{
-
-        int length = quality.size();
-
-        //Need this when we are trying to get the second lowest, when the first lowest is not matching
-        BackTrackStatus backTrackStatus = new BackTrackStatus();
-        backTrackStatus.backtrackIter = 0;
-        backTrackStatus.qualityReads = quality.toArray(new Integer[length]);
-
-        //System.out.println("BACKTRACKING");
-
-        boolean finished = false;
-        Status lastStatus = null;
-
-        while (!finished && backTrackStatus.backtrackIter < BACKTRACK_ITER_THRESHOLD) {
-            backTrackStatus.backtrackIter++;
-
-            //Get the positon where there is a read with lowest read quality.
-            int position = quality.size() - getSmallestReadPosition(length -1 -iter, backTrackStatus.qualityReads) - 1;
-
-
-            //If the same position is returned, then we need to add that the current to check is added to already tried.
-            if (position == iter) {
-                lastStatus = alignedTillNow.peek();
-                //lastStatus.addToAlreadyTried(toCheck);
-            } else if (position == 0) {
-
-                //If the position returned is 0. then we need to start all over again.
-                if(firstPositionStatus.getAlreadyTired().size() < 4){
-                    toCheck = firstPositionStatus.getPreviouslyUncheckedCharsAndUpdate();
-                    alignedTillNow.clear();
-                } else {
-                    //System.out.println("No!!!!");
-                    backTrackStatus.qualityReads[length - 1] = HIGH_QUALITY_READ_VALUE;
+    private int rescue(SearchContext target, SearchContext anchor, boolean anchorIsFirst, PairedEndMode pairing){
+        if(anchor.hitCount == 0){
+            return -1;
+        }
+        boolean reverse = pairing.isOtherReverse(anchor.bestReverse);
+        boolean right = pairing.isUpstream(anchorIsFirst, anchor.bestReverse);
+        int length = target.length;
+        target.useStrand(reverse);
+
+        long bestPosition = -1;
+        int bestContig = -1;
+        int bestAnchor = -1;
+        int bestInsert = -1;
+        int bestScore = Integer.MAX_VALUE;
+        for (int i = 0; i < anchor.hitCount; i++) {
+            int contig = anchor.hitContigs[i];
+            FMIndex index = shard(contigs.getShard(contig)).getIndex();
+            if(!index.hasReference()){
+                continue;
+            }
+            long contigStart = contigs.getStart(contig);
+            long last = contigs.getLength(contig) - length;
+            long position = anchor.hits[i];
+            long from = right ? position + pairing.getMinInsert() - length : position + anchor.length - pairing.getMaxInsert();
+            long to = right ? position + pairing.getMaxInsert() - length : position + anchor.length - pairing.getMinInsert();
+            for (long start = Math.max(0, from); start <= Math.min(last, to); start++) {
+                int insert = insertSize(position, anchor.length, start, length, right, pairing);
+                if(insert < 0 || contigs.isMasked(contig, start, length)){
                     continue;
                 }
-
-                //checkedTillNow.addAll(lastStatus.alreadyTried);
-                map.put(TOCHECK, toCheck);
-                map.put(LOWINDEX, lastStatus.lowIndex);
-                map.put(HIGHINDEX, lastStatus.highIndex);
-
-                return iter + 1;
-
-            } else {
-                lastStatus = alignedTillNow.get(position-1);
+                int score = score(target, index, contigStart + start, reverse, bestScore);
+                if(score >= 0){
+                    bestScore = score;
+                    bestPosition = start;
+                    bestContig = contig;
+                    bestAnchor = i;
+                    bestInsert = insert;
+                }
             }
+        }
 
-            try {
-                //Get a new Character to try for the next iteration.
-                toCheck = lastStatus.getPreviouslyUncheckedCharsAndUpdate();
-                int popIndex = iter - 1;
-
-                int returnValue = 0;
-                for (; popIndex >= position; popIndex--) {
-                    alignedTillNow.pop();
-                    returnValue++;
+        if(bestPosition >= 0){
+            anchor.makePrimary(bestAnchor);
+            FMIndex index = shard(contigs.getShard(bestContig)).getIndex();
+            long start = contigs.getStart(bestContig) + bestPosition;
+            target.hitCount = 0;
+            target.addHit(bestPosition, bestContig);
+            target.rowCount = 1;
+            target.bestMismatches = 0;
+            target.bestQualitySum = 0;
+            for (int j = 0; j < length; j++) {
+                int base = index.getReferenceBase(start + j);
+                if(base != target.read[j]){
+                    target.bestMismatches++;
+                    target.bestQualitySum += target.quality[j];
                 }
-
-                map.put(TOCHECK, toCheck);
-                map.put(LOWINDEX, lastStatus.lowIndex);
-                map.put(HIGHINDEX, lastStatus.highIndex);
-
-                finished = true;
-                return returnValue + 1;
-
-            } catch (NoChoiceAvailable noChoiceAvailable) {
-                //throw noChoiceAvailable;
-
-                //Setting the qualityRead at a given position which have no more choices available as high
-                //So the next time we check for minimum something else is returned.
-                backTrackStatus.qualityReads[length - 1 - position] = HIGH_QUALITY_READ_VALUE;
+                target.bestBase[j] = (byte) base;
             }
+            //The bases are kept in the order of the reference, as the mirror index keeps them.
+            target.bestMirrored = true;
+            target.bestReverse = reverse;
+            target.rescued = true;
+            target.exitReason = ExitReason.MATCH;
         }
+        target.useStrand(false);
+        return bestInsert;
+    }
 
-        lastStatus = alignedTillNow.peek();
-
-        try {
-            toCheck = lastStatus.getPreviouslyUncheckedCharsAndUpdate();
-            map.put(TOCHECK,toCheck);
-            map.put(LOWINDEX,lastStatus.lowIndex);
-            map.put(HIGHINDEX,lastStatus.highIndex);
-
-        } catch (NoChoiceAvailable noChoiceAvailable) {
-            backTrackStatus.qualityReads[length-iter] = HIGH_QUALITY_READ_VALUE;
+    /**
+     * @param bound The score to beat.
+     * @return Returns the mismatches of the mate at the start, or in the seeded mode the sum of their quality
+     * scores, when the mode allows them and they beat the bound, else -1.
+     */
+    private int score(SearchContext target, FMIndex index, long start, boolean reverse, int bound){
+        boolean seeded = mode.isSeeded();
+        int length = target.length;
+        int mismatches = 0;
+        int seedMismatches = 0;
+        int qualitySum = 0;
+        for (int j = 0; j < length; j++) {
+            if(index.getReferenceBase(start + j) == target.read[j]){
+                continue;
+            }
+            mismatches++;
+            qualitySum += target.quality[j];
+            if(seeded){
+                //On the reverse strand the read runs from the end.
+                if((reverse ? length - 1 - j : j) < mode.getSeedLength()){
+                    seedMismatches++;
+                }
+                if(seedMismatches > mode.getMaxMismatches() || qualitySum > mode.getMaxQualitySum() || qualitySum >= bound){
+                    return -1;
+                }
+            } else if(mismatches > mode.getMaxMismatches() || mismatches >= bound){
+                return -1;
+            }
         }
-
-        return 1;
-
+        return seeded ? qualitySum : mismatches;
     }
 
     /**
-     * Returns the position in the quality score array where the lowest quality read is present.
-     * @param position The position after which we need to find the lowest quality read.
-     * @param qualityReads The array of quality reads.
-     * @return Returns the position where the lowest quality score occurs.
+     * Copies the read into the context and checks it can be aligned.
+     * @return Returns false, with the exit reason set, when the read cannot be aligned.
      */
-    private int getSmallestReadPosition(int position, Integer[] qualityReads){
-        //Allowing to backtrack upto 128 positions only.
-        int length = qualityReads.length;
-        if(length - position == 1){
-            return position;
+    boolean prepare(SearchContext context, byte[] bases, byte[] qualities, int length){
+        context.setRead(bases, qualities, length);
+        if(shards.length > 1){
+            SearchContext[] shardContexts = context.shardContexts(shards.length);
+            for (int shard = 0; shard < shards.length; shard++) {
+                shardContexts[shard].setRead(bases, qualities, length);
+            }
         }
-        int offLength = Math.min(128,length - position - 1);
 
-        int minPosition = position;
-        int small = qualityReads[position];
-        position = position + 1;
-
-        for (int i = 0 ; i < offLength ; i++ ){
-            if(small > qualityReads[position]){
-                small = qualityReads[position];
-                minPosition = position;
-
-                if(small <= READ_QUALITY_CUTOFF){
-                    return minPosition;
-                }
+        if(length <= 1){
+            context.exitReason = ExitReason.INVALID_READ;
+            return false;
+        }
+        byte[] read = context.read;
+        for (int i = 0; i < length; i++) {
+            if(read[i] < 0){
+                context.exitReason = ExitReason.INVALID_READ;
+                return false;
             }
-            position ++;
         }
-
-        return minPosition;
+        if(readCache != null){
+            //A duplicate of a read aligned before gets its outcome, which finish then leaves as it is.
+            readCache.get(context);
+        }
+        return true;
     }
 
-
     /**
-     * @param index The index of the Last column from where we need to find the suffix.
-     * @return Returns the suffix positon for the corresponding Last column entry
+     * Aligns the read prepared in the context. The read of a sharded index is searched in every shard, in parallel
+     * when there is a pool for it, and the best alignment of the shards is kept, the first shard's among equally
+     * good ones, with the hits of every shard which aligned the read to the same bases. A read found in the read
+     * cache already has its outcome.
+     * @return 1 : Successful Exit, -1 : Something went wrong !!
      */
-    private int getSuffixPosition(int index){
-        Integer value = suffixArray.get(index);
-        if(value != null){
-            return value;
+    int finish(SearchContext context){
+        if(context.cacheHit){
+            return context.exitReason == ExitReason.MATCH ? 1 : -1;
         }
-
-        int iteration = 0;
-        for ( ; value == null ;iteration++ ) {
-
-            char lastColChar = lastCol[index];
-            int rank = getRank(lastColChar,index,false);
-
-            int checkOffset = offsetForLRow(lastColChar);
-
-            index = rank + checkOffset;
-
-            value = suffixArray.get(index);
+        int result = shards.length == 1 ? finish(context, 0) : finishShards(context);
+        if(readCache != null && isCacheable(context)){
+            readCache.put(context);
         }
+        return result;
+    }
 
-        value += iteration + 1;
+    /**
+     * @return Returns whether every duplicate of the read gets the outcome of its alignment. The end to end search
+     * never looks at the quality scores, so its outcome only depends on the bases of the read. The seeded one
+     * depends on them, but as the read's own base is tried first at every step it finds the read on the strand
+     * it searches first whatever they are, so only such an exact match is kept.
+     */
+    private boolean isCacheable(SearchContext context){
+        if(!mode.isSeeded()){
+            return true;
+        }
+        return context.exitReason == ExitReason.MATCH && !context.gapped && context.bestMismatches == 0
+                && !context.bestReverse;
+    }
 
-        return value;
+    /**
+     * Aligns the read in every shard and keeps the best alignment, see finish.
+     */
+    private int finishShards(SearchContext context){
+        SearchContext[] shardContexts = context.shardContexts(shards.length);
+        if(shardPool == null){
+            for (int shard = 0; shard < shards.length; shard++) {
+                finish(shardContexts[shard], shard);
+            }
+        } else {
+            //The calling thread searches the first shard itself while the pool searches the others.
+            ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[shards.length];
+            for (int shard = 1; shard < shards.length; shard++) {
+                int searched = shard;
+                tasks[shard] = shardPool.submit(() -> finish(shardContexts[searched], searched));
+            }
+            finish(shardContexts[0], 0);
+            for (int shard = 1; shard < shards.length; shard++) {
+                tasks[shard].join();
+            }
+        }
 
+        SearchContext best = null;
+        for (int shard = 0; shard < shards.length; shard++) {
+            SearchContext searched = shardContexts[shard];
+            context.addWork(searched);
+            if(searched.exitReason == ExitReason.MATCH && (best == null || isBetter(searched, best))){
+                best = searched;
+            }
+        }
+        if(best == null){
+            context.exitReason = context.stoppedEarly ? ExitReason.THRESHOLD : ExitReason.NO_CHOICE_AVAILABLE;
+            return -1;
+        }
+        context.keepAlignment(best);
+        for (int shard = 0; shard < shards.length; shard++) {
+            SearchContext searched = shardContexts[shard];
+            if(searched != best && searched.exitReason == ExitReason.MATCH && best.isSameAlignment(searched)){
+                context.addHits(searched, mode.getMaxHits());
+            }
+        }
+        return 1;
     }
 
     /**
-     * @param toUse The character for which we need to find the starting offset.
-     * @return Returns the starting offset for the character passed.
+     * @return Returns whether the alignment of the first context is better than the one of the second : without gaps
+     * rather than with, else with fewer mismatches, or in the seeded mode a lower sum of their quality scores, or
+     * with gaps a higher score.
      */
-    private int offsetForLRow(char toUse){
-        switch (toUse) {
-            case 'A':
-                return 0;
-            case 'C':
-                return numberOfAs ;
-            case 'G':
-                return (numberOfAs+numberOfCs);
-            case 'T':
-                return (numberOfAs+numberOfCs+numberOfGs);
+    private boolean isBetter(SearchContext context, SearchContext other){
+        if(context.gapped != other.gapped){
+            return !context.gapped;
         }
-        return -1;
+        if(context.gapped){
+            return context.bestScore > other.bestScore;
+        }
+        return mode.isSeeded() ? context.bestQualitySum < other.bestQualitySum
+                : context.bestMismatches < other.bestMismatches;
     }
 
-    /**Using the Tally of the FM Index, this returns the number of times the passed character is seen till the
-     * index which is also passed. Basically the rank of the character at that particular tally index.
-     * @param toCheck The character whose rank we need to know
-     * @param index The index of the Last row where we want to know the rank of the character passed
-     * @param isLow Boolean to suggest we are trying to find the rank for the lower bound of the range
-     * @return Returns the rank of the character which is passed at the given index.
+    /**
+     * Aligns the read prepared in the context in the index of a shard, and places its hits in their contigs.
      */
-    private int getRank(char toCheck, int index, boolean isLow){
+    private int finish(SearchContext context, int shardNumber){
+        Shard shard = shard(shardNumber);
+        boolean found = false;
+        if(mode.isSeeded()){
+            found = searchSeeded(context, shard, false, mode.getMaxQualitySum());
+            if(mode.isBothStrands() && (!found || (mode.isBest() && context.bestQualitySum > 0)) && !context.stoppedEarly){
+                //The reverse strand only has to beat the forward one.
+                found |= searchSeeded(context, shard, true, found ? context.bestQualitySum - 1 : mode.getMaxQualitySum());
+            }
+        } else {
+            //Go through the strata, so an alignment with fewer mismatches is always the one reported. Both
+            //strands are searched in a stratum before the next one, so a strand is never searched past the
+            //stratum the other one aligned in.
+            for (int mismatches = 0; mismatches <= mode.getMaxMismatches() && !found && !context.stoppedEarly; mismatches++) {
+                found = searchStratum(context, shard, false, mismatches)
+                        || (mode.isBothStrands() && !context.stoppedEarly && searchStratum(context, shard, true, mismatches));
+            }
+        }
+        context.useStrand(false);
 
-        int position = 0;
-        if(isLow){
-            index = index -1;
+        if(!found && shard.getExtender() != null && shard.getExtender().align(context, mode.isBothStrands())){
+            context.exitReason = ExitReason.MATCH;
+            return placeHits(context, shardNumber);
+        }
+        if(!found){
+            context.exitReason = context.stoppedEarly ? ExitReason.THRESHOLD : ExitReason.NO_CHOICE_AVAILABLE;
+            return -1;
         }
-        position = (index)/FMIndex.FMDISTANCE;
-        int stepsToWalk = index%FMIndex.FMDISTANCE;
 
-        boolean isNextCheckPoint = false;
+        //Find the suffixs for the positions matched which get reported.
+        context.rowCount = context.bestHigh - context.bestLow + 1;
+        if(!mode.isCountOnly()){
+            locate(context, shard, (int) Math.min(mode.getMaxHits(), context.rowCount));
+        }
+        context.exitReason = ExitReason.MATCH;
+        return placeHits(context, shardNumber);
+    }
 
-        if(index%FMIndex.FMDISTANCE > FMIndex.FMDISTANCE/2){
-            if(! (index > tallyLength * FMIndex.FMDISTANCE)) {
-                position = position + 1;
-                stepsToWalk = FMIndex.FMDISTANCE - stepsToWalk;
-                isNextCheckPoint = true;
+    /**
+     * Turns the text positions of the hits in the index of the shard into their contigs and their offsets in them.
+     * The contigs of a shard follow each other in its text, so a hit running from one contig into the next is
+     * not in the reference and is dropped, with its row, as is a hit on a masked run, whose bases are made up.
+     * @return 1 when the read still has rows, else -1 with the exit reason set.
+     */
+    private int placeHits(SearchContext context, int shard){
+        long span = context.referenceSpan();
+        int placed = 0;
+        for (int i = 0; i < context.hitCount; i++) {
+            long position = context.hits[i];
+            int contig = contigs.find(shard, position);
+            long offset = position - contigs.getStart(contig);
+            if(offset + span > contigs.getLength(contig) || contigs.isMasked(contig, offset, span)){
+                context.rowCount--;
+                continue;
             }
+            context.hits[placed] = offset;
+            context.hitContigs[placed++] = contig;
+        }
+        context.hitCount = placed;
+        if(context.rowCount == 0){
+            context.exitReason = ExitReason.NO_CHOICE_AVAILABLE;
+            return -1;
         }
+        return 1;
+    }
 
+    /**
+     * @return Returns the shard, loaded on its first use.
+     */
+    private Shard shard(int shard){
+        return shards[shard].loaded();
+    }
 
-        int checkPointCount = tally[FMIndex.getReleventRowNumber(toCheck)][position];
+    /**
+     * Does the steps of the exact paths of several prepared reads in lockstep, one step of every read in turn,
+     * and keeps their ranges in the contexts, where the search of every read then finds them.
+     * A step is two dependent random reads of the index, but the steps of different reads do not depend on each
+     * other, so while one read waits for memory the reads of the next ones are already issued.
+     * @param lanes The contexts of the reads, the ones whose read cannot be aligned or was found in the read cache
+     *              are skipped.
+     * @param count The number of contexts used, at most 64.
+     */
+    void extendExactPaths(SearchContext[] lanes, int count){
+        if(shards.length > 1){
+            //The reads are searched with the contexts of the shards, which keep their exact paths themselves.
+            return;
+        }
+        FMIndex index = shard(0).getIndex();
+        if(mode.isSeeded() && shard(0).getMirror() != null){
+            //The seeded search uses the mirror index on the forward strand, which the exact paths are not kept for.
+            return;
+        }
 
-        int seen;
-        if(isNextCheckPoint) {
-            for (seen=0; stepsToWalk > 0; stepsToWalk--){
-                if(toCheck == lastCol[index + stepsToWalk]){
-                    seen++;
-                }
+        long active = 0;
+        for (int lane = 0; lane < count; lane++) {
+            SearchContext context = lanes[lane];
+            if(context.exitReason == ExitReason.INVALID_READ || context.cacheHit){
+                continue;
             }
-            return checkPointCount - seen;
-        } else {
-            for (seen=0; stepsToWalk > 0; stepsToWalk--){
-                if(toCheck == lastCol[index - stepsToWalk + 1]){
-                    seen++;
+            int kmerLength = index.getKmerLength() <= context.length ? index.getKmerLength() : 0;
+            if(context.exactIndex != index || context.exactFrom != kmerLength || context.exactDepth < kmerLength){
+                context.exactIndex = index;
+                context.exactFrom = kmerLength;
+                context.exactDepth = kmerLength;
+            }
+            if(context.exactDepth == context.length){
+                continue;
+            }
+            if(context.exactDepth == 0){
+                //Before the first step every row is in the range.
+                context.low[0] = 0;
+                context.high[0] = index.getLength();
+            } else if(context.exactDepth == kmerLength){
+                int code = 0;
+                for (int step = 0; step < kmerLength; step++) {
+                    code = (code << 2) | context.read[context.length - 1 - step];
                 }
+                context.low[0] = index.getKmerFirstRow(code);
+                context.high[0] = index.getKmerLastRow(code);
+            } else {
+                context.low[0] = context.exactLow[context.exactDepth - 1];
+                context.high[0] = context.exactHigh[context.exactDepth - 1];
+            }
+            if(context.low[0] <= context.high[0]){
+                active |= 1L << lane;
             }
-            return checkPointCount + seen;
         }
 
+        //low[0] and high[0] of every context hold the range its next step narrows.
+        while (active != 0) {
+            for (long lanesLeft = active; lanesLeft != 0; lanesLeft &= lanesLeft - 1) {
+                int lane = Long.numberOfTrailingZeros(lanesLeft);
+                SearchContext context = lanes[lane];
+                int step = context.exactDepth;
+                int base = context.read[context.length - 1 - step];
+                long offset = index.getOffset(base);
+                long low = offset + index.getRank(base, context.low[0] - 1) + 1;
+                long high = offset + index.getRank(base, context.high[0]);
+                context.rankCalls += 2;
+                context.exactLow[step] = low;
+                context.exactHigh[step] = high;
+                context.exactDepth++;
+                context.low[0] = low;
+                context.high[0] = high;
+                if(low > high || context.exactDepth == context.length){
+                    active &= ~(1L << lane);
+                }
+            }
+        }
     }
 
     /**
-     * This class is used as a Status store in the stack which maintains the alignment progress.
+     * Appends what the last alignment done with the context found, in the format it used to be printed. The hits
+     * of a reference of several contigs are printed as the contig and the offset in it.
      */
-    private class Status{
-        private int lowIndex = 0;
-        private int highIndex = 0;
+    public static void appendResult(SearchContext context, ContigTable contigs, StringBuilder output) {
+        switch (context.exitReason) {
+            case MATCH:
+                if(context.gapped){
+                    //The reference bases are not kept for an alignment with gaps, the CIGAR says how it aligned.
+                    output.append("Aligned with gaps : ").append(context.getCigar()).append('\n');
+                    output.append("Score : ").append(context.bestScore).append('\n');
+                } else {
+                    output.append("Aligned Against : ");
+                    if(context.bestMirrored){
+                        for (int step = 0; step < context.length; step++) {
+                            output.append(BASES[context.bestBase[step]]);
+                        }
+                    } else {
+                        for (int step = context.length - 1; step >= 0; step--) {
+                            output.append(BASES[context.bestBase[step]]);
+                        }
+                    }
+                    output.append('\n');
+                }
+                output.append("Strand : ").append(context.bestReverse ? '-' : '+').append('\n');
+                if(context.rescued){
+                    output.append("Rescued next to the other mate").append('\n');
+                }
+                if(context.hitCount < context.rowCount){
+                    output.append("Matches : ").append(context.rowCount).append('\n');
+                }
+                if(context.hitCount > 0){
+                    output.append("Suffixs are : ").append('\n');
+                    for (int i = 0; i < context.hitCount; i++) {
+                        if(contigs.size() > 1){
+                            output.append(contigs.getName(context.hitContigs[i])).append(':');
+                        }
+                        output.append(context.hits[i]).append('\t');
+                    }
+                    output.append('\n');
+                }
+                output.append('\n');
+                break;
+            case NO_CHOICE_AVAILABLE:
+                output.append("No match found with the mismatches allowed.\n\n");
+                break;
+            case THRESHOLD:
+                output.append("No match Found even after ").append(context.steps).append(" steps.\n\n");
+                break;
+            case INVALID_READ:
+                output.append("Length is one or less or the read is not made of A, C, G and T, so cannot perform\n");
+                break;
+        }
+    }
 
-        private List<Character> alreadyTried = null;
-        private char toUse;
+    private boolean searchSeeded(SearchContext context, Shard shard, boolean reverse, int ceiling){
+        context.useStrand(reverse);
+        //The seed is at the start of the read, which the mirror index consumes first, so the seed
+        //constraint prunes the search right away instead of at its very end. On the reverse strand the start of
+        //the read is the end of its reverse complement, which the index itself consumes first.
+        return search(context, shard, shard.getMirror() != null && !reverse, mode.getMaxMismatches(), ceiling, 0);
+    }
 
-        public Status(int lowIndex, int highIndex, char toUse, List<Character> alreadyTried) {
-            this.lowIndex = lowIndex;
-            this.highIndex = highIndex;
-            if(alreadyTried != null) {
-                this.alreadyTried = new ArrayList<>(alreadyTried);
-            }
-            this.toUse = toUse;
+    private boolean searchStratum(SearchContext context, Shard shard, boolean reverse, int mismatches){
+        context.useStrand(reverse);
+        int length = context.length;
+        if(mismatches == 1 && shard.getMirror() != null){
+            //Double indexing : a mismatch in the left half is found with the right half matched exactly
+            //first, a mismatch in the right half with the mirror index and the left half matched exactly
+            //first. Neither phase has to backtrack over the half it matched exactly.
+            return search(context, shard, false, 1, Integer.MAX_VALUE, length - length / 2)
+                    || (!context.stoppedEarly && search(context, shard, true, 1, Integer.MAX_VALUE, length / 2));
         }
+        return search(context, shard, false, mismatches, Integer.MAX_VALUE, 0);
+    }
 
+    /**
+     * Locates rows of the best alignment, first the rows whose position is sampled, which need no LF walk,
+     * then the other rows from the cache or walking from them, until enough positions are found.
+     * @param count The number of positions to locate.
+     */
+    private void locate(SearchContext context, Shard shard, int count) {
+        FMIndex located = context.bestMirrored ? shard.getMirror() : shard.getIndex();
+        LocateCache rows = context.bestMirrored ? shard.getMirrorCache() : shard.getCache();
+        for (long row = context.bestLow; row <= context.bestHigh && context.hitCount < count; row++) {
+            long position = located.getSampledSuffixPosition(row);
+            if(position >= 0){
+                addHit(context, located, position);
+            }
+        }
+        for (long row = context.bestLow; row <= context.bestHigh && context.hitCount < count; row++) {
+            if(located.getSampledSuffixPosition(row) >= 0){
+                continue;
+            }
+            long position = rows == null ? -1 : rows.get(row);
+            if(position < 0){
+                long walked = located.locate(row);
+                position = FMIndex.locatedPosition(walked);
+                context.lfSteps += FMIndex.locatedSteps(walked);
+                if(rows != null){
+                    rows.put(row, position);
+                }
+            }
+            addHit(context, located, position);
+        }
+    }
 
-        public List<Character> getAlreadyTired(){
-            return alreadyTried;
+    private static void addHit(SearchContext context, FMIndex located, long position) {
+        if(context.bestMirrored){
+            //A read matched at position p of the reversed reference starts at n - p - length of the reference.
+            position = located.getLength() - context.length - position;
         }
+        context.addHit(position);
+    }
+
+    /**
+     * Depth first search over the bases of every step, trying the base of the read before the others, which are
+     * tried in the order A, C, G, T. So for a read and a mode the same alignment is always found.
+     * A branch is left as soon as it has too many mismatches, in the seed for the seeded mode, or its mismatches
+     * sum up to a quality above the ceiling. In the seeded mode every alignment found lowers the ceiling below its
+     * own sum, so the search ends with the alignment of the lowest sum.
+     * @param mirrored Whether the read is searched from its start in the mirror index instead of from its end.
+     * @param maxMismatches The mismatches allowed, in the seed for the seeded mode.
+     * @param ceiling The highest sum of quality scores at the mismatches allowed.
+     * @param exactSteps The number of steps, from the end of the read searched first, which must match exactly.
+     * @return Returns whether an alignment was found, which the context then holds as the best one.
+     */
+    private boolean search(SearchContext context, Shard shard, boolean mirrored, int maxMismatches, int ceiling,
+                           int exactSteps) {
+        FMIndex searched = mirrored ? shard.getMirror() : shard.getIndex();
+        int kmerLength = searched.getKmerLength() <= context.length ? searched.getKmerLength() : 0;
+        boolean seeded = mode.isSeeded();
+        int seedLength = mode.getSeedLength();
+        int maxSteps = mode.getMaxSteps();
+        int last = context.length - 1;
+        boolean found = false;
+
+        int step = 0;
+        context.tried[0] = 0;
+        while (step >= 0) {
+            int readIndex = mirrored ? step : last - step;
+            int base = nextBase(context.tried[step], context.read[readIndex]);
+            if(base < 0){
+                //Every base has been tried at this step, so go back one.
+                if(step > context.backtrackDepth){
+                    context.backtrackDepth = step;
+                }
+                step--;
+                context.backtracks++;
+                continue;
+            }
+            context.tried[step] |= (byte) (1 << base);
 
-        public char getPreviouslyUncheckedCharsAndUpdate() throws NoChoiceAvailable{
+            int mismatches = step == 0 ? 0 : context.mismatches[step - 1];
+            int seedMismatches = step == 0 ? 0 : context.seedMismatches[step - 1];
+            int qualitySum = step == 0 ? 0 : context.qualitySum[step - 1];
+            if(base != context.read[readIndex]){
+                if(step < exactSteps){
+                    continue;
+                }
+                mismatches++;
+                qualitySum += context.quality[readIndex];
+                //On the reverse strand the read runs from the end.
+                if((context.reverseStrand ? last - readIndex : readIndex) < seedLength){
+                    seedMismatches++;
+                }
+                if((seeded ? seedMismatches : mismatches) > maxMismatches || qualitySum > ceiling){
+                    continue;
+                }
+            }
 
-            if(alreadyTried.size() >= 4){
-                throw new NoChoiceAvailable();
+            if(context.steps++ >= maxSteps){
+                context.stoppedEarly = true;
+                return found;
             }
-            char[] dnaAlphabet = {'A','C','G','T'};
-            int rand = new Random().nextInt(4);
-            for(int i = 0; i < 4; i++){
-                if(alreadyTried.contains(dnaAlphabet[rand])){
-                    rand = (rand + 1) % 4 ;
+            context.base[step] = (byte) base;
+            if(step < kmerLength){
+                //The k-mer table stands in for the first k steps, which then need no rank at all.
+                int code = (step == 0 ? 0 : context.kmer[step - 1]) | base << (2 * (kmerLength - 1 - step));
+                context.kmer[step] = code;
+                if(step == kmerLength - 1 && !lookUp(searched, context, step, code)){
                     continue;
                 }
-                else {
-                    break;
+            } else if(!extendShared(searched, context, step, kmerLength, !mirrored && mismatches == 0)){
+                continue;
+            }
+            context.mismatches[step] = mismatches;
+            context.seedMismatches[step] = seedMismatches;
+            context.qualitySum[step] = qualitySum;
+
+            if(step == last){
+                //We have reached the start of the read. And Yay!! We have a match.
+                context.keepBest(mirrored);
+                found = true;
+                if(!seeded || !mode.isBest() || qualitySum == 0){
+                    return true;
                 }
+                ceiling = qualitySum - 1;
+                continue;
             }
-            alreadyTried.add(dnaAlphabet[rand]);
-            return dnaAlphabet[rand];
+            step++;
+            context.tried[step] = 0;
         }
+        return found;
     }
 
-    private class BackTrackStatus{
+    /**
+     * @return Returns the base of the read if it was not tried yet, else the first base not tried, else -1.
+     */
+    private static int nextBase(int tried, int readBase) {
+        if((tried & (1 << readBase)) == 0){
+            return readBase;
+        }
+        for (int base = 0; base < 4; base++) {
+            if((tried & (1 << base)) == 0){
+                return base;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the range of the step to the rows of the k-mer ending at the step.
+     * @return Returns whether the range of the step is not empty.
+     */
+    private static boolean lookUp(FMIndex index, SearchContext context, int step, int code) {
+        context.low[step] = index.getKmerFirstRow(code);
+        context.high[step] = index.getKmerLastRow(code);
+        return context.low[step] <= context.high[step];
+    }
 
-        private Integer[] qualityReads;
-        private int backtrackIter = 0;
+    /**
+     * Like extend, but a step of the exact path reuses the range the reads before found at that step, when they
+     * share the suffix of the read up to it, and keeps the range for the reads after otherwise.
+     * @param exact Whether the path up to and including the step is the read itself.
+     */
+    private static boolean extendShared(FMIndex index, SearchContext context, int step, int kmerLength, boolean exact) {
+        if(!exact){
+            return extend(index, context, step);
+        }
+        if(context.exactIndex == index && context.exactFrom == kmerLength && step < context.exactDepth){
+            context.low[step] = context.exactLow[step];
+            context.high[step] = context.exactHigh[step];
+            return context.low[step] <= context.high[step];
+        }
 
+        boolean matched = extend(index, context, step);
+        if(step == kmerLength){
+            //The exact path starts here, after the steps the k-mer table covers.
+            context.exactIndex = index;
+            context.exactFrom = kmerLength;
+            context.exactDepth = step;
+        }
+        if(context.exactIndex == index && context.exactFrom == kmerLength && context.exactDepth == step){
+            context.exactLow[step] = context.low[step];
+            context.exactHigh[step] = context.high[step];
+            context.exactDepth++;
+        }
+        return matched;
     }
 
+    /**
+     * Narrows the range of the previous step with the base of the step.
+     * @return Returns whether the range of the step is not empty.
+     */
+    private static boolean extend(FMIndex index, SearchContext context, int step) {
+        int base = context.base[step];
+        if(step == 0){
+            //For the first step, the rows starting with the base form the initial range.
+            context.low[0] = index.getFirstRow(base);
+            context.high[0] = index.getLastRow(base);
+            return context.low[0] <= context.high[0];
+        }
+
+        long offset = index.getOffset(base);
+        context.rankCalls += 2;
+        //This will denote the lowest rank of the next character that the query can align to.
+        long rankLow = index.getRank(base, context.low[step - 1] - 1);
+        //This denotes the highest rank of the next character that the query can align to.
+        long rankHigh = index.getRank(base, context.high[step - 1]);
 
+        context.low[step] = offset + rankLow + 1;
+        context.high[step] = offset + rankHigh;
+        return rankLow < rankHigh;
+    }
 }
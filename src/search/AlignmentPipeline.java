@@ -0,0 +1,451 @@
+package search;
+
+import io.AsyncOutput;
+import io.FastqRecord;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Aligns reads on a pool of worker threads sharing one Aligner.
+ * Reads are grouped into batches, every batch is aligned by one worker, and the output of the batches is
+ * written in the order the reads were submitted. The number of batches in flight is bounded so a fast reader
+ * cannot queue up the whole input, and the batches with their records are reused once written, so the pipeline
+ * runs in constant memory however many reads go through it.
+ *
+ * Within a batch the reads are aligned in the order of their reversed sequence, so reads sharing a suffix follow
+ * each other and the backward search steps over the shared suffix are done once, see SearchContext. The output
+ * is still written in input order.
+ *
+ * A worker aligns several reads at once, one per lane, doing the steps of their exact paths in lockstep so their
+ * memory reads overlap, see Aligner.extendExactPaths. Every lane goes through its own run of consecutive reads of
+ * the batch, so the reads of a lane still share their suffixes.
+ *
+ * A paired pipeline takes the two mates of every pair and aligns them together, see Aligner.alignPair.
+ *
+ * The workers format the output of their batch, as text or SAM, and encode it into bytes, which are handed to an
+ * AsyncOutput whose own thread writes them. Nobody waits for the output but the submitting thread, and only when
+ * all the batches are queued for writing, so a slow disk or terminal slows down the input instead of the workers.
+ */
+public class AlignmentPipeline implements AutoCloseable {
+
+    private final Aligner aligner;
+    private final ExecutorService workers;
+    //Whether the workers were started by the pipeline, which then stops them, or are shared.
+    private final boolean ownsWorkers;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+    //The batches the pipeline has at most, the ones in flight, queued for writing or being filled.
+    private final int maxBatches;
+    private final AsyncOutput out;
+    //Whether the output was opened by the pipeline, which then closes it.
+    private final boolean ownsOut;
+    private final OutputFormat format;
+    private final boolean sortBatches;
+    //Null when the reads are not paired.
+    private final PairedEndMode pairing;
+
+    //The number of reads a worker aligns at once.
+    private static final int LANES = 4;
+
+    private final ThreadLocal<SearchContext> mates = ThreadLocal.withInitial(SearchContext::new);
+    private final ThreadLocal<SearchContext[]> lanes = ThreadLocal.withInitial(() -> {
+        SearchContext[] contexts = new SearchContext[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            contexts[lane] = new SearchContext();
+        }
+        return contexts;
+    });
+    private final ArrayDeque<Future<Batch>> inFlight = new ArrayDeque<>();
+    //Batches written out, handed back by the writer thread.
+    private final LinkedBlockingQueue<Batch> free = new LinkedBlockingQueue<>();
+    private int batchCount = 0;
+    private Batch current;
+
+    /**
+     * @param aligner The aligner shared by all the workers.
+     * @param workerCount The number of worker threads.
+     * @param batchSize The number of reads aligned together by one worker.
+     * @param out Where the output of every read is written, in input order.
+     */
+    public AlignmentPipeline(Aligner aligner, int workerCount, int batchSize, PrintStream out) {
+        this(aligner, workerCount, batchSize, out, true);
+    }
+
+    /**
+     * @param sortBatches Whether the reads of a batch are aligned in the order of their reversed sequence.
+     */
+    public AlignmentPipeline(Aligner aligner, int workerCount, int batchSize, PrintStream out, boolean sortBatches) {
+        this(aligner, workerCount, batchSize, new AsyncOutput(out, false, false), true, OutputFormat.TEXT, sortBatches,
+                null);
+    }
+
+    /**
+     * A pipeline of pairs of reads, which are submitted with both their mates.
+     * @param pairing How the mates of a pair align to each other.
+     */
+    public AlignmentPipeline(Aligner aligner, int workerCount, int batchSize, PrintStream out, PairedEndMode pairing) {
+        this(aligner, workerCount, batchSize, new AsyncOutput(out, false, false), true, OutputFormat.TEXT, false,
+                pairing);
+    }
+
+    /**
+     * A pipeline writing in the format given to an output which the caller closes, after the pipeline.
+     * A SAM header is written right away.
+     * @param pairing How the mates of a pair align to each other, null when the reads are not paired.
+     */
+    public AlignmentPipeline(Aligner aligner, int workerCount, int batchSize, AsyncOutput out, OutputFormat format,
+                             boolean sortBatches, PairedEndMode pairing) throws IOException {
+        this(aligner, newWorkers(workerCount), true, workerCount, batchSize, out, false, format,
+                sortBatches && pairing == null, pairing);
+        writeHeader();
+    }
+
+    /**
+     * A pipeline like the one above running its batches on workers it shares with other pipelines, which the caller
+     * shuts down. Each of the pipelines bounds its own batches in flight, so a pipeline whose output is not taken
+     * blocks its own submitter without filling the shared queue.
+     * @param workers The shared pool.
+     * @param workerCount The number of threads of the pool.
+     */
+    public AlignmentPipeline(Aligner aligner, ExecutorService workers, int workerCount, int batchSize,
+                             AsyncOutput out, OutputFormat format, boolean sortBatches, PairedEndMode pairing)
+            throws IOException {
+        this(aligner, workers, false, workerCount, batchSize, out, false, format, sortBatches && pairing == null,
+                pairing);
+        writeHeader();
+    }
+
+    private AlignmentPipeline(Aligner aligner, int workerCount, int batchSize, AsyncOutput out, boolean ownsOut,
+                              OutputFormat format, boolean sortBatches, PairedEndMode pairing) {
+        this(aligner, newWorkers(workerCount), true, workerCount, batchSize, out, ownsOut, format, sortBatches,
+                pairing);
+    }
+
+    private AlignmentPipeline(Aligner aligner, ExecutorService workers, boolean ownsWorkers, int workerCount,
+                              int batchSize, AsyncOutput out, boolean ownsOut, OutputFormat format,
+                              boolean sortBatches, PairedEndMode pairing) {
+        if (workerCount < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Need at least one worker and one read per batch");
+        }
+        this.aligner = aligner;
+        this.workers = workers;
+        this.ownsWorkers = ownsWorkers;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = 2 * workerCount;
+        this.maxBatches = 2 * maxBatchesInFlight + 1;
+        this.out = out;
+        this.ownsOut = ownsOut;
+        this.format = format;
+        this.sortBatches = sortBatches;
+        this.pairing = pairing;
+        this.current = newBatch();
+        this.batchCount = 1;
+    }
+
+    /**
+     * Queues a copy of the read for alignment, blocking while too many batches are in flight.
+     * @param record The read, which can be reused as soon as this returns.
+     */
+    public void submit(FastqRecord record) throws InterruptedException, IOException {
+        if (pairing != null) {
+            throw new IllegalStateException("A paired pipeline needs both mates of a read");
+        }
+        current.records[current.count++].copyFrom(record);
+        if (current.count == batchSize) {
+            dispatch();
+        }
+    }
+
+    /**
+     * Queues a copy of the pair for alignment, blocking while too many batches are in flight.
+     * @param first The first mate, which can be reused as soon as this returns.
+     * @param second The second mate, which can be reused as soon as this returns.
+     */
+    public void submit(FastqRecord first, FastqRecord second) throws InterruptedException, IOException {
+        if (pairing == null) {
+            throw new IllegalStateException("The pipeline is not paired");
+        }
+        current.mates[current.count].copyFrom(second);
+        current.records[current.count++].copyFrom(first);
+        if (current.count == batchSize) {
+            dispatch();
+        }
+    }
+
+    private static ExecutorService newWorkers(int workerCount) {
+        //Its threads start with the first batch, so a pool the constructor then rejects holds no thread.
+        return Executors.newFixedThreadPool(Math.max(workerCount, 1));
+    }
+
+    /**
+     * Writes the SAM header, ahead of any read.
+     */
+    private void writeHeader() throws IOException {
+        if (format == OutputFormat.SAM) {
+            StringBuilder header = new StringBuilder();
+            SamFormat.appendHeader(header, aligner.getContigs());
+            byte[] bytes = header.toString().getBytes(StandardCharsets.US_ASCII);
+            out.write(bytes, bytes.length, null);
+        }
+    }
+
+    private Batch newBatch() {
+        return new Batch(batchSize, pairing != null);
+    }
+
+    /**
+     * @return Returns a batch written out, or a new one, waiting for the output when there are already enough.
+     */
+    private Batch nextBatch() throws InterruptedException {
+        Batch batch = free.poll();
+        if (batch != null) {
+            return batch;
+        }
+        if (batchCount < maxBatches) {
+            batchCount++;
+            return newBatch();
+        }
+        return free.take();
+    }
+
+    private void dispatch() throws InterruptedException, IOException {
+        Batch batch = current;
+        current = nextBatch();
+        inFlight.add(workers.submit(() -> alignBatch(batch)));
+
+        //Write out the finished batches at the head, waiting for the head when too many are in flight.
+        while (!inFlight.isEmpty() && (inFlight.size() > maxBatchesInFlight || inFlight.peek().isDone())) {
+            write(inFlight.poll());
+        }
+    }
+
+    private Batch alignBatch(Batch batch) {
+        SearchContext[] contexts = lanes.get();
+        if (pairing != null) {
+            alignPairs(batch, contexts[0], mates.get());
+            return batch;
+        }
+        if (sortBatches) {
+            batch.sort();
+        } else {
+            for (int i = 0; i < batch.count; i++) {
+                batch.order[i] = i;
+            }
+        }
+
+        //Lane l aligns the reads run * l up to run * (l + 1) of the order, one of them in every round.
+        SearchMetrics metrics = aligner.getMetrics();
+        int run = (batch.count + LANES - 1) / LANES;
+        for (int round = 0; round < run; round++) {
+            long roundStart = System.nanoTime();
+            int count = 0;
+            for (int lane = 0; lane < LANES && round + lane * run < batch.count; lane++) {
+                FastqRecord record = batch.records[batch.order[round + lane * run]];
+                aligner.prepare(contexts[lane], record.getBases(), record.getQualities(), record.getLength());
+                count++;
+            }
+            aligner.extendExactPaths(contexts, count);
+            //The lanes share the time of the steps done in lockstep.
+            long shared = (System.nanoTime() - roundStart) / count;
+            for (int lane = 0; lane < count; lane++) {
+                int read = batch.order[round + lane * run];
+                SearchContext context = contexts[lane];
+                long a = System.nanoTime();
+                if (context.exitReason != ExitReason.INVALID_READ) {
+                    aligner.finish(context);
+                }
+                long nanos = System.nanoTime() - a;
+                if (metrics != null) {
+                    metrics.record(context, nanos + shared);
+                }
+                batch.start[read] = batch.scratch.length();
+                if (format == OutputFormat.SAM) {
+                    SamFormat.appendRead(batch.scratch, batch.records[read], context, aligner.getContigs());
+                } else {
+                    Aligner.appendResult(context, aligner.getContigs(), batch.scratch);
+                    batch.scratch.append("Time taken in milliseconds : ").append(nanos / 1000000).append('\n');
+                }
+                batch.end[read] = batch.scratch.length();
+            }
+        }
+
+        for (int read = 0; read < batch.count; read++) {
+            batch.output.append(batch.scratch, batch.start[read], batch.end[read]);
+        }
+        batch.scratch.setLength(0);
+        batch.encode();
+        return batch;
+    }
+
+    private void alignPairs(Batch batch, SearchContext first, SearchContext second) {
+        for (int i = 0; i < batch.count; i++) {
+            FastqRecord mate1 = batch.records[i];
+            FastqRecord mate2 = batch.mates[i];
+            long a = System.nanoTime();
+            int insert = aligner.alignPair(first, second, mate1.getBases(), mate1.getQualities(), mate1.getLength(),
+                    mate2.getBases(), mate2.getQualities(), mate2.getLength(), pairing);
+            long nanos = System.nanoTime() - a;
+            if (aligner.getMetrics() != null) {
+                //The mates are aligned together, each is counted half the time of the pair.
+                aligner.getMetrics().record(first, nanos / 2);
+                aligner.getMetrics().record(second, nanos / 2);
+            }
+            if (format == OutputFormat.SAM) {
+                SamFormat.appendMate(batch.output, mate1, first, true, second, insert, aligner.getContigs());
+                SamFormat.appendMate(batch.output, mate2, second, false, first, insert, aligner.getContigs());
+                continue;
+            }
+            batch.output.append("Mate 1").append('\n');
+            Aligner.appendResult(first, aligner.getContigs(), batch.output);
+            batch.output.append("Mate 2").append('\n');
+            Aligner.appendResult(second, aligner.getContigs(), batch.output);
+            if (insert >= 0) {
+                batch.output.append("Concordant pair, insert size : ").append(insert).append('\n');
+            } else {
+                batch.output.append("Not a concordant pair").append('\n');
+            }
+            batch.output.append("Time taken in milliseconds : ").append(nanos / 1000000).append('\n');
+        }
+        batch.encode();
+    }
+
+    private void write(Future<Batch> future) throws InterruptedException, IOException {
+        try {
+            Batch batch = future.get();
+            //The writer thread hands the batch back once its bytes are out.
+            out.write(batch.bytes, batch.byteCount, () -> {
+                batch.count = 0;
+                batch.output.setLength(0);
+                free.add(batch);
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Alignment of a batch failed", e.getCause());
+        }
+    }
+
+    /**
+     * Aligns what is left of the reads, queues all the output and stops the workers, unless they are shared. An
+     * output the pipeline opened is closed once everything is written. Being interrupted while waiting for the
+     * alignments is an IOException, with the interrupt flag kept.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (current.count > 0) {
+                dispatch();
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.poll());
+            }
+            if (ownsOut) {
+                out.close();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aligning the last reads", e);
+        } finally {
+            if (ownsWorkers) {
+                workers.shutdownNow();
+            }
+        }
+    }
+
+    private static class Batch {
+        private final FastqRecord[] records;
+        //The second mates of the records, null when the reads are not paired.
+        private final FastqRecord[] mates;
+        private int count = 0;
+        private final StringBuilder output = new StringBuilder();
+        //The output encoded, which is what gets written.
+        private byte[] bytes = new byte[0];
+        private int byteCount = 0;
+
+        //The reads in the order they are aligned, and where the output of every read is in scratch.
+        private final int[] order;
+        private final int[] merged;
+        private final int[] start;
+        private final int[] end;
+        private final StringBuilder scratch = new StringBuilder();
+
+        Batch(int batchSize, boolean paired) {
+            records = new FastqRecord[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                records[i] = new FastqRecord();
+            }
+            mates = paired ? new FastqRecord[batchSize] : null;
+            for (int i = 0; paired && i < batchSize; i++) {
+                mates[i] = new FastqRecord();
+            }
+            order = new int[batchSize];
+            merged = new int[batchSize];
+            start = new int[batchSize];
+            end = new int[batchSize];
+        }
+
+        /**
+         * Encodes the output into bytes. Everything written is ASCII, so a char is a byte.
+         */
+        void encode() {
+            byteCount = output.length();
+            if (bytes.length < byteCount) {
+                bytes = new byte[Math.max(byteCount, 2 * bytes.length)];
+            }
+            for (int i = 0; i < byteCount; i++) {
+                bytes[i] = (byte) output.charAt(i);
+            }
+        }
+
+        /**
+         * Orders the reads by their reversed sequence, with a bottom up merge sort which needs no allocation.
+         */
+        void sort() {
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            int[] from = order;
+            int[] to = merged;
+            for (int width = 1; width < count; width *= 2) {
+                for (int low = 0; low < count; low += 2 * width) {
+                    int middle = Math.min(low + width, count);
+                    int high = Math.min(low + 2 * width, count);
+                    int left = low;
+                    int right = middle;
+                    for (int i = low; i < high; i++) {
+                        if (left < middle && (right >= high || compareReversed(from[left], from[right]) <= 0)) {
+                            to[i] = from[left++];
+                        } else {
+                            to[i] = from[right++];
+                        }
+                    }
+                }
+                int[] swap = from;
+                from = to;
+                to = swap;
+            }
+            if (from != order) {
+                System.arraycopy(from, 0, order, 0, count);
+            }
+        }
+
+        private int compareReversed(int first, int second) {
+            byte[] a = records[first].getBases();
+            byte[] b = records[second].getBases();
+            int i = records[first].getLength() - 1;
+            int j = records[second].getLength() - 1;
+            for ( ; i >= 0 && j >= 0; i--, j--) {
+                if (a[i] != b[j]) {
+                    return a[i] - b[j];
+                }
+            }
+            return i - j;
+        }
+    }
+}
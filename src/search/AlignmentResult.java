@@ -0,0 +1,93 @@
+package search;
+
+import index.ContigTable;
+
+/**
+ * What the alignment of a read found, copied out of its SearchContext so it outlives the next alignment done with
+ * the context. The pipeline formats its output straight from the context instead, which does not allocate.
+ */
+public class AlignmentResult {
+
+    private final ExitReason exitReason;
+    private final boolean reverseStrand;
+    private final boolean rescued;
+    private final int mismatches;
+    //The CIGAR of the alignment, or null when the read did not align.
+    private final String cigar;
+    private final int score;
+    private final long rowCount;
+    private final long[] hits;
+    private final String[] hitContigs;
+
+    AlignmentResult(SearchContext context, ContigTable contigs) {
+        exitReason = context.exitReason;
+        boolean aligned = exitReason == ExitReason.MATCH;
+        reverseStrand = aligned && context.bestReverse;
+        rescued = aligned && context.rescued;
+        mismatches = aligned ? context.bestMismatches : 0;
+        cigar = !aligned ? null : context.gapped ? context.getCigar() : context.length + "M";
+        score = aligned && context.gapped ? context.bestScore : 0;
+        rowCount = aligned ? context.rowCount : 0;
+        hits = new long[aligned ? context.hitCount : 0];
+        System.arraycopy(context.hits, 0, hits, 0, hits.length);
+        hitContigs = new String[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            hitContigs[i] = contigs.getName(context.hitContigs[i]);
+        }
+    }
+
+    public ExitReason getExitReason() {
+        return exitReason;
+    }
+
+    public boolean isAligned() {
+        return exitReason == ExitReason.MATCH;
+    }
+
+    public boolean isReverseStrand() {
+        return reverseStrand;
+    }
+
+    public boolean isRescued() {
+        return rescued;
+    }
+
+    /**
+     * @return Returns the mismatches of the alignment, or its edits, mismatches and gap bases, when it has gaps.
+     */
+    public int getMismatches() {
+        return mismatches;
+    }
+
+    public String getCigar() {
+        return cigar;
+    }
+
+    /**
+     * @return Returns the score of an alignment with gaps, see SeedExtender, 0 for the others.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * @return Returns the number of text positions of the alignment, of which the hits are the ones located.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Returns the positions located, the start of the read on the forward strand of its contig.
+     */
+    public long[] getHits() {
+        return hits.clone();
+    }
+
+    /**
+     * @return Returns the names of the contigs of the hits.
+     */
+    public String[] getHitContigs() {
+        return hitContigs.clone();
+    }
+}
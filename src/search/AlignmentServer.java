@@ -0,0 +1,165 @@
+package search;
+
+import io.AsyncOutput;
+import io.FastqReader;
+import io.FastqRecord;
+import io.SocketStreams;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Keeps an Aligner, and so its index, loaded and aligns the reads of the clients of a Unix domain socket, a job per
+ * connection. The client writes FASTQ, plain or gzip compressed, then shuts its side of the connection down, and reads
+ * back the output of its reads as ReadFASTQ would write it.
+ *
+ * The jobs share one pool of workers, each through a pipeline of its own, so their batches take turns on the workers
+ * and every job has its own bound on its batches in flight. A job whose client does not read its output stops being
+ * read, which blocks the client's writes, without holding up the other jobs: a client has to read while it writes.
+ *
+ * Closing the server stops it taking connections; drain then lets the jobs running finish. The aligner is left open,
+ * it is the caller's to close once the server is.
+ */
+public class AlignmentServer implements AutoCloseable {
+
+    private final Aligner aligner;
+    private final int workerCount;
+    private final int batchSize;
+    private final OutputFormat format;
+    private final boolean bgzf;
+    private final boolean sortBatches;
+    private final Path socketPath;
+    private final ServerSocketChannel channel;
+    private final ExecutorService workers;
+    //A thread per connection, which reads its reads into its pipeline.
+    private final ExecutorService jobs = Executors.newCachedThreadPool();
+
+    /**
+     * Listens on the socket, replacing a socket file left by a server which is gone.
+     * @param socketPath The path of the socket file.
+     */
+    public AlignmentServer(Aligner aligner, int workerCount, int batchSize, OutputFormat format, boolean bgzf,
+                           boolean sortBatches, String socketPath) throws IOException {
+        this.aligner = aligner;
+        this.workerCount = workerCount;
+        this.batchSize = batchSize;
+        this.format = format;
+        this.bgzf = bgzf;
+        this.sortBatches = sortBatches;
+        this.socketPath = Paths.get(socketPath);
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(this.socketPath);
+        if (Files.exists(this.socketPath)) {
+            SocketChannel probe = null;
+            try {
+                probe = SocketChannel.open(address);
+                throw new IOException("A server is already listening on " + socketPath);
+            } catch (ConnectException e) {
+                //Nobody is listening, the file was left behind.
+                Files.delete(this.socketPath);
+            } finally {
+                if (probe != null) {
+                    probe.close();
+                }
+            }
+        }
+        this.channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        this.channel.bind(address);
+        this.workers = Executors.newFixedThreadPool(workerCount);
+    }
+
+    /**
+     * Takes connections until the server is closed, running a job for each.
+     */
+    public void serve() throws IOException {
+        while (true) {
+            SocketChannel client;
+            try {
+                client = channel.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+            try {
+                jobs.execute(() -> run(client));
+            } catch (RejectedExecutionException e) {
+                //Closed between the accept and here.
+                client.close();
+                return;
+            }
+        }
+    }
+
+    private void run(SocketChannel client) {
+        //The output is finished before the connection is closed, so the client gets all of it.
+        try (SocketChannel connection = client;
+             AsyncOutput out = new AsyncOutput(SocketStreams.output(connection), bgzf, false)) {
+            FastqReader reader = new FastqReader(decompress(SocketStreams.input(connection)));
+            FastqRecord record = new FastqRecord();
+            try (AlignmentPipeline pipeline = new AlignmentPipeline(aligner, workers, workerCount, batchSize, out,
+                    format, sortBatches, null)) {
+                while (reader.next(record)) {
+                    pipeline.submit(record);
+                }
+            }
+        } catch (Exception e) {
+            //Only this job is lost, its client sees its output cut short.
+            System.err.println("Job failed : " + e);
+        }
+    }
+
+    /**
+     * @return Returns the stream, decompressed when it starts with the gzip magic.
+     */
+    private static InputStream decompress(InputStream in) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(in, 1 << 16);
+        buffered.mark(2);
+        boolean gzip = buffered.read() == 0x1f && buffered.read() == 0x8b;
+        buffered.reset();
+        return gzip ? new GZIPInputStream(buffered, 1 << 16) : buffered;
+    }
+
+    /**
+     * Stops taking connections and waits for the jobs running to finish.
+     * @return Returns whether they all finished in time.
+     */
+    public boolean drain(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        channel.close();
+        jobs.shutdown();
+        return jobs.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Stops taking connections, stops the jobs still running, cutting their output short, and removes the socket
+     * file. Drain first to let the jobs finish. Being interrupted while waiting for the jobs to stop is an
+     * IOException, with the interrupt flag kept.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        //Interrupting a job blocked reading or writing its connection closes the connection.
+        jobs.shutdownNow();
+        try {
+            jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while stopping the jobs", e);
+        } finally {
+            workers.shutdownNow();
+            Files.deleteIfExists(socketPath);
+        }
+    }
+}
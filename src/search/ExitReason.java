@@ -0,0 +1,15 @@
+package search;
+
+/**
+ * Why the alignment of a read stopped.
+ */
+public enum ExitReason {
+    //The whole read was matched.
+    MATCH,
+    //The search went through every branch allowed by the mode without finding an alignment.
+    NO_CHOICE_AVAILABLE,
+    //The search gave up after the number of steps allowed by the mode.
+    THRESHOLD,
+    //The read is too short or holds something other than A, C, G and T.
+    INVALID_READ
+}
@@ -0,0 +1,76 @@
+package search;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps the metrics periodically, and once more when closed. A file is replaced at once, writing a temporary file
+ * next to it and moving it over, so a scraper such as the textfile collector of the Prometheus node exporter never
+ * reads half a dump.
+ */
+public class MetricsReporter implements AutoCloseable {
+
+    private final SearchMetrics metrics;
+    private final SearchMetrics.Format format;
+    //Null for the standard error.
+    private final Path path;
+    private final ScheduledExecutorService timer;
+
+    /**
+     * @param path The file the metrics are written to, or - for the standard error.
+     * @param intervalSeconds The time between two dumps, 0 to only dump when closed.
+     */
+    public MetricsReporter(SearchMetrics metrics, SearchMetrics.Format format, String path, long intervalSeconds) {
+        this.metrics = metrics;
+        this.format = format;
+        this.path = "-".equals(path) ? null : Paths.get(path);
+        if (intervalSeconds <= 0) {
+            this.timer = null;
+            return;
+        }
+        this.timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer.scheduleAtFixedRate(this::dumpQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    public synchronized void dump() throws IOException {
+        String text = metrics.export(format);
+        if (path == null) {
+            System.err.print(text);
+            return;
+        }
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temporary, text.getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void dumpQuietly() {
+        try {
+            dump();
+        } catch (IOException e) {
+            //A failed dump is not worth stopping the run for, the next one may succeed.
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the periodic dumps and dumps the final metrics.
+     */
+    @Override
+    public void close() throws IOException {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        dump();
+    }
+}
@@ -0,0 +1,11 @@
+package search;
+
+/**
+ * How the pipeline writes the alignments.
+ */
+public enum OutputFormat {
+    //The lines it always printed, "Aligned Against", the suffixes and the time taken by every read.
+    TEXT,
+    //SAM, a record for every hit reported, the first one primary and the others secondary.
+    SAM
+}
@@ -0,0 +1,75 @@
+package search;
+
+/**
+ * How the two mates of a pair must align to each other : their orientation and the range of the insert size, the
+ * length of the fragment from the start of the leftmost mate to the end of the rightmost one.
+ */
+public class PairedEndMode {
+
+    public enum Orientation {
+        //The upstream mate on the forward strand and the downstream one on the reverse strand, like --fr.
+        FR,
+        //The upstream mate on the reverse strand and the downstream one on the forward strand, like --rf.
+        RF,
+        //Both mates on the same strand, the first mate upstream on the forward strand, like --ff.
+        FF
+    }
+
+    private final Orientation orientation;
+    private final int minInsert;
+    private final int maxInsert;
+
+    /**
+     * @param orientation How the mates face each other.
+     * @param minInsert The smallest insert size of a concordant pair, like -I.
+     * @param maxInsert The largest insert size of a concordant pair, like -X.
+     */
+    public PairedEndMode(Orientation orientation, int minInsert, int maxInsert) {
+        if (minInsert < 0 || maxInsert < minInsert) {
+            throw new IllegalArgumentException("The insert size range is empty");
+        }
+        this.orientation = orientation;
+        this.minInsert = minInsert;
+        this.maxInsert = maxInsert;
+    }
+
+    /**
+     * Bowtie's defaults, --fr -I 0 -X 250.
+     */
+    public static PairedEndMode defaultMode() {
+        return new PairedEndMode(Orientation.FR, 0, 250);
+    }
+
+    public Orientation getOrientation() {
+        return orientation;
+    }
+
+    public int getMinInsert() {
+        return minInsert;
+    }
+
+    public int getMaxInsert() {
+        return maxInsert;
+    }
+
+    /**
+     * @return Returns which strand the other mate must be on, given the strand of a mate.
+     */
+    boolean isOtherReverse(boolean reverse) {
+        return orientation == Orientation.FF ? reverse : !reverse;
+    }
+
+    /**
+     * @return Returns whether a mate on the strand is the upstream one of the pair, so the other mate is to its right.
+     */
+    boolean isUpstream(boolean firstMate, boolean reverse) {
+        switch (orientation) {
+            case FR:
+                return !reverse;
+            case RF:
+                return reverse;
+            default:
+                return firstMate != reverse;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package search;
+
+import index.LruTable;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of the outcomes of the alignments of reads, by their bases, so a read which is an exact duplicate
+ * of one aligned before, as PCR and amplicon libraries are full of, is not searched and located again.
+ *
+ * It is shared by all the alignment threads, like LocateCache : reads are spread over segments, each with its own
+ * lock, holding the outcomes at the slots of an LruTable, which evicts the least recently used one when the segment
+ * is full. A read is keyed by its bases packed at 2 bits, which are compared in full, so a read never gets the
+ * outcome of another one whose hash is the same. Looking a read up does not allocate, keeping the outcome of a read
+ * does.
+ *
+ * A read found here did no search, so its counters of the work of the search, and the metrics of that work, stay 0;
+ * the metrics count the reads found here separately.
+ *
+ * Which outcomes can be kept is up to the Aligner, as only the outcomes the quality scores of the read play no part
+ * in are the same for every duplicate.
+ */
+public class ReadCache {
+
+    private static final int SEGMENTS = 16;
+    //Outcomes with more hits are not kept, the locate cache already spares the walks of their rows.
+    static final int MAX_HITS = 256;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity The number of reads the cache holds at most.
+     */
+    public ReadCache(int capacity) {
+        if (capacity < SEGMENTS) {
+            throw new IllegalArgumentException("The cache must hold at least " + SEGMENTS + " reads");
+        }
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(capacity / SEGMENTS);
+        }
+    }
+
+    /**
+     * Looks the read prepared in the context up, and makes the outcome kept for it the outcome of the context.
+     * @return Returns whether the read was found.
+     */
+    boolean get(SearchContext context) {
+        pack(context);
+        context.cacheChecked = true;
+        int hash = context.packedHash;
+        context.cacheHit = segments[hash & (SEGMENTS - 1)].get(context, hash >>> 4);
+        if (context.cacheHit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return context.cacheHit;
+    }
+
+    /**
+     * Keeps the outcome of the context for the read, which get looked up before.
+     */
+    void put(SearchContext context) {
+        if (!context.cacheChecked || context.hitCount > MAX_HITS) {
+            return;
+        }
+        int hash = context.packedHash;
+        segments[hash & (SEGMENTS - 1)].put(new Outcome(context), hash >>> 4);
+    }
+
+    /**
+     * @return Returns the number of reads whose outcome was found.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return Returns the number of reads looked up and not found.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Packs the bases of the read, on the forward strand, into the context, with their hash.
+     */
+    private static void pack(SearchContext context) {
+        int length = context.length;
+        int words = (length + 31) >>> 5;
+        if (context.packedRead.length < words) {
+            context.packedRead = new long[Math.max(words, 2 * context.packedRead.length)];
+        }
+        long[] packed = context.packedRead;
+        Arrays.fill(packed, 0, words, 0);
+        for (int i = 0; i < length; i++) {
+            packed[i >>> 5] |= (long) context.read[i] << ((i & 31) << 1);
+        }
+        long hash = length;
+        for (int i = 0; i < words; i++) {
+            hash = (hash ^ packed[i]) * 0x9E3779B97F4A7C15L;
+            hash ^= hash >>> 32;
+        }
+        context.packedHash = (int) hash;
+    }
+
+    /**
+     * The outcome of the alignment of a read, with the packed read it is kept for.
+     */
+    private static final class Outcome {
+        private final long[] key;
+        private final int length;
+        private final ExitReason exitReason;
+        private final byte[] bases;
+        private final boolean mirrored;
+        private final boolean reverse;
+        private final int mismatches;
+        private final int qualitySum;
+        private final boolean gapped;
+        private final int score;
+        private final byte[] cigarOps;
+        private final int[] cigarLengths;
+        private final long rowCount;
+        private final long[] hits;
+        private final int[] hitContigs;
+
+        Outcome(SearchContext context) {
+            length = context.length;
+            key = Arrays.copyOf(context.packedRead, (length + 31) >>> 5);
+            exitReason = context.exitReason;
+            bases = Arrays.copyOf(context.bestBase, length);
+            mirrored = context.bestMirrored;
+            reverse = context.bestReverse;
+            mismatches = context.bestMismatches;
+            qualitySum = context.bestQualitySum;
+            gapped = context.gapped;
+            score = context.bestScore;
+            cigarOps = Arrays.copyOf(context.cigarOps, context.cigarCount);
+            cigarLengths = Arrays.copyOf(context.cigarLengths, context.cigarCount);
+            rowCount = context.rowCount;
+            hits = Arrays.copyOf(context.hits, context.hitCount);
+            hitContigs = Arrays.copyOf(context.hitContigs, context.hitCount);
+        }
+
+        /**
+         * @param packed The read packed at 2 bits, which may be followed by words of no use.
+         */
+        boolean isFor(long[] packed, int length) {
+            if (this.length != length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (key[i] != packed[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Makes the outcome the one of the context, which did no search for it, so its counters of the work of the
+         * search stay 0.
+         */
+        void copyTo(SearchContext context) {
+            context.exitReason = exitReason;
+            System.arraycopy(bases, 0, context.bestBase, 0, length);
+            context.bestMirrored = mirrored;
+            context.bestReverse = reverse;
+            context.bestMismatches = mismatches;
+            context.bestQualitySum = qualitySum;
+            context.gapped = gapped;
+            context.bestScore = score;
+            if (context.cigarOps.length < cigarOps.length) {
+                context.cigarOps = new byte[cigarOps.length];
+                context.cigarLengths = new int[cigarLengths.length];
+            }
+            System.arraycopy(cigarOps, 0, context.cigarOps, 0, cigarOps.length);
+            System.arraycopy(cigarLengths, 0, context.cigarLengths, 0, cigarLengths.length);
+            context.cigarCount = cigarOps.length;
+            context.rowCount = rowCount;
+            context.hitCount = 0;
+            for (int i = 0; i < hits.length; i++) {
+                context.addHit(hits[i], hitContigs[i]);
+            }
+        }
+    }
+
+    private static final class Segment {
+
+        private final LruTable table;
+        private final Outcome[] outcomes;
+
+        Segment(int capacity) {
+            table = new LruTable(capacity);
+            outcomes = new Outcome[capacity];
+        }
+
+        synchronized boolean get(SearchContext context, int hash) {
+            int entry = find(context.packedRead, context.length, hash);
+            if (entry == LruTable.NONE) {
+                return false;
+            }
+            table.touch(entry);
+            outcomes[entry].copyTo(context);
+            return true;
+        }
+
+        synchronized void put(Outcome outcome, int hash) {
+            int entry = find(outcome.key, outcome.length, hash);
+            if (entry != LruTable.NONE) {
+                //Another thread aligned the same read meanwhile, to the same outcome.
+                table.touch(entry);
+                return;
+            }
+            outcomes[table.add(hash)] = outcome;
+        }
+
+        private int find(long[] packed, int length, int hash) {
+            int entry = table.first(hash);
+            while (entry != LruTable.NONE && !outcomes[entry].isFor(packed, length)) {
+                entry = table.next(entry, hash);
+            }
+            return entry;
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package search;
+
+import index.ContigTable;
+import io.FastqRecord;
+
+/**
+ * Appends alignments as SAM records. A read which aligned gets a record for every hit reported, the first one
+ * primary and the others secondary, without their sequence. A read which aligned with only its hits counted, see
+ * SearchMode.withCountOnly, has no position and is written unmapped, with the count in an XC tag.
+ *
+ * Every contig of the reference is a sequence of the header, and a record is placed in the contig of its hit.
+ */
+final class SamFormat {
+
+    private static final int PAIRED = 0x1;
+    private static final int PROPER_PAIR = 0x2;
+    private static final int UNMAPPED = 0x4;
+    private static final int MATE_UNMAPPED = 0x8;
+    private static final int REVERSE = 0x10;
+    private static final int MATE_REVERSE = 0x20;
+    private static final int FIRST_MATE = 0x40;
+    private static final int SECOND_MATE = 0x80;
+    private static final int SECONDARY = 0x100;
+    //The mapping quality is not computed.
+    private static final int NO_MAPQ = 255;
+    private static final int PHRED_OFFSET = 33;
+
+    private SamFormat() {
+    }
+
+    static void appendHeader(StringBuilder out, ContigTable contigs) {
+        out.append("@HD\tVN:1.6\tSO:unsorted\n");
+        for (int contig = 0; contig < contigs.size(); contig++) {
+            out.append("@SQ\tSN:").append(contigs.getName(contig)).append("\tLN:").append(contigs.getLength(contig))
+                    .append('\n');
+        }
+        out.append("@PG\tID:bowtie_impl\tPN:bowtie_impl\n");
+    }
+
+    /**
+     * Appends the records of a read which is not paired.
+     */
+    static void appendRead(StringBuilder out, FastqRecord record, SearchContext context, ContigTable contigs) {
+        appendRecords(out, record, context, contigs, 0, null, -1);
+    }
+
+    /**
+     * Appends the records of a mate of a pair.
+     * @param insert The insert size when the pair is concordant, else -1.
+     */
+    static void appendMate(StringBuilder out, FastqRecord record, SearchContext context, boolean firstMate,
+                           SearchContext mate, int insert, ContigTable contigs) {
+        int flags = PAIRED | (firstMate ? FIRST_MATE : SECOND_MATE);
+        if (insert >= 0) {
+            flags |= PROPER_PAIR;
+        }
+        if (!isPlaced(mate)) {
+            flags |= MATE_UNMAPPED;
+        } else if (mate.bestReverse) {
+            flags |= MATE_REVERSE;
+        }
+        appendRecords(out, record, context, contigs, flags, mate, insert);
+    }
+
+    private static boolean isPlaced(SearchContext context) {
+        return context.exitReason == ExitReason.MATCH && context.hitCount > 0;
+    }
+
+    private static void appendRecords(StringBuilder out, FastqRecord record, SearchContext context,
+                                      ContigTable contigs, int flags, SearchContext mate, int insert) {
+        if (!isPlaced(context)) {
+            appendName(out, record, flags);
+            out.append('\t').append(flags | UNMAPPED);
+            if (mate != null && isPlaced(mate)) {
+                //An unmapped mate is placed where the other one is, as the SAM specification recommends.
+                out.append('\t').append(contigs.getName(mate.hitContigs[0])).append('\t').append(mate.hits[0] + 1)
+                        .append("\t0\t*\t=\t")
+                        .append(mate.hits[0] + 1);
+            } else {
+                out.append("\t*\t0\t0\t*\t*\t0");
+            }
+            out.append("\t0\t");
+            appendSequence(out, record, false);
+            if (context.exitReason == ExitReason.MATCH) {
+                out.append("\tXC:i:").append(context.rowCount);
+            }
+            out.append('\n');
+            return;
+        }
+
+        boolean reverse = context.bestReverse;
+        for (int i = 0; i < context.hitCount; i++) {
+            long position = context.hits[i];
+            int contig = context.hitContigs[i];
+            appendName(out, record, flags);
+            out.append('\t').append(flags | (reverse ? REVERSE : 0) | (i > 0 ? SECONDARY : 0));
+            out.append('\t').append(contigs.getName(contig)).append('\t').append(position + 1).append('\t')
+                    .append(NO_MAPQ);
+            out.append('\t');
+            if (context.gapped) {
+                for (int op = 0; op < context.cigarCount; op++) {
+                    out.append(context.cigarLengths[op]).append((char) context.cigarOps[op]);
+                }
+            } else {
+                out.append(context.length).append('M');
+            }
+            out.append('\t');
+            appendMatePosition(out, mate, contig, position, contigs);
+            //The insert size is positive for the leftmost mate.
+            int length = insert < 0 ? 0 : position <= mate.hits[0] ? insert : -insert;
+            out.append('\t').append(length).append('\t');
+            if (i == 0) {
+                appendSequence(out, record, reverse);
+            } else {
+                out.append("*\t*");
+            }
+            out.append("\tNM:i:").append(context.bestMismatches);
+            if (context.gapped) {
+                out.append("\tAS:i:").append(context.bestScore);
+            }
+            out.append('\n');
+        }
+    }
+
+    /**
+     * Appends the name of the read, without the /1 or /2 of a mate, as SAM names both mates the same.
+     */
+    private static void appendName(StringBuilder out, FastqRecord record, int flags) {
+        byte[] name = record.getNameBytes();
+        int length = record.getNameLength();
+        if ((flags & PAIRED) != 0 && length >= 2 && name[length - 2] == '/') {
+            length -= 2;
+        }
+        for (int i = 0; i < length; i++) {
+            out.append((char) name[i]);
+        }
+    }
+
+    /**
+     * @param contig The contig of the record, where an unmapped mate is placed.
+     * @param position The position of the record, where an unmapped mate is placed.
+     */
+    private static void appendMatePosition(StringBuilder out, SearchContext mate, int contig, long position,
+                                           ContigTable contigs) {
+        if (mate == null) {
+            out.append("*\t0");
+        } else if (!isPlaced(mate)) {
+            out.append("=\t").append(position + 1);
+        } else {
+            out.append(mate.hitContigs[0] == contig ? "=" : contigs.getName(mate.hitContigs[0])).append('\t')
+                    .append(mate.hits[0] + 1);
+        }
+    }
+
+    /**
+     * Appends the bases and quality scores, reverse complemented for a read aligned to the reverse strand, as SAM
+     * holds them on the forward strand.
+     */
+    private static void appendSequence(StringBuilder out, FastqRecord record, boolean reverse) {
+        byte[] bases = record.getBases();
+        byte[] qualities = record.getQualities();
+        int length = record.getLength();
+        for (int i = 0; i < length; i++) {
+            out.append(reverse ? complement(bases[length - 1 - i]) : (char) bases[i]);
+        }
+        out.append('\t');
+        for (int i = 0; i < length; i++) {
+            out.append((char) ((reverse ? qualities[length - 1 - i] : qualities[i]) + PHRED_OFFSET));
+        }
+    }
+
+    private static char complement(byte base) {
+        switch (base) {
+            case 'A':
+                return 'T';
+            case 'C':
+                return 'G';
+            case 'G':
+                return 'C';
+            case 'T':
+                return 'A';
+            default:
+                return 'N';
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package search;
+
+import index.FMIndex;
+
+/**
+ * The mutable state of one alignment. The Aligner only holds the read only index, so every thread aligning
+ * against it needs its own context, which it reuses from one read to the next.
+ *
+ * Everything is kept in primitive arrays which only grow when a longer read comes along, so once warmed up
+ * an alignment does not allocate.
+ */
+public class SearchContext {
+
+    private static final int INITIAL_LENGTH = 256;
+    private static final int INITIAL_HITS = 64;
+
+    //The read as base codes, -1 for anything which is not A, C, G or T, and its quality scores.
+    //On the reverse strand these are the reverse complement of the read, see useStrand.
+    byte[] read = new byte[INITIAL_LENGTH];
+    byte[] quality = new byte[INITIAL_LENGTH];
+    int length = 0;
+    boolean reverseStrand = false;
+
+    //The depth first search stack, indexed by the step of the backward search. Step t consumes
+    //read[length - 1 - t], or read[t] in the mirror index. low and high are the range of BWT rows after the step, base the base used at the step
+    //and tried a 4 bit mask of the bases already tried at the step. The mismatches, the mismatches in the seed
+    //and the sum of the quality scores at the mismatches are those of the path up to and including the step.
+    long[] low = new long[INITIAL_LENGTH];
+    long[] high = new long[INITIAL_LENGTH];
+    byte[] base = new byte[INITIAL_LENGTH];
+    byte[] tried = new byte[INITIAL_LENGTH];
+    int[] mismatches = new int[INITIAL_LENGTH];
+    int[] seedMismatches = new int[INITIAL_LENGTH];
+    int[] qualitySum = new int[INITIAL_LENGTH];
+    //The k-mer of the bases up to the step, for the steps covered by the k-mer table of the index.
+    int[] kmer = new int[INITIAL_LENGTH];
+
+    //Ranges of the steps of the exact path, the read's own bases, of the last reads searched forward in exactIndex.
+    //Valid for the steps from exactFrom, the first step after the k-mer table, up to exactDepth. The next read
+    //keeps the steps over the suffix it shares with the read before, so reads sorted by their reversed sequence
+    //do each shared step only once.
+    long[] exactLow = new long[INITIAL_LENGTH];
+    long[] exactHigh = new long[INITIAL_LENGTH];
+    FMIndex exactIndex = null;
+    int exactFrom = 0;
+    int exactDepth = 0;
+
+    //The same for the strand not searched at the moment, swapped in by useStrand.
+    private byte[] otherRead = new byte[INITIAL_LENGTH];
+    private byte[] otherQuality = new byte[INITIAL_LENGTH];
+    private long[] otherExactLow = new long[INITIAL_LENGTH];
+    private long[] otherExactHigh = new long[INITIAL_LENGTH];
+    private FMIndex otherExactIndex = null;
+    private int otherExactFrom = 0;
+    private int otherExactDepth = 0;
+
+    //The best alignment found, its bases by step, whether it was found in the mirror index, in which case
+    //step t consumed read[t], and its range of BWT rows.
+    byte[] bestBase = new byte[INITIAL_LENGTH];
+    boolean bestMirrored;
+    boolean bestReverse;
+    //Whether the alignment was found next to the other mate of a pair instead of in the index.
+    boolean rescued;
+    long bestLow;
+    long bestHigh;
+    int bestMismatches;
+    int bestQualitySum;
+
+    //The alignment with gaps, when the read was aligned by SeedExtender, its score and its operations, M, I or D,
+    //with their lengths, from the start of the alignment on the reference.
+    boolean gapped;
+    int bestScore;
+    byte[] cigarOps = new byte[INITIAL_LENGTH];
+    int[] cigarLengths = new int[INITIAL_LENGTH];
+    int cigarCount = 0;
+
+    //Scratch of SeedExtender : the starts of the read on the reference its seeds point at, the reference around
+    //the one extended, and the scores of the band, a row of the band after the other.
+    long[] candidates = new long[INITIAL_HITS];
+    int candidateCount = 0;
+    byte[] window = new byte[0];
+    int[] scoreH = new int[0];
+    int[] scoreE = new int[0];
+    int[] scoreF = new int[0];
+
+    //The hits of the last read which were located, out of the rows of its alignment : their text positions in the
+    //index searched, which the Aligner then turns into the contig of every hit and the offset of the hit in it.
+    long[] hits = new long[INITIAL_HITS];
+    int[] hitContigs = new int[INITIAL_HITS];
+    int hitCount = 0;
+    long rowCount = 0;
+
+    //The read packed at 2 bits a base and its hash, the key of the read in the ReadCache, and whether the read was
+    //looked up in it and its outcome found there.
+    long[] packedRead = new long[INITIAL_LENGTH / 32];
+    int packedHash;
+    boolean cacheChecked;
+    boolean cacheHit;
+
+    //The contexts the read is searched with in every shard of a sharded index, whose alignments are merged into
+    //this one.
+    private SearchContext[] shardContexts = new SearchContext[0];
+
+    ExitReason exitReason = null;
+    //Backward search steps done for the read, and the number of times the search went back a step.
+    int steps = 0;
+    int backtracks = 0;
+    boolean stoppedEarly = false;
+    //The work done for the read : rank calls in the searches, LF steps walked to locate its hits, and the
+    //deepest step the search went back from.
+    int rankCalls = 0;
+    int lfSteps = 0;
+    int backtrackDepth = 0;
+
+    /**
+     * @return Returns why the alignment of the last read stopped.
+     */
+    public ExitReason getExitReason() {
+        return exitReason;
+    }
+
+    /**
+     * @return Returns the number of backward search steps the search of the last read did.
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return Returns the number of times the search of the last read went back a step.
+     */
+    public int getBacktracks() {
+        return backtracks;
+    }
+
+    /**
+     * @return Returns the deepest step, counted in bases of the read, the search of the last read went back from.
+     */
+    public int getBacktrackDepth() {
+        return backtrackDepth;
+    }
+
+    /**
+     * @return Returns the number of rank calls the searches of the last read made.
+     */
+    public int getRankCalls() {
+        return rankCalls;
+    }
+
+    /**
+     * @return Returns the number of LF steps walked to locate the hits of the last read.
+     */
+    public int getLfSteps() {
+        return lfSteps;
+    }
+
+    /**
+     * @return Returns the number of text positions the last read aligned to.
+     */
+    public int getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return Returns the number of text positions of the alignment of the last read, of which the hits are
+     * the ones located.
+     */
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return Returns the offset of a hit of the last read in its contig.
+     */
+    public long getHit(int i) {
+        return hits[i];
+    }
+
+    /**
+     * @return Returns the contig of a hit of the last read, its index in the ContigTable of the Aligner.
+     */
+    public int getHitContig(int i) {
+        return hitContigs[i];
+    }
+
+    /**
+     * @return Returns whether the outcome of the last read was the one of a duplicate read found in the ReadCache,
+     * which then did no search, so its counters of the work of the search are all 0.
+     */
+    public boolean isCacheHit() {
+        return cacheHit;
+    }
+
+    /**
+     * @return Returns whether the last read aligned as its reverse complement, to the reverse strand.
+     */
+    public boolean isReverseStrand() {
+        return bestReverse;
+    }
+
+    /**
+     * @return Returns whether the last read, a mate of a pair, was aligned next to the other mate.
+     */
+    public boolean isRescued() {
+        return rescued;
+    }
+
+    /**
+     * @return Returns the number of mismatches of the alignment of the last read.
+     */
+    public int getMismatches() {
+        return bestMismatches;
+    }
+
+    /**
+     * Copies the read into the context, converting the bases to their codes.
+     */
+    void setRead(byte[] bases, byte[] qualities, int length) {
+        useStrand(false);
+
+        //The exact steps over the suffix shared with the read before stay valid. The suffix of the reverse
+        //complement is the complemented prefix of the read.
+        int shared = 0;
+        while (shared < this.length && shared < length && shared < exactDepth
+                && read[this.length - 1 - shared] == FMIndex.getReleventRowNumber((char) bases[length - 1 - shared])) {
+            shared++;
+        }
+        exactDepth = shared;
+        shared = 0;
+        while (shared < this.length && shared < length && shared < otherExactDepth
+                && otherRead[this.length - 1 - shared] == complement(bases[shared])) {
+            shared++;
+        }
+        otherExactDepth = shared;
+
+        ensureLength(length);
+        for (int i = 0; i < length; i++) {
+            read[i] = (byte) FMIndex.getReleventRowNumber((char) bases[i]);
+            quality[i] = qualities[i];
+            otherRead[length - 1 - i] = complement(bases[i]);
+            otherQuality[length - 1 - i] = qualities[i];
+        }
+        this.length = length;
+        hitCount = 0;
+        rowCount = 0;
+        cacheChecked = false;
+        cacheHit = false;
+        rescued = false;
+        gapped = false;
+        steps = 0;
+        backtracks = 0;
+        stoppedEarly = false;
+        rankCalls = 0;
+        lfSteps = 0;
+        backtrackDepth = 0;
+        exitReason = null;
+    }
+
+    /**
+     * Makes read, quality and the exact path those of the read, or of its reverse complement.
+     */
+    void useStrand(boolean reverse) {
+        if (reverse == reverseStrand) {
+            return;
+        }
+        byte[] bytes = read;
+        read = otherRead;
+        otherRead = bytes;
+        bytes = quality;
+        quality = otherQuality;
+        otherQuality = bytes;
+        long[] rows = exactLow;
+        exactLow = otherExactLow;
+        otherExactLow = rows;
+        rows = exactHigh;
+        exactHigh = otherExactHigh;
+        otherExactHigh = rows;
+        FMIndex index = exactIndex;
+        exactIndex = otherExactIndex;
+        otherExactIndex = index;
+        int value = exactFrom;
+        exactFrom = otherExactFrom;
+        otherExactFrom = value;
+        value = exactDepth;
+        exactDepth = otherExactDepth;
+        otherExactDepth = value;
+        reverseStrand = reverse;
+    }
+
+    private static byte complement(byte base) {
+        int code = FMIndex.getReleventRowNumber((char) base);
+        return (byte) (code < 0 ? -1 : 3 - code);
+    }
+
+    /**
+     * Keeps the alignment which the search stack holds up to the last step as the best one.
+     */
+    void keepBest(boolean mirrored) {
+        int last = length - 1;
+        System.arraycopy(base, 0, bestBase, 0, length);
+        bestMirrored = mirrored;
+        bestReverse = reverseStrand;
+        bestLow = low[last];
+        bestHigh = high[last];
+        bestMismatches = mismatches[last];
+        bestQualitySum = qualitySum[last];
+    }
+
+    void addHit(long position) {
+        addHit(position, 0);
+    }
+
+    void addHit(long position, int contig) {
+        if (hitCount == hits.length) {
+            long[] larger = new long[2 * hits.length];
+            System.arraycopy(hits, 0, larger, 0, hitCount);
+            hits = larger;
+            int[] contigs = new int[hits.length];
+            System.arraycopy(hitContigs, 0, contigs, 0, hitCount);
+            hitContigs = contigs;
+        }
+        hitContigs[hitCount] = contig;
+        hits[hitCount++] = position;
+    }
+
+    /**
+     * Swaps a hit with the first one, which is the primary alignment of the read, keeping its contig with it.
+     */
+    void makePrimary(int i) {
+        long hit = hits[i];
+        int contig = hitContigs[i];
+        hits[i] = hits[0];
+        hitContigs[i] = hitContigs[0];
+        hits[0] = hit;
+        hitContigs[0] = contig;
+    }
+
+    /**
+     * @return Returns the contexts of the shards, one for each of the shards, which are kept for the next reads.
+     */
+    SearchContext[] shardContexts(int shards) {
+        if (shardContexts.length < shards) {
+            SearchContext[] contexts = new SearchContext[shards];
+            System.arraycopy(shardContexts, 0, contexts, 0, shardContexts.length);
+            for (int shard = shardContexts.length; shard < shards; shard++) {
+                contexts[shard] = new SearchContext();
+            }
+            shardContexts = contexts;
+        }
+        return shardContexts;
+    }
+
+    /**
+     * Makes the alignment, the hits and the exit reason of the context of a shard those of this context, which
+     * holds the same read.
+     */
+    void keepAlignment(SearchContext shard) {
+        System.arraycopy(shard.bestBase, 0, bestBase, 0, length);
+        bestMirrored = shard.bestMirrored;
+        bestReverse = shard.bestReverse;
+        rescued = shard.rescued;
+        bestLow = shard.bestLow;
+        bestHigh = shard.bestHigh;
+        bestMismatches = shard.bestMismatches;
+        bestQualitySum = shard.bestQualitySum;
+        gapped = shard.gapped;
+        bestScore = shard.bestScore;
+        if (cigarOps.length < shard.cigarCount) {
+            cigarOps = new byte[shard.cigarOps.length];
+            cigarLengths = new int[shard.cigarLengths.length];
+        }
+        System.arraycopy(shard.cigarOps, 0, cigarOps, 0, shard.cigarCount);
+        System.arraycopy(shard.cigarLengths, 0, cigarLengths, 0, shard.cigarCount);
+        cigarCount = shard.cigarCount;
+        hitCount = 0;
+        rowCount = 0;
+        addHits(shard, Long.MAX_VALUE);
+        exitReason = shard.exitReason;
+    }
+
+    /**
+     * Adds the rows and the hits of the context of a shard, which aligned the read the same, up to a number of hits.
+     */
+    void addHits(SearchContext shard, long maxHits) {
+        rowCount += shard.rowCount;
+        for (int i = 0; i < shard.hitCount && hitCount < maxHits; i++) {
+            addHit(shard.hits[i], shard.hitContigs[i]);
+        }
+    }
+
+    /**
+     * Adds the work the search of a shard did for the read to the work of this context.
+     */
+    void addWork(SearchContext shard) {
+        steps += shard.steps;
+        backtracks += shard.backtracks;
+        stoppedEarly |= shard.stoppedEarly;
+        rankCalls += shard.rankCalls;
+        lfSteps += shard.lfSteps;
+        backtrackDepth = Math.max(backtrackDepth, shard.backtrackDepth);
+    }
+
+    /**
+     * @return Returns whether the context of a shard aligned the read to the same bases, on the same strand, as this
+     * context did, both without gaps.
+     */
+    boolean isSameAlignment(SearchContext shard) {
+        if (gapped || shard.gapped || bestReverse != shard.bestReverse) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (alignedBase(i) != shard.alignedBase(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Returns the base the position of the read, on its strand, aligned to.
+     */
+    private int alignedBase(int position) {
+        //Step t consumed read[length - 1 - t], or read[t] in the mirror index.
+        return bestBase[bestMirrored ? position : length - 1 - position];
+    }
+
+    /**
+     * @return Returns the number of reference bases the alignment covers.
+     */
+    long referenceSpan() {
+        if (!gapped) {
+            return length;
+        }
+        long span = 0;
+        for (int i = 0; i < cigarCount; i++) {
+            if (cigarOps[i] != 'I') {
+                span += cigarLengths[i];
+            }
+        }
+        return span;
+    }
+
+    /**
+     * @return Returns the CIGAR of the alignment with gaps of the last read, like 40M2D60M.
+     */
+    public String getCigar() {
+        StringBuilder cigar = new StringBuilder();
+        for (int i = 0; i < cigarCount; i++) {
+            cigar.append(cigarLengths[i]).append((char) cigarOps[i]);
+        }
+        return cigar.toString();
+    }
+
+    /**
+     * Adds an operation in front of the CIGAR, which the trace back builds from its end.
+     */
+    void addCigar(char op) {
+        if (cigarCount > 0 && cigarOps[cigarCount - 1] == op) {
+            cigarLengths[cigarCount - 1]++;
+            return;
+        }
+        if (cigarCount == cigarOps.length) {
+            byte[] ops = new byte[2 * cigarOps.length];
+            System.arraycopy(cigarOps, 0, ops, 0, cigarCount);
+            cigarOps = ops;
+            int[] lengths = new int[2 * cigarLengths.length];
+            System.arraycopy(cigarLengths, 0, lengths, 0, cigarCount);
+            cigarLengths = lengths;
+        }
+        cigarOps[cigarCount] = (byte) op;
+        cigarLengths[cigarCount++] = 1;
+    }
+
+    /**
+     * Puts the CIGAR the trace back built from its end in order.
+     */
+    void reverseCigar() {
+        for (int i = 0, j = cigarCount - 1; i < j; i++, j--) {
+            byte op = cigarOps[i];
+            cigarOps[i] = cigarOps[j];
+            cigarOps[j] = op;
+            int length = cigarLengths[i];
+            cigarLengths[i] = cigarLengths[j];
+            cigarLengths[j] = length;
+        }
+    }
+
+    void addCandidate(long start) {
+        if (candidateCount == candidates.length) {
+            long[] larger = new long[2 * candidates.length];
+            System.arraycopy(candidates, 0, larger, 0, candidateCount);
+            candidates = larger;
+        }
+        candidates[candidateCount++] = start;
+    }
+
+    /**
+     * Makes the scratch of SeedExtender large enough for a band of the width over a read of the length.
+     */
+    void ensureBand(int length, int width, int windowLength) {
+        if (window.length < windowLength) {
+            window = new byte[windowLength];
+        }
+        int cells = (length + 1) * width;
+        if (scoreH.length < cells) {
+            scoreH = new int[cells];
+            scoreE = new int[cells];
+            scoreF = new int[cells];
+        }
+    }
+
+    private void ensureLength(int length) {
+        if (read.length >= length) {
+            return;
+        }
+        int size = Math.max(length, 2 * read.length);
+        exactDepth = 0;
+        exactLow = new long[size];
+        exactHigh = new long[size];
+        otherExactDepth = 0;
+        otherRead = new byte[size];
+        otherQuality = new byte[size];
+        otherExactLow = new long[size];
+        otherExactHigh = new long[size];
+        read = new byte[size];
+        quality = new byte[size];
+        low = new long[size];
+        high = new long[size];
+        base = new byte[size];
+        tried = new byte[size];
+        mismatches = new int[size];
+        seedMismatches = new int[size];
+        qualitySum = new int[size];
+        kmer = new int[size];
+        bestBase = new byte[size];
+    }
+}
@@ -0,0 +1,170 @@
+package search;
+
+import metrics.Histogram;
+
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Run level metrics of the alignments : how many reads ended for every exit reason, how many were found in the read
+ * cache and how many were looked up there in vain, and histograms of the latency
+ * of the reads and of the work done for them, rank calls, LF steps, backtracks and backtrack depth, see the
+ * counters of SearchContext.
+ *
+ * Every thread records into histograms of its own, under a lock only the snapshot contends for, and a snapshot adds
+ * them up. The histograms count from the start of the run.
+ */
+public class SearchMetrics {
+
+    public enum Format {
+        JSON,
+        //The text exposition format of Prometheus, every histogram as a summary.
+        PROMETHEUS
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] JSON_NAMES = {"p50", "p90", "p99", "p999"};
+    private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+    private static final String PREFIX = "bowtie_read_";
+
+    private final CopyOnWriteArrayList<Recorder> recorders = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Recorder> recorder = ThreadLocal.withInitial(() -> {
+        Recorder created = new Recorder();
+        recorders.add(created);
+        return created;
+    });
+
+    /**
+     * Records the last read aligned with the context.
+     * @param nanos The time its alignment took.
+     */
+    public void record(SearchContext context, long nanos) {
+        recorder.get().record(context, nanos);
+    }
+
+    /**
+     * @return Returns the metrics of all the threads added up, in the format.
+     */
+    public String export(Format format) {
+        Recorder total = new Recorder();
+        for (Recorder threadRecorder : recorders) {
+            threadRecorder.addTo(total);
+        }
+        StringBuilder out = new StringBuilder();
+        if (format == Format.JSON) {
+            total.appendJson(out);
+        } else {
+            total.appendPrometheus(out);
+        }
+        return out.toString();
+    }
+
+    private static final class Recorder {
+        private final long[] exitReasons = new long[ExitReason.values().length];
+        //Reads looked up in the read cache, found there or not.
+        private long cacheHits;
+        private long cacheMisses;
+        private final Histogram latency = new Histogram();
+        private final Histogram rankCalls = new Histogram();
+        private final Histogram lfSteps = new Histogram();
+        private final Histogram backtracks = new Histogram();
+        private final Histogram backtrackDepth = new Histogram();
+
+        synchronized void record(SearchContext context, long nanos) {
+            if (context.exitReason != null) {
+                exitReasons[context.exitReason.ordinal()]++;
+            }
+            if (context.cacheChecked) {
+                if (context.cacheHit) {
+                    cacheHits++;
+                } else {
+                    cacheMisses++;
+                }
+            }
+            latency.record(Math.max(0, nanos));
+            rankCalls.record(context.rankCalls);
+            lfSteps.record(context.lfSteps);
+            backtracks.record(context.backtracks);
+            backtrackDepth.record(context.backtrackDepth);
+        }
+
+        synchronized void addTo(Recorder total) {
+            for (int i = 0; i < exitReasons.length; i++) {
+                total.exitReasons[i] += exitReasons[i];
+            }
+            total.cacheHits += cacheHits;
+            total.cacheMisses += cacheMisses;
+            total.latency.add(latency);
+            total.rankCalls.add(rankCalls);
+            total.lfSteps.add(lfSteps);
+            total.backtracks.add(backtracks);
+            total.backtrackDepth.add(backtrackDepth);
+        }
+
+        void appendJson(StringBuilder out) {
+            out.append("{\"reads\":").append(latency.getCount()).append(",\"exitReasons\":{");
+            ExitReason[] reasons = ExitReason.values();
+            for (int i = 0; i < reasons.length; i++) {
+                out.append(i == 0 ? "" : ",").append('"').append(reasons[i]).append("\":").append(exitReasons[i]);
+            }
+            out.append('}');
+            out.append(",\"readCache\":{\"hits\":").append(cacheHits).append(",\"misses\":").append(cacheMisses)
+                    .append('}');
+            appendJson(out, "latencyNanos", latency);
+            appendJson(out, "rankCalls", rankCalls);
+            appendJson(out, "lfSteps", lfSteps);
+            appendJson(out, "backtracks", backtracks);
+            appendJson(out, "backtrackDepth", backtrackDepth);
+            out.append("}\n");
+        }
+
+        private static void appendJson(StringBuilder out, String name, Histogram histogram) {
+            out.append(",\"").append(name).append("\":{\"mean\":")
+                    .append(String.format(Locale.ROOT, "%.2f", histogram.getMean()));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                out.append(",\"").append(JSON_NAMES[i]).append("\":")
+                        .append(histogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+            out.append(",\"max\":").append(histogram.getMax()).append('}');
+        }
+
+        void appendPrometheus(StringBuilder out) {
+            out.append("# HELP ").append(PREFIX).append("exits_total Reads aligned, by why their alignment stopped.\n");
+            out.append("# TYPE ").append(PREFIX).append("exits_total counter\n");
+            ExitReason[] reasons = ExitReason.values();
+            for (int i = 0; i < reasons.length; i++) {
+                out.append(PREFIX).append("exits_total{reason=\"").append(reasons[i].name().toLowerCase(Locale.ROOT))
+                        .append("\"} ").append(exitReasons[i]).append('\n');
+            }
+            out.append("# HELP ").append(PREFIX).append("cache_lookups_total Reads looked up in the read cache, by")
+                    .append(" whether their outcome was found.\n");
+            out.append("# TYPE ").append(PREFIX).append("cache_lookups_total counter\n");
+            out.append(PREFIX).append("cache_lookups_total{result=\"hit\"} ").append(cacheHits).append('\n');
+            out.append(PREFIX).append("cache_lookups_total{result=\"miss\"} ").append(cacheMisses).append('\n');
+            appendSummary(out, "latency_seconds", "Time taken to align a read.", latency, 1e-9);
+            appendSummary(out, "rank_calls", "Rank calls of the search of a read.", rankCalls, 1);
+            appendSummary(out, "lf_steps", "LF steps walked to locate the hits of a read.", lfSteps, 1);
+            appendSummary(out, "backtracks", "Times the search of a read went back a step.", backtracks, 1);
+            appendSummary(out, "backtrack_depth", "Deepest step the search of a read went back from.",
+                    backtrackDepth, 1);
+        }
+
+        private static void appendSummary(StringBuilder out, String name, String help, Histogram histogram,
+                                          double scale) {
+            String metric = PREFIX + name;
+            out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(metric).append(" summary\n");
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                out.append(metric).append("{quantile=\"").append(QUANTILES[i]).append("\"} ")
+                        .append(format(histogram.getValueAtPercentile(PERCENTILES[i]) * scale)).append('\n');
+            }
+            out.append(metric).append("_sum ").append(format(histogram.getSum() * scale)).append('\n');
+            out.append(metric).append("_count ").append(histogram.getCount()).append('\n');
+        }
+
+        private static String format(double value) {
+            return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value)
+                    : String.format(Locale.ROOT, "%.6g", value);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package search;
+
+/**
+ * How many mismatches an alignment may have and where.
+ *
+ * End to end : at most a number of mismatches anywhere in the read, the quality scores are not looked at.
+ * The search goes through the strata of 0, 1, ... mismatches and stops at the first alignment found.
+ *
+ * Seed : at most a number of mismatches in the seed, the first bases of the read, and a ceiling on the sum of
+ * the quality scores at all the mismatched positions. The search reports the first alignment found, or with
+ * best the alignment with the lowest sum, pruning every branch which cannot beat the best one found so far.
+ *
+ * Both searches are depth first and deterministic, and stop after a bounded number of steps.
+ *
+ * The read and its reverse complement are both searched unless asked otherwise, the alignment reported has
+ * the strand it was found on. The reporting caps how many text positions of an alignment are located, or only
+ * counts them.
+ *
+ * With gaps allowed, the reads neither search aligns are aligned with insertions and deletions by seed and extend.
+ */
+public class SearchMode {
+
+    public static final int DEFAULT_MAX_STEPS = 200000;
+
+    private final boolean seeded;
+    private final int maxMismatches;
+    private final int seedLength;
+    private final int maxQualitySum;
+    private final int maxSteps;
+    private final boolean best;
+    private final int maxHits;
+    private final boolean countOnly;
+    private final boolean bothStrands;
+    private final int maxGaps;
+
+    private SearchMode(boolean seeded, int maxMismatches, int seedLength, int maxQualitySum, int maxSteps,
+                       boolean best, int maxHits, boolean countOnly, boolean bothStrands, int maxGaps) {
+        if (maxMismatches < 0 || maxMismatches > 3) {
+            throw new IllegalArgumentException("Between 0 and 3 mismatches are supported");
+        }
+        if (seedLength < 1 || maxQualitySum < 0 || maxSteps < 1) {
+            throw new IllegalArgumentException("Seed length, quality ceiling and step limit must be positive");
+        }
+        if (maxHits < 1) {
+            throw new IllegalArgumentException("At least one hit must be reported");
+        }
+        if (maxGaps < 0) {
+            throw new IllegalArgumentException("The number of gaps cannot be negative");
+        }
+        this.seeded = seeded;
+        this.maxMismatches = maxMismatches;
+        this.seedLength = seedLength;
+        this.maxQualitySum = maxQualitySum;
+        this.maxSteps = maxSteps;
+        this.best = best;
+        this.maxHits = maxHits;
+        this.countOnly = countOnly;
+        this.bothStrands = bothStrands;
+        this.maxGaps = maxGaps;
+    }
+
+    /**
+     * Like -v in Bowtie.
+     * @param maxMismatches The number of mismatches allowed anywhere in the read.
+     */
+    public static SearchMode endToEnd(int maxMismatches) {
+        return new SearchMode(false, maxMismatches, Integer.MAX_VALUE, Integer.MAX_VALUE, DEFAULT_MAX_STEPS,
+                true, Integer.MAX_VALUE, false, true, 0);
+    }
+
+    /**
+     * Like -n, -l and -e in Bowtie.
+     * @param seedMismatches The number of mismatches allowed in the seed.
+     * @param seedLength The number of bases at the start of the read which form the seed.
+     * @param maxQualitySum The ceiling on the sum of the quality scores at all the mismatched positions.
+     */
+    public static SearchMode seed(int seedMismatches, int seedLength, int maxQualitySum) {
+        return new SearchMode(true, seedMismatches, seedLength, maxQualitySum, DEFAULT_MAX_STEPS,
+                false, Integer.MAX_VALUE, false, true, 0);
+    }
+
+    /**
+     * The mode Bowtie uses by default, -n 2 -l 28 -e 70.
+     */
+    public static SearchMode defaultMode() {
+        return seed(2, 28, 70);
+    }
+
+    /**
+     * @param maxSteps The number of backward search steps after which the search of a read gives up.
+     * @return Returns the same mode with the given step limit.
+     */
+    public SearchMode withMaxSteps(int maxSteps) {
+        return new SearchMode(seeded, maxMismatches, seedLength, maxQualitySum, maxSteps, best, maxHits, countOnly,
+                bothStrands, maxGaps);
+    }
+
+    /**
+     * Like --best in Bowtie. End to end alignments always come from the best stratum, this makes the seeded
+     * search go on to the alignment with the lowest quality sum instead of stopping at the first one found.
+     */
+    public SearchMode withBest(boolean best) {
+        return new SearchMode(seeded, maxMismatches, seedLength, maxQualitySum, maxSteps, best, maxHits, countOnly,
+                bothStrands, maxGaps);
+    }
+
+    /**
+     * Like --norc in Bowtie when false.
+     * @param bothStrands Whether the reverse complement of the read is searched as well as the read.
+     */
+    public SearchMode withBothStrands(boolean bothStrands) {
+        return new SearchMode(seeded, maxMismatches, seedLength, maxQualitySum, maxSteps, best, maxHits, countOnly,
+                bothStrands, maxGaps);
+    }
+
+    /**
+     * Like -k in Bowtie.
+     * @param maxHits The number of text positions of an alignment which are located and reported.
+     */
+    public SearchMode withMaxHits(int maxHits) {
+        return new SearchMode(seeded, maxMismatches, seedLength, maxQualitySum, maxSteps, best, maxHits, countOnly,
+                bothStrands, maxGaps);
+    }
+
+    /**
+     * @param countOnly Whether only the number of text positions of an alignment is reported, none is located.
+     */
+    public SearchMode withCountOnly(boolean countOnly) {
+        return new SearchMode(seeded, maxMismatches, seedLength, maxQualitySum, maxSteps, best, maxHits, countOnly,
+                bothStrands, maxGaps);
+    }
+
+    /**
+     * Reads the mismatch search cannot align are seeded with exact matches and extended against the reference of
+     * the index with gaps, see SeedExtender.
+     * @param maxGaps The number of gaps, inserted or deleted bases, an alignment may have, 0 for none.
+     */
+    public SearchMode withMaxGaps(int maxGaps) {
+        return new SearchMode(seeded, maxMismatches, seedLength, maxQualitySum, maxSteps, best, maxHits, countOnly,
+                bothStrands, maxGaps);
+    }
+
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    /**
+     * @return Returns the mismatches allowed in the whole read end to end, or in the seed.
+     */
+    public int getMaxMismatches() {
+        return maxMismatches;
+    }
+
+    public int getSeedLength() {
+        return seedLength;
+    }
+
+    public int getMaxQualitySum() {
+        return maxQualitySum;
+    }
+
+    public int getMaxSteps() {
+        return maxSteps;
+    }
+
+    public boolean isBest() {
+        return best;
+    }
+
+    public int getMaxHits() {
+        return maxHits;
+    }
+
+    public boolean isCountOnly() {
+        return countOnly;
+    }
+
+    public boolean isBothStrands() {
+        return bothStrands;
+    }
+
+    public int getMaxGaps() {
+        return maxGaps;
+    }
+}
@@ -0,0 +1,260 @@
+package search;
+
+import index.FMIndex;
+import index.LocateCache;
+
+/**
+ * Aligns reads with insertions and deletions, which the backtracking search cannot align : exact seeds of the read
+ * are searched in the index and located, and every position they put the read at is extended against the reference
+ * with a banded alignment allowing gaps. The read is aligned end to end, the best scoring alignment is kept.
+ *
+ * Scores are those of Bowtie 2 end to end : 0 for a match, -6 for a mismatch, -5 - 3 * length for a gap, and an
+ * alignment must score at least -0.6 - 0.6 * length of the read.
+ *
+ * The extension is a plain banded dynamic programming alignment with affine gaps, filled row by row, a row per base
+ * of the read and 2 * band + 1 cells across. Every row is filled in two passes : first the diagonal and the gaps
+ * along the read, which only come from the row before, then the gaps along the reference, which come from the cell
+ * before in the same row.
+ */
+class SeedExtender {
+
+    private static final int SEED_LENGTH = 20;
+    private static final int SEED_INTERVAL = 10;
+    //Seeds with more hits than this are repeats and are not extended.
+    private static final int MAX_SEED_HITS = 32;
+
+    private static final int MATCH = 0;
+    private static final int MISMATCH = -6;
+    private static final int GAP_OPEN = -8;
+    private static final int GAP_EXTEND = -3;
+    private static final int NONE = Integer.MIN_VALUE / 2;
+    //A base of the window past an end of the reference, which matches nothing.
+    private static final byte OUTSIDE = 4;
+
+    private final FMIndex index;
+    private final LocateCache cache;
+    private final int band;
+
+    /**
+     * @param band The number of gaps, inserted or deleted bases, an alignment may have, which is also the distance
+     * from the diagonal of a seed the band covers. The band alone bounds the distance, so gaps which make up for
+     * each other are counted on the alignment.
+     */
+    SeedExtender(FMIndex index, LocateCache cache, int band) {
+        this.index = index;
+        this.cache = cache;
+        this.band = band;
+    }
+
+    /**
+     * Aligns the read prepared in the context on both strands, keeping the best alignment in the context.
+     * @return Returns whether the read aligned.
+     */
+    boolean align(SearchContext context, boolean bothStrands) {
+        if (!index.hasReference() || context.length < SEED_LENGTH) {
+            return false;
+        }
+        context.bestScore = NONE;
+        context.candidateCount = 0;
+        collectCandidates(context, false);
+        int forward = context.candidateCount;
+        if (bothStrands) {
+            collectCandidates(context, true);
+        }
+
+        for (int i = 0; i < context.candidateCount; i++) {
+            context.useStrand(i >= forward);
+            extend(context, context.candidates[i]);
+        }
+        context.useStrand(false);
+        return context.bestScore != NONE;
+    }
+
+    /**
+     * Adds the start of the read on the reference implied by every hit of every seed of the strand, once.
+     */
+    private void collectCandidates(SearchContext context, boolean reverse) {
+        context.useStrand(reverse);
+        int length = context.length;
+        int firstCandidate = context.candidateCount;
+        for (int offset = 0; offset + SEED_LENGTH <= length; offset += SEED_INTERVAL) {
+            //Backward search of the seed, from its last base.
+            long low = 0;
+            long high = index.getLength();
+            for (int i = offset + SEED_LENGTH - 1; i >= offset && low <= high; i--) {
+                int base = context.read[i];
+                long offsetOfBase = index.getOffset(base);
+                low = offsetOfBase + index.getRank(base, low - 1) + 1;
+                high = offsetOfBase + index.getRank(base, high);
+                context.rankCalls += 2;
+            }
+            if (low > high || high - low + 1 > MAX_SEED_HITS) {
+                continue;
+            }
+
+            for (long row = low; row <= high; row++) {
+                long position = cache == null ? -1 : cache.get(row);
+                if (position < 0) {
+                    long walked = index.locate(row);
+                    position = FMIndex.locatedPosition(walked);
+                    context.lfSteps += FMIndex.locatedSteps(walked);
+                    if (cache != null) {
+                        cache.put(row, position);
+                    }
+                }
+                addCandidate(context, firstCandidate, position - offset);
+            }
+        }
+    }
+
+    private void addCandidate(SearchContext context, int firstCandidate, long start) {
+        //Starts within the band of one already added are covered by its extension.
+        for (int i = firstCandidate; i < context.candidateCount; i++) {
+            if (Math.abs(context.candidates[i] - start) <= band / 2) {
+                return;
+            }
+        }
+        context.addCandidate(start);
+    }
+
+    /**
+     * Aligns the read end to end within the band around the start, keeping it when it beats the best alignment.
+     */
+    private void extend(SearchContext context, long start) {
+        int length = context.length;
+        int width = 2 * band + 1;
+        long windowStart = start - band;
+        int windowLength = length + 2 * band;
+        context.ensureBand(length, width, windowLength);
+
+        byte[] window = context.window;
+        long referenceLength = index.getLength();
+        for (int j = 0; j < windowLength; j++) {
+            long position = windowStart + j;
+            window[j] = position < 0 || position >= referenceLength ? OUTSIDE : (byte) index.getReferenceBase(position);
+        }
+
+        //Cell (i, b) aligns the first i bases of the read, ending at base i + b of the window.
+        int[] h = context.scoreH;
+        int[] e = context.scoreE;
+        int[] f = context.scoreF;
+        for (int b = 0; b < width; b++) {
+            //The read starts anywhere in the window, but not before the reference.
+            h[b] = windowStart + b < 0 ? NONE : 0;
+            e[b] = NONE;
+            f[b] = NONE;
+        }
+        byte[] read = context.read;
+        for (int i = 1; i <= length; i++) {
+            int row = i * width;
+            int above = row - width;
+            int base = read[i - 1];
+
+            //Pass 1 : the diagonal and the gaps along the read, which come from the row before.
+            for (int b = 0; b < width; b++) {
+                int diagonal = h[above + b] + (window[i - 1 + b] == base ? MATCH : MISMATCH);
+                int gap = b + 1 < width ? Math.max(h[above + b + 1] + GAP_OPEN, f[above + b + 1] + GAP_EXTEND) : NONE;
+                f[row + b] = gap;
+                h[row + b] = Math.max(diagonal, gap);
+            }
+
+            //Pass 2 : the gaps along the reference, from the cell before in the row.
+            int gap = NONE;
+            e[row] = NONE;
+            for (int b = 1; b < width; b++) {
+                gap = Math.max(h[row + b - 1] + GAP_OPEN, gap + GAP_EXTEND);
+                e[row + b] = gap;
+                if (gap > h[row + b]) {
+                    h[row + b] = gap;
+                }
+            }
+        }
+
+        //The read ends anywhere in the window, but not after the reference.
+        int last = length * width;
+        int best = -1;
+        int score = NONE;
+        for (int b = 0; b < width && windowStart + length + b <= referenceLength; b++) {
+            if (h[last + b] > score) {
+                score = h[last + b];
+                best = b;
+            }
+        }
+        int minScore = -(int) (0.6 + 0.6 * length);
+        if (best < 0 || score < minScore || score <= context.bestScore
+                || traceBack(context, best, windowStart, score, false) > band) {
+            return;
+        }
+        traceBack(context, best, windowStart, score, true);
+    }
+
+    /**
+     * Walks the alignment ending at column b of the last row back to the start of the read.
+     * @param keep Whether to keep the alignment as the best one, with its CIGAR, or only count its gaps.
+     * @return Returns the number of inserted and deleted bases of the alignment.
+     */
+    private int traceBack(SearchContext context, int b, long windowStart, int score, boolean keep) {
+        int width = 2 * band + 1;
+        int[] h = context.scoreH;
+        int[] e = context.scoreE;
+        int[] f = context.scoreF;
+        byte[] read = context.read;
+        byte[] window = context.window;
+
+        if (keep) {
+            context.cigarCount = 0;
+        }
+        int edits = 0;
+        int gaps = 0;
+        //0 when in h, 1 when in a gap along the read, 2 when in a gap along the reference.
+        int state = 0;
+        int i = context.length;
+        while (i > 0) {
+            int cell = i * width + b;
+            if (state == 0) {
+                int diagonal = h[cell - width] + (window[i - 1 + b] == read[i - 1] ? MATCH : MISMATCH);
+                if (h[cell] == diagonal) {
+                    if (window[i - 1 + b] != read[i - 1]) {
+                        edits++;
+                    }
+                    if (keep) {
+                        context.addCigar('M');
+                    }
+                    i--;
+                    continue;
+                }
+                state = h[cell] == f[cell] ? 1 : 2;
+            }
+            edits++;
+            gaps++;
+            if (state == 1) {
+                //An insertion, a base of the read against no base of the reference.
+                if (keep) {
+                    context.addCigar('I');
+                }
+                state = f[cell] == h[cell - width + 1] + GAP_OPEN ? 0 : 1;
+                i--;
+                b++;
+            } else {
+                if (keep) {
+                    context.addCigar('D');
+                }
+                state = e[cell] == h[cell - 1] + GAP_OPEN ? 0 : 2;
+                b--;
+            }
+        }
+        if (!keep) {
+            return gaps;
+        }
+        context.reverseCigar();
+
+        context.bestScore = score;
+        context.bestMismatches = edits;
+        context.bestReverse = context.reverseStrand;
+        context.hitCount = 0;
+        context.addHit(windowStart + b);
+        context.rowCount = 1;
+        context.gapped = true;
+        return gaps;
+    }
+}
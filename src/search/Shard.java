@@ -0,0 +1,99 @@
+package search;
+
+import index.FMIndex;
+import index.LocateCache;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * A shard of the index, the index of some contigs of the reference with its mirror, its caches of located rows and
+ * its seed extender. A shard which is not pinned is only loaded on its first search, so the shards a run does not
+ * search take no memory, and a pinned one is read into memory up front.
+ */
+final class Shard {
+
+    private final String path;
+    private final SearchMode mode;
+    private final int locateCacheSize;
+
+    //Set once by load, and read after loaded, which publishes them.
+    private FMIndex index;
+    private FMIndex mirror;
+    private LocateCache cache;
+    private LocateCache mirrorCache;
+    private SeedExtender extender;
+    private volatile boolean loaded = false;
+
+    /**
+     * @param path The directory of the index of the shard.
+     */
+    Shard(String path, SearchMode mode, int locateCacheSize) {
+        this.path = path;
+        this.mode = mode;
+        this.locateCacheSize = locateCacheSize;
+    }
+
+    /**
+     * Loads the index of the shard unless it already is.
+     * @param preload Whether the index files are read into memory now.
+     */
+    synchronized void load(boolean preload) throws IOException {
+        if (loaded) {
+            return;
+        }
+        index = FMIndex.load(path, false, preload);
+        mirror = FMIndex.loadMirror(path, preload);
+        cache = locateCacheSize > 0 ? new LocateCache(locateCacheSize) : null;
+        mirrorCache = locateCacheSize > 0 && mirror != null ? new LocateCache(locateCacheSize) : null;
+        extender = mode.getMaxGaps() > 0 ? new SeedExtender(index, cache, mode.getMaxGaps()) : null;
+        loaded = true;
+    }
+
+    /**
+     * @return Returns the shard, loaded on its first use.
+     */
+    Shard loaded() {
+        if (!loaded) {
+            try {
+                load(false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot load the shard " + path, e);
+            }
+        }
+        return this;
+    }
+
+    boolean isLoaded() {
+        return loaded;
+    }
+
+    FMIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return Returns the index of the reversed contigs, null when the shard was built without it.
+     */
+    FMIndex getMirror() {
+        return mirror;
+    }
+
+    /**
+     * @return Returns the cache of located rows of the index, null when not caching.
+     */
+    LocateCache getCache() {
+        return cache;
+    }
+
+    LocateCache getMirrorCache() {
+        return mirrorCache;
+    }
+
+    /**
+     * @return Returns the seed extender of the index, null when the mode allows no gaps.
+     */
+    SeedExtender getExtender() {
+        return extender;
+    }
+}
@@ -0,0 +1,196 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the rank, the last column and the locate of every layout against the suffix array sorted one suffix at a
+ * time.
+ */
+class FMIndexTest {
+
+    //Random bases with a 60 base repeat every 500 bases, so some suffixes share long prefixes.
+    private static final String BASES = References.randomBases(new Random(11), 5000, 60, 500);
+
+    @TempDir
+    File dir;
+
+    @Test
+    void checkpointLayout() throws IOException {
+        for (int distance : new int[]{1, 7, 30, 64, 255}) {
+            File sub = new File(dir, "d" + distance);
+            assertTrue(sub.mkdir());
+            FMIndex index = build(new IndexBuilder().setCheckpointDistance(distance), sub);
+            assertEquals(distance, index.getCheckpointDistance());
+            assertMatchesSuffixArray(index);
+        }
+    }
+
+    @Test
+    void packedLayout() throws IOException {
+        FMIndex index = build(new IndexBuilder().setPackedOccurrences(true), dir);
+        assertTrue(index.getConfig().isPackedOccurrences());
+        assertMatchesSuffixArray(index);
+    }
+
+    @Test
+    void sampledByTextPosition() throws IOException {
+        for (int distance : new int[]{1, 5, 32, 255}) {
+            File sub = new File(dir, "s" + distance);
+            assertTrue(sub.mkdir());
+            FMIndex index = build(new IndexBuilder().setSuffixDistance(distance), sub);
+            assertEquals(distance, index.getSuffixDistance());
+            assertMatchesSuffixArray(index);
+            long[] suffixArray = References.suffixArray(BASES);
+            for (int row = 0; row < suffixArray.length; row++) {
+                long sampled = suffixArray[row] % distance == 0 ? suffixArray[row] : -1;
+                assertEquals(sampled, index.getSampledSuffixPosition(row), "sample of row " + row);
+            }
+        }
+    }
+
+    @Test
+    void sampledByRow() throws IOException {
+        FMIndex index = build(new IndexBuilder().setSampleByRow(true).setSuffixDistance(16), dir);
+        assertTrue(index.getConfig().isSampledByRow());
+        assertMatchesSuffixArray(index);
+
+        File packed = new File(dir, "packed");
+        assertTrue(packed.mkdir());
+        assertMatchesSuffixArray(build(new IndexBuilder().setSampleByRow(true).setPackedOccurrences(true), packed));
+    }
+
+    @Test
+    void mirrorOfTheReversedText() throws IOException {
+        File index = References.build(new IndexBuilder().setMirror(true).setCheckpointDistance(13), dir, "chr1", BASES);
+        assertMatchesSuffixArray(FMIndex.load(index.getPath(), true));
+        FMIndex mirror = FMIndex.loadMirror(index.getPath());
+        assertFalse(mirror.hasReference());
+        assertMatchesSuffixArray(mirror, new StringBuilder(BASES).reverse().toString());
+    }
+
+    @Test
+    void kmerTable() throws IOException {
+        long[] suffixArray = References.suffixArray(BASES);
+        for (int k = 1; k <= 5; k++) {
+            File sub = new File(dir, "k" + k);
+            assertTrue(sub.mkdir());
+            FMIndex index = build(new IndexBuilder().setKmerLength(k), sub);
+            assertEquals(k, index.getKmerLength());
+            assertMatchesSuffixArray(index);
+            for (int code = 0; code < 1 << (2 * k); code++) {
+                StringBuilder kmer = new StringBuilder();
+                for (int i = 0; i < k; i++) {
+                    kmer.append("ACGT".charAt((code >>> (2 * i)) & 3));
+                }
+                long first = -1;
+                long last = -1;
+                for (int row = 0; row < suffixArray.length; row++) {
+                    if (BASES.startsWith(kmer.toString(), (int) suffixArray[row])) {
+                        first = first < 0 ? row : first;
+                        last = row;
+                    }
+                }
+                if (first < 0) {
+                    assertTrue(index.getKmerFirstRow(code) > index.getKmerLastRow(code), kmer.toString());
+                } else {
+                    assertEquals(first, index.getKmerFirstRow(code), kmer.toString());
+                    assertEquals(last, index.getKmerLastRow(code), kmer.toString());
+                }
+            }
+        }
+    }
+
+    @Test
+    void longAddressing() throws IOException {
+        for (int distance : new int[]{1, 5, 32}) {
+            File sub = new File(dir, "long" + distance);
+            assertTrue(sub.mkdir());
+            File index = References.build(new IndexBuilder().setLongAddressing(true).setMirror(true)
+                    .setSuffixDistance(distance), sub, "chr1", BASES);
+            FMIndex forward = FMIndex.load(index.getPath(), true);
+            assertTrue(forward.getConfig().isLongAddressing());
+            assertTrue(forward.getConfig().isPackedOccurrences());
+            assertMatchesSuffixArray(forward);
+            FMIndex mirror = FMIndex.loadMirror(index.getPath());
+            assertTrue(mirror.getConfig().isLongAddressing());
+            assertMatchesSuffixArray(mirror, new StringBuilder(BASES).reverse().toString());
+        }
+
+        //Only the packed layout sampled by text position is addressed with longs.
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> build(new IndexBuilder().setLongAddressing(true).setKmerLength(4), dir));
+        assertTrue(e.getMessage().startsWith("An index addressed with longs"), e.getMessage());
+    }
+
+    @Test
+    void legacyFiles() throws IOException {
+        FMIndex index = build(new IndexBuilder().setLegacyFormat(true).setCheckpointDistance(20), dir);
+        assertMatchesSuffixArray(index);
+    }
+
+    @Test
+    void shortTexts() throws IOException {
+        for (String bases : new String[]{"A", "GT", "ACGTACGTAC", "TTTTTTTTTTTTTTTTTTTT"}) {
+            File sub = new File(dir, bases);
+            assertTrue(sub.mkdir());
+            File index = References.build(new IndexBuilder().setCheckpointDistance(3).setSuffixDistance(2), sub,
+                    "chr1", bases);
+            assertMatchesSuffixArray(FMIndex.load(index.getPath(), true), bases);
+        }
+    }
+
+    private FMIndex build(IndexBuilder builder, File dir) throws IOException {
+        return FMIndex.load(References.build(builder, dir, "chr1", BASES).getPath(), true);
+    }
+
+    static void assertMatchesSuffixArray(FMIndex index) {
+        assertMatchesSuffixArray(index, BASES);
+    }
+
+    /**
+     * Checks every row of the index : its base in the last column, the rank of every base up to it, and the text
+     * position it locates, with the LF steps walked bounded for a sampling by text position.
+     */
+    static void assertMatchesSuffixArray(FMIndex index, String bases) {
+        long[] suffixArray = References.suffixArray(bases);
+        assertEquals(bases.length(), index.getLength());
+        long[] ranks = new long[4];
+        for (int base = 0; base < 4; base++) {
+            assertEquals(0, index.getRank(base, -1));
+        }
+        for (int row = 0; row < suffixArray.length; row++) {
+            int position = (int) suffixArray[row];
+            int base = position == 0 ? -1 : "ACGT".indexOf(bases.charAt(position - 1));
+            assertEquals(base, index.getBase(row), "base of row " + row);
+            if (base >= 0) {
+                ranks[base]++;
+            }
+            for (int b = 0; b < 4; b++) {
+                assertEquals(ranks[b], index.getRank(b, row), "rank of " + b + " at row " + row);
+            }
+            long located = index.locate(row);
+            assertEquals(position, FMIndex.locatedPosition(located), "position of row " + row);
+            if (!index.getConfig().isSampledByRow()) {
+                assertTrue(FMIndex.locatedSteps(located) < index.getSuffixDistance(), "steps of row " + row);
+            }
+        }
+        for (int base = 0; base < 4; base++) {
+            long first = 1;
+            for (int b = 0; b < base; b++) {
+                first += ranks[b];
+            }
+            assertEquals(first, index.getFirstRow(base));
+            assertEquals(first + ranks[base] - 1, index.getLastRow(base));
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexBuilderTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void writesTheLegacyFiles() throws Exception {
+        Random random = new Random(3);
+        String first = References.randomBases(random, 3000, 50, 700);
+        String second = References.randomBases(random, 2000, 0, 0);
+        File index = References.build(new IndexBuilder().setLegacyFormat(true).setCheckpointDistance(7)
+                .setSuffixDistance(5), dir, "chr1", first, "chr2", second);
+
+        //The records are concatenated into one text.
+        String text = first + second;
+        long[] suffixArray = References.suffixArray(text);
+        char[] lastCol = (char[]) read(index, "lastColFile");
+        assertEquals(suffixArray.length, lastCol.length);
+        for (int row = 0; row < suffixArray.length; row++) {
+            char expected = suffixArray[row] == 0 ? '$' : text.charAt((int) suffixArray[row] - 1);
+            assertEquals(expected, lastCol[row], "last column at row " + row);
+        }
+
+        int[] counts = new int[4];
+        int[][] tally = (int[][]) read(index, "tally");
+        for (int row = 0; row < lastCol.length; row++) {
+            int base = "ACGT".indexOf(lastCol[row]);
+            if (base >= 0) {
+                counts[base]++;
+            }
+            if (row % 7 == 0) {
+                for (int b = 0; b < 4; b++) {
+                    assertEquals(counts[b], tally[b][row / 7], "tally of " + b + " at row " + row);
+                }
+            }
+        }
+
+        Map<Integer, Integer> sampled = new HashMap<>();
+        for (int row = 0; row < suffixArray.length; row++) {
+            if (suffixArray[row] % 5 == 0) {
+                sampled.put(row, (int) suffixArray[row]);
+            }
+        }
+        assertEquals(sampled, read(index, "sa"));
+
+        //The first row of every base, after the sentinel in row 0, and the distances.
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(new File(index, "extradata")))) {
+            int[] firstCol = (int[]) in.readObject();
+            int start = 1;
+            for (int base = 0; base < 4; base++) {
+                assertEquals(start, firstCol[base]);
+                start += counts[base];
+            }
+            assertEquals(start, firstCol[4]);
+            assertEquals(7, in.read());
+            assertEquals(5, in.read());
+        }
+    }
+
+    @Test
+    void keepsTheCoordinatesOfOtherBases() throws Exception {
+        Random random = new Random(4);
+        StringBuilder bases = new StringBuilder(References.randomBases(random, 3000, 0, 0));
+        for (int i = 1000; i < 1100; i++) {
+            bases.setCharAt(i, 'N');
+        }
+        bases.setCharAt(2000, 'n');
+        File index = References.build(new IndexBuilder().setLegacyFormat(true), dir, "chr1", bases.toString());
+
+        char[] lastCol = (char[]) read(index, "lastColFile");
+        assertEquals(3001, lastCol.length);
+        int[] counts = new int[4];
+        for (char base : lastCol) {
+            if (base != '$') {
+                counts["ACGT".indexOf(base)]++;
+            }
+        }
+        //The other bases became A, C, G or T, the bases around them are kept.
+        assertEquals(3000, counts[0] + counts[1] + counts[2] + counts[3]);
+        for (int base = 0; base < 4; base++) {
+            char symbol = "ACGT".charAt(base);
+            long kept = bases.chars().filter(c -> c == symbol).count();
+            assertTrue(counts[base] >= kept && counts[base] <= kept + 101, "count of " + symbol);
+        }
+    }
+
+    @Test
+    void indexesEveryRecordAsAContig() throws IOException {
+        Random random = new Random(3);
+        String first = References.randomBases(random, 3000, 0, 0);
+        String second = References.randomBases(random, 2000, 0, 0);
+        File index = References.build(new IndexBuilder(), dir, "chr1 first contig", first, "chr2", second);
+
+        ContigTable contigs = ContigTable.read(index);
+        assertEquals(2, contigs.size());
+        assertEquals("chr1", contigs.getName(0));
+        assertEquals("chr2", contigs.getName(1));
+        assertEquals(3000, contigs.getLength(0));
+        assertEquals(2000, contigs.getLength(1));
+        assertEquals(3000, contigs.getStart(1));
+        assertEquals(1, contigs.find(0, 3000));
+
+        FMIndex fmIndex = FMIndex.load(index.getPath(), true);
+        assertEquals(5000, fmIndex.getLength());
+        String text = first + second;
+        for (int i = 0; i < text.length(); i++) {
+            assertEquals("ACGT".indexOf(text.charAt(i)), fmIndex.getReferenceBase(i), "base " + i);
+        }
+    }
+
+    @Test
+    void masksBasesOtherThanACGT() throws IOException {
+        Random random = new Random(4);
+        StringBuilder bases = new StringBuilder(References.randomBases(random, 3000, 0, 0));
+        for (int i = 1000; i < 1100; i++) {
+            bases.setCharAt(i, 'N');
+        }
+        bases.setCharAt(2000, 'R');
+        bases.setCharAt(2001, 'n');
+        File index = References.build(new IndexBuilder(), dir, "chr1", bases.toString(), "chr2",
+                References.randomBases(random, 500, 0, 0));
+
+        ContigTable contigs = ContigTable.read(index);
+        assertEquals(3000, contigs.getLength(0));
+        assertFalse(contigs.isMasked(0, 950, 50));
+        assertTrue(contigs.isMasked(0, 950, 51));
+        assertTrue(contigs.isMasked(0, 1050, 10));
+        assertTrue(contigs.isMasked(0, 1099, 30));
+        assertFalse(contigs.isMasked(0, 1100, 900));
+        assertTrue(contigs.isMasked(0, 1990, 11));
+        assertTrue(contigs.isMasked(0, 2001, 20));
+        assertFalse(contigs.isMasked(0, 2002, 998));
+        assertFalse(contigs.isMasked(1, 0, 500));
+
+        //The masked bases are still bases of the text, so the coordinates after them are kept.
+        FMIndex fmIndex = FMIndex.load(index.getPath(), true);
+        assertEquals(3500, fmIndex.getLength());
+        for (int i = 1100; i < 2000; i++) {
+            assertEquals("ACGT".indexOf(bases.charAt(i)), fmIndex.getReferenceBase(i), "base " + i);
+        }
+    }
+
+    @Test
+    void namesRecordsWithoutHeaderAfterTheFile() throws IOException {
+        File fasta = new File(dir, "sample.fa");
+        Files.write(fasta.toPath(), "ACGTACGTAC\nGGTT\n>empty\n>\nTTTTCCCCAAAAGGGG\n>last one\r\nACCA\r\n"
+                .getBytes(StandardCharsets.US_ASCII));
+        File index = new File(dir, "index");
+        new IndexBuilder().setThreads(1).build(fasta.getPath(), index.getPath());
+
+        ContigTable contigs = ContigTable.read(index);
+        assertEquals(3, contigs.size());
+        assertEquals("sample", contigs.getName(0));
+        assertEquals(14, contigs.getLength(0));
+        //Unnamed records are named after their order in the file, from 0.
+        assertEquals("contig2", contigs.getName(1));
+        assertEquals(16, contigs.getLength(1));
+        assertEquals("last", contigs.getName(2));
+        assertEquals(4, contigs.getLength(2));
+    }
+
+    @Test
+    void reportsItsProgressOnlyToTheCallback() throws IOException {
+        Random random = new Random(5);
+        List<String> messages = new ArrayList<>();
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(printed, true, StandardCharsets.US_ASCII));
+        try {
+            References.build(new IndexBuilder().setShardCount(2).setProgress(messages::add), dir, "chr1",
+                    References.randomBases(random, 2000, 0, 0), "chr2", References.randomBases(random, 1500, 0, 0));
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals("", printed.toString(StandardCharsets.US_ASCII));
+
+        //A line for every shard, then the config of its index and the time of its suffix array.
+        assertEquals(6, messages.size(), messages.toString());
+        assertEquals("Shard shard-0 : chr1", messages.get(0));
+        assertTrue(messages.get(1).startsWith("Index : "), messages.get(1));
+        assertTrue(messages.get(2).startsWith("Suffix array of 2000 bases built"), messages.get(2));
+        assertEquals("Shard shard-1 : chr2", messages.get(3));
+    }
+
+    private static Object read(File index, String name) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new FileInputStream(new File(index, name)))) {
+            return in.readObject();
+        }
+    }
+}
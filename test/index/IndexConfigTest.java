@@ -0,0 +1,110 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the distances tuning picks against every candidate, and that an index carries them into its header.
+ */
+class IndexConfigTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void picksTheCheapestDistancesFittingTheBudget() {
+        for (boolean packed : new boolean[]{false, true}) {
+            IndexConfig config = new IndexConfig(1_000_000, 30, 32, packed, IndexFile.TEXT_SAMPLING, 0, true, false);
+            for (boolean mirror : new boolean[]{false, true}) {
+                double previousCost = Double.MAX_VALUE;
+                long smallest = bytes(config.withDistances(packed ? 30 : IndexConfig.MAX_DISTANCE,
+                        IndexConfig.MAX_DISTANCE), mirror);
+                for (long budget = smallest; budget <= 40_000_000; budget += budget / 4) {
+                    IndexConfig tuned = config.tune(budget, mirror);
+                    assertTrue(bytes(tuned, mirror) <= budget);
+                    if (packed) {
+                        assertEquals(30, tuned.getCheckpointDistance());
+                    }
+                    //No candidate fitting the budget is cheaper.
+                    for (int checkpoint = 1; checkpoint <= IndexConfig.MAX_DISTANCE; checkpoint += packed ? 255 : 1) {
+                        for (int suffix = 1; suffix <= IndexConfig.MAX_DISTANCE; suffix++) {
+                            IndexConfig candidate = config.withDistances(packed ? 30 : checkpoint, suffix);
+                            assertFalse(bytes(candidate, mirror) <= budget
+                                    && candidate.estimateReadNanos() < tuned.estimateReadNanos());
+                        }
+                    }
+                    //A larger budget is never slower.
+                    assertTrue(tuned.estimateReadNanos() <= previousCost);
+                    previousCost = tuned.estimateReadNanos();
+                }
+            }
+        }
+    }
+
+    @Test
+    void refusesABudgetNoIndexFits() {
+        IndexConfig config = new IndexConfig(1_000_000, 30, 32, false, IndexFile.TEXT_SAMPLING, 0, true, false);
+        long smallest = bytes(config.withDistances(IndexConfig.MAX_DISTANCE, IndexConfig.MAX_DISTANCE), true);
+        assertEquals(smallest, bytes(config.tune(smallest, true), true));
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> config.tune(smallest - 1, true));
+        assertEquals("No index of 1000000 bases fits in " + (smallest - 1) + " bytes, the smallest takes " + smallest,
+                e.getMessage());
+    }
+
+    @Test
+    void onlyPicksDistancesTheIntLayoutHolds() {
+        //Checkpoints closer than every 12 rows, or samples closer than every 6 positions, are sections larger than
+        //a mapped buffer.
+        IndexConfig config = new IndexConfig(1_500_000_000, 30, 32, false, IndexFile.TEXT_SAMPLING, 0, true, false);
+        assertTrue(config.withDistances(1, 32).needsLongAddressing());
+        IndexConfig tuned = config.tune(Long.MAX_VALUE, false);
+        assertFalse(tuned.needsLongAddressing());
+        assertEquals(12, tuned.getCheckpointDistance());
+
+        //Addressed with longs, the closest distances are picked.
+        IndexConfig longConfig = new IndexConfig(1_500_000_000, 30, 32, true, IndexFile.TEXT_SAMPLING, 0, true, true);
+        assertEquals(1, longConfig.tune(Long.MAX_VALUE, false).getSuffixDistance());
+
+        //More rows than an int addresses, whatever the distances.
+        IndexConfig tooLong = new IndexConfig(3_000_000_000L, 30, 32, false, IndexFile.TEXT_SAMPLING, 0, true, false);
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> tooLong.tune(Long.MAX_VALUE, false));
+        assertEquals("No index of 3000000000 bases addressed with ints can be built, it needs longs", e.getMessage());
+    }
+
+    @Test
+    void loadsIndexesBuiltWithOtherDistancesSideBySide() throws IOException {
+        String bases = References.randomBases(new Random(141), 5000, 60, 500);
+        IndexConfig config = new IndexConfig(bases.length(), IndexConfig.DEFAULT_CHECKPOINT_DISTANCE,
+                IndexConfig.DEFAULT_SUFFIX_DISTANCE, false, IndexFile.TEXT_SAMPLING, 0, true, false);
+        long budget = bytes(config.withDistances(60, 60), true);
+        IndexConfig expected = config.tune(budget, true);
+
+        File tunedDir = new File(dir, "tuned");
+        File fixedDir = new File(dir, "fixed");
+        assertTrue(tunedDir.mkdir() && fixedDir.mkdir());
+        FMIndex tuned = FMIndex.load(References.build(new IndexBuilder().setMemoryBudget(budget).setMirror(true),
+                tunedDir, "chr1", bases).getPath());
+        FMIndex fixed = FMIndex.load(References.build(new IndexBuilder().setCheckpointDistance(7)
+                .setSuffixDistance(9), fixedDir, "chr1", bases).getPath());
+        assertEquals(expected.getCheckpointDistance(), tuned.getConfig().getCheckpointDistance());
+        assertEquals(expected.getSuffixDistance(), tuned.getConfig().getSuffixDistance());
+        assertEquals(7, fixed.getConfig().getCheckpointDistance());
+        assertEquals(9, fixed.getConfig().getSuffixDistance());
+        FMIndexTest.assertMatchesSuffixArray(tuned, bases);
+        FMIndexTest.assertMatchesSuffixArray(fixed, bases);
+    }
+
+    private static long bytes(IndexConfig config, boolean mirror) {
+        return config.estimateBytes() + (mirror ? config.withoutReference().estimateBytes() : 0);
+    }
+}
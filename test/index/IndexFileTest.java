@@ -0,0 +1,134 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexFileTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void readsBackWhatTheLegacyFilesHold() throws IOException {
+        String bases = References.randomBases(new Random(5), 4000, 50, 600);
+        File index = References.build(new IndexBuilder().setCheckpointDistance(17).setSuffixDistance(9), dir,
+                "chr1", bases);
+        assertTrue(new File(index, IndexFile.FILE_NAME).exists());
+        assertFalse(new File(index, "lastColFile").exists());
+        File legacyDir = new File(dir, "legacy");
+        assertTrue(legacyDir.mkdir());
+        File legacy = References.build(new IndexBuilder().setLegacyFormat(true).setCheckpointDistance(17)
+                .setSuffixDistance(9), legacyDir, "chr1", bases);
+
+        FMIndex fmIndex = FMIndex.load(index.getPath(), true);
+        FMIndex legacyIndex = FMIndex.load(legacy.getPath());
+        assertEquals(4000, fmIndex.getLength());
+        assertEquals(17, fmIndex.getCheckpointDistance());
+        assertEquals(9, fmIndex.getSuffixDistance());
+        for (int base = 0; base < 4; base++) {
+            assertEquals(legacyIndex.getFirstRow(base), fmIndex.getFirstRow(base));
+            assertEquals(legacyIndex.getLastRow(base), fmIndex.getLastRow(base));
+        }
+        for (int row = 0; row <= bases.length(); row++) {
+            assertEquals(legacyIndex.getBase(row), fmIndex.getBase(row), "base of row " + row);
+            for (int base = 0; base < 4; base++) {
+                assertEquals(legacyIndex.getRank(base, row), fmIndex.getRank(base, row), "rank at row " + row);
+            }
+            assertEquals(legacyIndex.getSuffixPosition(row), fmIndex.getSuffixPosition(row), "row " + row);
+        }
+    }
+
+    @Test
+    void readsBackTheParametersAndTheReference() throws IOException {
+        String bases = References.randomBases(new Random(5), 4000, 0, 0);
+        File index = References.build(new IndexBuilder().setCheckpointDistance(17).setSuffixDistance(9)
+                .setKmerLength(4), dir, "chr1", bases);
+        assertTrue(new File(index, IndexFile.FILE_NAME).exists());
+        assertFalse(new File(index, IndexFile.FILE_NAME + ".tmp").exists());
+
+        FMIndex fmIndex = FMIndex.load(index.getPath(), true, true);
+        IndexConfig config = fmIndex.getConfig();
+        assertEquals(4000, config.getLength());
+        assertEquals(17, config.getCheckpointDistance());
+        assertEquals(9, config.getSuffixDistance());
+        assertEquals(4, config.getKmerLength());
+        assertFalse(config.isPackedOccurrences());
+        assertFalse(config.isLongAddressing());
+        assertTrue(config.hasReference());
+        for (int i = 0; i < bases.length(); i++) {
+            assertEquals("ACGT".indexOf(bases.charAt(i)), fmIndex.getReferenceBase(i));
+        }
+    }
+
+    @Test
+    void rejectsACorruptSection() throws IOException {
+        File index = References.build(new IndexBuilder(), dir, "chr1",
+                References.randomBases(new Random(6), 4000, 0, 0));
+        File file = new File(index, IndexFile.FILE_NAME);
+        flipByte(file, file.length() / 2);
+
+        IOException e = assertThrows(IOException.class, () -> FMIndex.load(index.getPath(), true));
+        assertTrue(e.getMessage().startsWith("Checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void rejectsACorruptHeader() throws IOException {
+        File index = References.build(new IndexBuilder(), dir, "chr1",
+                References.randomBases(new Random(7), 1000, 0, 0));
+        File file = new File(index, IndexFile.FILE_NAME);
+        flipByte(file, 20);
+
+        IOException e = assertThrows(IOException.class, () -> FMIndex.load(index.getPath()));
+        assertTrue(e.getMessage().startsWith("Header checksum mismatch"), e.getMessage());
+    }
+
+    @Test
+    void rejectsATruncatedFile() throws IOException {
+        File index = References.build(new IndexBuilder(), dir, "chr1",
+                References.randomBases(new Random(8), 1000, 0, 0));
+        File file = new File(index, IndexFile.FILE_NAME);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 100);
+        }
+
+        assertThrows(IOException.class, () -> FMIndex.load(index.getPath()));
+    }
+
+    @Test
+    void leavesTheIndexFileAloneWhenNotCommitted() throws IOException {
+        File file = new File(dir, IndexFile.FILE_NAME);
+        try (IndexFile.Writer writer = new IndexFile.Writer(file)) {
+            writer.writeSection(IndexFile.LAST_COLUMN, new byte[1000]);
+            writer.commit();
+        }
+        byte[] committed = Files.readAllBytes(file.toPath());
+
+        try (IndexFile.Writer writer = new IndexFile.Writer(file)) {
+            writer.writeSection(IndexFile.LAST_COLUMN, new byte[2000]);
+        }
+        assertArrayEquals(committed, Files.readAllBytes(file.toPath()));
+        assertFalse(new File(dir, IndexFile.FILE_NAME + ".tmp").exists());
+        assertEquals(1, dir.list().length);
+    }
+
+    private static void flipByte(File file, long position) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(position);
+            int value = raf.read();
+            raf.seek(position);
+            raf.write(value ^ 0x5A);
+        }
+    }
+}
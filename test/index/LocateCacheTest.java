@@ -0,0 +1,59 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LocateCacheTest {
+
+    @Test
+    void keepsThePositionsPut() {
+        LocateCache cache = new LocateCache(1024);
+        assertEquals(-1, cache.get(5));
+        cache.put(5, 50);
+        cache.put(6, 60);
+        assertEquals(50, cache.get(5));
+        assertEquals(60, cache.get(6));
+        cache.put(5, 55);
+        assertEquals(55, cache.get(5));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void holdsAtMostItsCapacity() {
+        LocateCache cache = new LocateCache(64);
+        for (long row = 0; row < 10000; row++) {
+            cache.put(row, 7 * row);
+            assertEquals(7 * row, cache.get(row));
+        }
+        int cached = 0;
+        for (long row = 0; row < 10000; row++) {
+            long position = cache.get(row);
+            if (position >= 0) {
+                assertEquals(7 * row, position);
+                cached++;
+            }
+        }
+        assertTrue(cached > 0 && cached <= 64, cached + " rows cached");
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        //4 rows a segment, so a row used before every other one is put is never evicted, as it would be by a
+        //cache evicting the oldest row.
+        LocateCache cache = new LocateCache(64);
+        cache.put(-7, 3);
+        for (long row = 0; row < 10000; row++) {
+            assertEquals(3, cache.get(-7), "after " + row + " rows");
+            cache.put(row, row);
+        }
+    }
+
+    @Test
+    void refusesFewerRowsThanSegments() {
+        assertThrows(IllegalArgumentException.class, () -> new LocateCache(15));
+    }
+}
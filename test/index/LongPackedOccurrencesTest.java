@@ -0,0 +1,75 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks the ranks of a last column of more than one superblock, whose counts are split between the blocks and the
+ * superblocks, against counting the bases.
+ */
+class LongPackedOccurrencesTest {
+
+    private static final int SUPERBLOCK_ROWS = PackedOccurrences.BASES_PER_BLOCK << LongPackedOccurrences.SUPERBLOCK_SHIFT;
+
+    @TempDir
+    File dir;
+
+    @Test
+    void countsAcrossSuperblocks() throws IOException {
+        Random random = new Random(151);
+        byte[] lastCol = new byte[2 * SUPERBLOCK_ROWS + 5000];
+        for (int row = 0; row < lastCol.length; row++) {
+            lastCol[row] = (byte) "ACGT".charAt(random.nextInt(4));
+        }
+        int dollarRow = SUPERBLOCK_ROWS + 77;
+        lastCol[dollarRow] = '$';
+
+        int blocks = (lastCol.length + PackedOccurrences.BASES_PER_BLOCK - 1) / PackedOccurrences.BASES_PER_BLOCK;
+        long[] packed = new long[blocks * PackedOccurrences.LONGS_PER_BLOCK];
+        int[] counts = new int[4];
+        for (int block = 0; block < blocks; block++) {
+            PackedOccurrences.packBlock(lastCol, block, counts, packed);
+        }
+        long[] superblocks = LongPackedOccurrences.splitCounts(packed);
+        assertEquals(4 * 3, superblocks.length);
+        LongPackedOccurrences occurrences = new LongPackedOccurrences(map(packed), superblocks, dollarRow);
+
+        long[] ranks = new long[4];
+        for (int row = 0; row < lastCol.length; row++) {
+            int base = lastCol[row] == '$' ? -1 : "ACGT".indexOf(lastCol[row]);
+            if (base >= 0) {
+                ranks[base]++;
+            }
+            //Every row around the start of a superblock and the sentinel, a sample of the others.
+            int fromSuperblock = row % SUPERBLOCK_ROWS;
+            if (fromSuperblock < 300 || fromSuperblock > SUPERBLOCK_ROWS - 300
+                    || Math.abs(row - dollarRow) < 300 || row % 101 == 0) {
+                assertEquals(base, occurrences.getBase(row), "base of row " + row);
+                for (int b = 0; b < 4; b++) {
+                    assertEquals(ranks[b], occurrences.getRank(b, row), "rank of " + b + " at row " + row);
+                }
+            }
+        }
+    }
+
+    private ChunkedBuffer map(long[] longs) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(longs.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asLongBuffer().put(longs);
+        File file = new File(dir, "packed");
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            channel.write(bytes);
+            return ChunkedBuffer.map(channel, 0, longs.length * 8L, true);
+        }
+    }
+}
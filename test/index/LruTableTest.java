@@ -0,0 +1,75 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LruTableTest {
+
+    @Test
+    void findsTheEntriesOfAHash() {
+        LruTable table = new LruTable(4);
+        assertEquals(LruTable.NONE, table.first(7));
+        int a = table.add(7);
+        int b = table.add(9);
+        int c = table.add(7);
+        assertEquals(c, table.first(7));
+        assertEquals(a, table.next(c, 7));
+        assertEquals(LruTable.NONE, table.next(a, 7));
+        assertEquals(b, table.first(9));
+        assertEquals(LruTable.NONE, table.next(b, 9));
+        //A hash of the same bucket is told apart.
+        assertEquals(LruTable.NONE, table.first(7 + 1024));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsed() {
+        LruTable table = new LruTable(3);
+        int a = table.add(1);
+        int b = table.add(2);
+        int c = table.add(3);
+        table.touch(a);
+        //b is the least recently used now, its slot is reused.
+        assertEquals(b, table.add(4));
+        assertEquals(LruTable.NONE, table.first(2));
+        assertEquals(b, table.first(4));
+        assertEquals(c, table.add(5));
+        assertEquals(LruTable.NONE, table.first(3));
+        assertEquals(a, table.add(6));
+        assertEquals(LruTable.NONE, table.first(1));
+        assertEquals(b, table.first(4));
+        assertEquals(c, table.first(5));
+        assertEquals(a, table.first(6));
+    }
+
+    @Test
+    void evictsFromLongChains() {
+        //Every entry in one bucket, evicted from the middle and the end of its chain.
+        LruTable table = new LruTable(4);
+        int[] entries = new int[4];
+        for (int i = 0; i < 4; i++) {
+            entries[i] = table.add(16 * i);
+        }
+        table.touch(entries[0]);
+        table.touch(entries[2]);
+        assertEquals(entries[1], table.add(64));
+        assertEquals(entries[3], table.add(80));
+        for (int hash : new int[]{16, 48}) {
+            assertEquals(LruTable.NONE, table.first(hash));
+        }
+        assertEquals(entries[0], table.first(0));
+        assertEquals(entries[2], table.first(32));
+        assertEquals(entries[1], table.first(64));
+        assertEquals(entries[3], table.first(80));
+    }
+
+    @Test
+    void holdsASingleEntry() {
+        LruTable table = new LruTable(1);
+        assertEquals(0, table.add(5));
+        table.touch(0);
+        assertEquals(0, table.add(6));
+        assertEquals(LruTable.NONE, table.first(5));
+        assertEquals(0, table.first(6));
+    }
+}
@@ -0,0 +1,93 @@
+package index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Small synthetic references for the tests, and the naive answers the index is checked against.
+ */
+public final class References {
+
+    private References() {
+    }
+
+    /**
+     * @return Returns random bases, with a repeat of repeatLength bases copied in every period bases when both are
+     * positive, so some reads have several hits.
+     */
+    public static String randomBases(Random random, int length, int repeatLength, int period) {
+        char[] repeat = new char[Math.max(0, repeatLength)];
+        for (int i = 0; i < repeat.length; i++) {
+            repeat[i] = "ACGT".charAt(random.nextInt(4));
+        }
+        StringBuilder bases = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            bases.append(repeat.length > 0 && period > 0 && i % period < repeat.length ? repeat[i % period]
+                    : "ACGT".charAt(random.nextInt(4)));
+        }
+        return bases.toString();
+    }
+
+    /**
+     * Writes a FASTA file of the records, given as name then bases, at 60 bases a line.
+     */
+    public static File writeFasta(File file, String... records) throws IOException {
+        StringBuilder fasta = new StringBuilder();
+        for (int i = 0; i < records.length; i += 2) {
+            fasta.append('>').append(records[i]).append('\n');
+            String bases = records[i + 1];
+            for (int j = 0; j < bases.length(); j += 60) {
+                fasta.append(bases, j, Math.min(bases.length(), j + 60)).append('\n');
+            }
+        }
+        Files.write(file.toPath(), fasta.toString().getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    /**
+     * Builds the index of the records into the directory.
+     * @return Returns the index directory.
+     */
+    public static File build(IndexBuilder builder, File dir, String... records) throws IOException {
+        File fasta = writeFasta(new File(dir, "reference.fa"), records);
+        File index = new File(dir, "index");
+        builder.setThreads(2).build(fasta.getPath(), index.getPath());
+        return index;
+    }
+
+    public static String reverseComplement(String bases) {
+        StringBuilder complement = new StringBuilder(bases.length());
+        for (int i = bases.length() - 1; i >= 0; i--) {
+            complement.append("TGCA".charAt("ACGT".indexOf(bases.charAt(i))));
+        }
+        return complement.toString();
+    }
+
+    /**
+     * @return Returns the suffix array of the bases followed by the sentinel, sorting the suffixes one by one.
+     */
+    public static long[] suffixArray(String bases) {
+        String text = bases + "$";
+        Integer[] suffixes = new Integer[text.length()];
+        for (int i = 0; i < suffixes.length; i++) {
+            suffixes[i] = i;
+        }
+        //'$' sorts before the bases, as the sentinel does, and is unique, so no suffix is a prefix of another.
+        Arrays.sort(suffixes, (a, b) -> {
+            while (text.charAt(a) == text.charAt(b)) {
+                a++;
+                b++;
+            }
+            return Character.compare(text.charAt(a), text.charAt(b));
+        });
+        long[] positions = new long[suffixes.length];
+        for (int i = 0; i < suffixes.length; i++) {
+            positions[i] = suffixes[i];
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,76 @@
+package index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks the suffix arrays of SA-IS against sorting the suffixes one by one.
+ */
+class SAISTest {
+
+    @Test
+    void sortsRandomTexts() {
+        Random random = new Random(1);
+        for (int length = 1; length <= 300; length++) {
+            byte[] text = new byte[length];
+            for (int i = 0; i < length - 1; i++) {
+                text[i] = (byte) (1 + random.nextInt(4));
+            }
+            assertSorted(text);
+        }
+    }
+
+    @Test
+    void sortsRepetitiveTexts() {
+        //Runs and short periods make many equal LMS substrings, so the reduced problem is recursed into.
+        assertSorted(text("AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"));
+        assertSorted(text("ACACACACACACACACACACACACACACACACACACACACAC"));
+        assertSorted(text("GATTACAGATTACAGATTACAGATTACAGATTACAGATTACA"));
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            nested.append(i % 7 == 0 ? "TTAGG" : "TTAG");
+        }
+        assertSorted(text(nested.toString()));
+    }
+
+    @Test
+    void sortsLargeText() {
+        Random random = new Random(2);
+        byte[] text = new byte[50_001];
+        for (int i = 0; i < text.length - 1; i++) {
+            //A repeat copied in every 1000 bases.
+            text[i] = i % 1000 < 100 ? (byte) (1 + (i % 100) % 4) : (byte) (1 + random.nextInt(4));
+        }
+        assertSorted(text);
+    }
+
+    private static byte[] text(String bases) {
+        byte[] text = new byte[bases.length() + 1];
+        for (int i = 0; i < bases.length(); i++) {
+            text[i] = (byte) (1 + FMIndex.getReleventRowNumber(bases.charAt(i)));
+        }
+        return text;
+    }
+
+    private static void assertSorted(byte[] text) {
+        int length = text.length;
+        Integer[] suffixes = new Integer[length];
+        for (int i = 0; i < length; i++) {
+            suffixes[i] = i;
+        }
+        //The sentinel is unique and the smallest, so no suffix is a prefix of another.
+        Arrays.sort(suffixes, (a, b) -> {
+            while (text[a] == text[b]) {
+                a++;
+                b++;
+            }
+            return Integer.compare(text[a], text[b]);
+        });
+        int[] expected = Arrays.stream(suffixes).mapToInt(Integer::intValue).toArray();
+        assertArrayEquals(expected, SAIS.build(text, length, 5), "suffix array of " + length + " symbols");
+    }
+}
@@ -0,0 +1,80 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AsyncOutputTest {
+
+    @Test
+    void writesTheChunksInOrder() throws IOException {
+        for (boolean bgzf : new boolean[]{false, true}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            StringBuilder expected = new StringBuilder();
+            AtomicInteger written = new AtomicInteger();
+            AsyncOutput out = new AsyncOutput(bytes, bgzf, false);
+            for (int i = 0; i < 1000; i++) {
+                byte[] chunk = ("chunk " + i + "\n").getBytes(StandardCharsets.US_ASCII);
+                expected.append("chunk ").append(i).append('\n');
+                //Only the length given is written.
+                out.write(chunk, chunk.length, written::incrementAndGet);
+            }
+            out.close();
+            assertEquals(1000, written.get());
+            byte[] output = bgzf ? new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())).readAllBytes()
+                    : bytes.toByteArray();
+            assertEquals(expected.toString(), new String(output, StandardCharsets.US_ASCII));
+        }
+    }
+
+    @Test
+    void reportsTheFailureOfTheWriter() throws Exception {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        AsyncOutput out = new AsyncOutput(failing, false, true);
+        AtomicInteger written = new AtomicInteger();
+        //Larger than the buffer, so the write reaches the stream.
+        byte[] chunk = new byte[5 << 20];
+        out.write(chunk, chunk.length, written::incrementAndGet);
+        IOException e = assertThrows(IOException.class, out::close);
+        assertEquals("disk full", e.getCause().getMessage());
+        //The chunk was still handed back.
+        assertEquals(1, written.get());
+    }
+
+    @Test
+    void keepsTheInterruptOfAClose() throws IOException {
+        //A writer stuck on its stream, so the close waits for it.
+        OutputStream stuck = new OutputStream() {
+            @Override
+            public synchronized void write(int b) throws IOException {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+        AsyncOutput out = new AsyncOutput(stuck, false, false);
+        out.write(new byte[5 << 20], 5 << 20, null);
+        Thread.currentThread().interrupt();
+        IOException e = assertThrows(IOException.class, out::close);
+        assertTrue(e.getCause() instanceof InterruptedException);
+        //Clears the flag the close kept.
+        assertTrue(Thread.interrupted());
+    }
+}
@@ -0,0 +1,109 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BgzfOutputStreamTest {
+
+    //The empty block ending a BGZF file.
+    private static final byte[] EOF_BLOCK = {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0, 0x1b, 0, 3, 0, 0, 0, 0, 0, 0, 0, 0, 0
+    };
+
+    @Test
+    void isReadAsGzip() throws IOException {
+        //Text, which compresses, and random bytes, which do not and still fit a block.
+        Random random = new Random(101);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (BgzfOutputStream bgzf = new BgzfOutputStream(compressed)) {
+            for (int i = 0; i < 200; i++) {
+                byte[] chunk = i % 3 == 0 ? new byte[random.nextInt(5000)]
+                        : ("read" + i + "\t0\tchr1\t" + random.nextInt(100000) + "\n").repeat(50).getBytes();
+                if (i % 3 == 0) {
+                    random.nextBytes(chunk);
+                }
+                expected.write(chunk);
+                if (i % 7 == 0) {
+                    for (byte b : chunk) {
+                        bgzf.write(b);
+                    }
+                } else {
+                    bgzf.write(chunk, 0, chunk.length);
+                }
+                if (i % 50 == 0) {
+                    bgzf.flush();
+                }
+            }
+        }
+
+        byte[] bytes = compressed.toByteArray();
+        assertArrayEquals(expected.toByteArray(), gunzip(bytes));
+        assertArrayEquals(EOF_BLOCK, Arrays.copyOfRange(bytes, bytes.length - EOF_BLOCK.length, bytes.length));
+        assertTrue(countBlocks(bytes) > 5);
+    }
+
+    @Test
+    void writesOnlyTheEndOfAnEmptyFile() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        new BgzfOutputStream(compressed).close();
+        assertArrayEquals(EOF_BLOCK, compressed.toByteArray());
+        assertEquals(0, gunzip(compressed.toByteArray()).length);
+    }
+
+    @Test
+    void finishesWithoutClosing() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        BgzfOutputStream bgzf = new BgzfOutputStream(compressed);
+        bgzf.write("@HD\tVN:1.6\n".getBytes());
+        bgzf.finish();
+        bgzf.finish();
+        int length = compressed.size();
+        compressed.write(1);
+        assertEquals(length + 1, compressed.size());
+        assertEquals("@HD\tVN:1.6\n", new String(gunzip(Arrays.copyOf(compressed.toByteArray(), length))));
+    }
+
+    /**
+     * Walks the blocks, checking the BC field of every header holds the size of its block, at most 64 KB.
+     * @return Returns the number of blocks.
+     */
+    private static int countBlocks(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        int blocks = 0;
+        int offset = 0;
+        while (offset < bytes.length) {
+            assertEquals(0x1f, bytes[offset] & 0xff);
+            assertEquals(0x8b, bytes[offset + 1] & 0xff);
+            assertEquals(4, bytes[offset + 3]);
+            assertEquals(6, buffer.getShort(offset + 10));
+            assertEquals('B', bytes[offset + 12]);
+            assertEquals('C', bytes[offset + 13]);
+            int size = (buffer.getShort(offset + 16) & 0xffff) + 1;
+            assertTrue(size <= 65536);
+            offset += size;
+            blocks++;
+        }
+        assertEquals(bytes.length, offset);
+        return blocks;
+    }
+
+    private static byte[] gunzip(byte[] bytes) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package io;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FastqReaderTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void readsRecords() throws IOException {
+        FastqReader reader = reader("@r1 first read\nacgTN\n+\nIII#!\n\n\r\n@r2\tx\r\nGGCA\r\n+r2\r\n5555\r\n@r3\nT\n+\n+");
+        FastqRecord record = new FastqRecord();
+
+        assertTrue(reader.next(record));
+        assertEquals("r1", record.getName());
+        assertEquals("ACGTN", bases(record));
+        assertEquals(40, record.getQualities()[0]);
+        assertEquals(2, record.getQualities()[3]);
+        assertEquals(0, record.getQualities()[4]);
+
+        assertTrue(reader.next(record));
+        assertEquals("r2", record.getName());
+        assertEquals("GGCA", bases(record));
+        assertEquals(20, record.getQualities()[3]);
+
+        //The last line has no line terminator.
+        assertTrue(reader.next(record));
+        assertEquals("r3", record.getName());
+        assertEquals("T", bases(record));
+        assertEquals(10, record.getQualities()[0]);
+        assertFalse(reader.next(record));
+    }
+
+    @Test
+    void readsLongRecordsAcrossBlocks() throws IOException {
+        //Records longer than the arrays of a record, and more of them than a block of the reader holds.
+        StringBuilder fastq = new StringBuilder();
+        String name = "n".repeat(100);
+        String bases = "ACGT".repeat(250);
+        String qualities = "I".repeat(1000);
+        for (int i = 0; i < 5000; i++) {
+            fastq.append('@').append(name).append(i).append('\n').append(bases).append("\n+\n").append(qualities)
+                    .append('\n');
+        }
+        FastqReader reader = reader(fastq.toString());
+        FastqRecord record = new FastqRecord();
+        for (int i = 0; i < 5000; i++) {
+            assertTrue(reader.next(record));
+            assertEquals(name + i, record.getName());
+            assertEquals(bases, bases(record));
+        }
+        assertFalse(reader.next(record));
+
+        //A line longer than a block.
+        String longBases = "ACGT".repeat(2 << 20);
+        reader = reader("@long\n" + longBases + "\n+\n" + "I".repeat(longBases.length()) + "\n");
+        assertTrue(reader.next(record));
+        assertEquals(longBases, bases(record));
+    }
+
+    @Test
+    void readsGzipMembers() throws IOException {
+        File file = new File(dir, "reads.fq.gz");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        //Two members, as bgzip writes them.
+        for (String member : new String[]{"@a\nACGT\n+\nIIII\n", "@b\nTTGA\n+\nIIII\n"}) {
+            try (GZIPOutputStream gzip = new GZIPOutputStream(bytes)) {
+                gzip.write(member.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        Files.write(file.toPath(), bytes.toByteArray());
+
+        try (FastqReader reader = new FastqReader(file.getPath())) {
+            FastqRecord record = new FastqRecord();
+            assertTrue(reader.next(record));
+            assertEquals("a", record.getName());
+            assertTrue(reader.next(record));
+            assertEquals("b", record.getName());
+            assertEquals("TTGA", bases(record));
+            assertFalse(reader.next(record));
+        }
+    }
+
+    @Test
+    void rejectsMalformedRecords() {
+        FastqRecord record = new FastqRecord();
+        assertThrows(IOException.class, () -> reader(">r1\nACGT\n+\nIIII\n").next(record));
+        assertThrows(IOException.class, () -> reader("@r1\nACGT\nIIII\n").next(record));
+        assertThrows(IOException.class, () -> reader("@r1\nACGT\n+\nIII\n").next(record));
+        assertThrows(IOException.class, () -> reader("@r1\n").next(record));
+    }
+
+    private static FastqReader reader(String fastq) {
+        return new FastqReader(new ByteArrayInputStream(fastq.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String bases(FastqRecord record) {
+        return new String(record.getBases(), 0, record.getLength(), StandardCharsets.US_ASCII);
+    }
+}
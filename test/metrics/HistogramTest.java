@@ -0,0 +1,88 @@
+package metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the percentiles of the histogram against those of the sorted values.
+ */
+class HistogramTest {
+
+    private static final double[] PERCENTILES = {0, 1, 10, 50, 90, 99, 99.9, 100};
+
+    @Test
+    void findsThePercentilesWithinTheErrorOfTheBuckets() {
+        Random random = new Random(111);
+        for (int magnitude : new int[]{6, 20, 40, 62}) {
+            long[] values = new long[10000];
+            Histogram histogram = new Histogram();
+            for (int i = 0; i < values.length; i++) {
+                //Spread over every power of two up to the magnitude.
+                values[i] = random.nextLong() >>> (64 - 1 - random.nextInt(magnitude + 1)) >>> 1;
+                histogram.record(values[i]);
+            }
+            Arrays.sort(values);
+            for (double percentile : PERCENTILES) {
+                long exact = values[(int) Math.max(0, Math.ceil(percentile / 100 * values.length) - 1)];
+                long value = histogram.getValueAtPercentile(percentile);
+                assertTrue(value >= exact && value - exact <= exact / 64, percentile + " : " + value + " " + exact);
+            }
+            assertEquals(values.length, histogram.getCount());
+            assertEquals(values[values.length - 1], histogram.getMax());
+            assertEquals(values[values.length - 1], histogram.getValueAtPercentile(100));
+            assertEquals(Arrays.stream(values).sum(), histogram.getSum());
+        }
+    }
+
+    @Test
+    void countsSmallValuesExactly() {
+        Histogram histogram = new Histogram();
+        for (int value = 0; value < 128; value++) {
+            histogram.record(value);
+        }
+        for (int value = 0; value < 128; value++) {
+            assertEquals(value, histogram.getValueAtPercentile(100.0 * (value + 1) / 128));
+        }
+        assertEquals(63.5, histogram.getMean());
+    }
+
+    @Test
+    void addsUpHistograms() {
+        Random random = new Random(112);
+        Histogram all = new Histogram();
+        Histogram first = new Histogram();
+        Histogram second = new Histogram();
+        for (int i = 0; i < 5000; i++) {
+            long value = random.nextInt(1 << 20);
+            all.record(value);
+            (i % 3 == 0 ? first : second).record(value);
+        }
+        first.add(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getSum(), first.getSum());
+        assertEquals(all.getMax(), first.getMax());
+        for (double percentile : PERCENTILES) {
+            assertEquals(all.getValueAtPercentile(percentile), first.getValueAtPercentile(percentile));
+        }
+    }
+
+    @Test
+    void resetsAndRefusesNegativeValues() {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMean());
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        assertThrows(IllegalArgumentException.class, () -> histogram.record(-1));
+    }
+}
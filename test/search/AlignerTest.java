@@ -0,0 +1,224 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the alignments of the search modes against a scan of every position of a small reference.
+ */
+class AlignerTest {
+
+    private static final int READ_LENGTH = 36;
+    //Random bases with a 50 base repeat every 1000 bases, so the reads from it have several hits.
+    static final String TEXT = References.randomBases(new Random(21), 20000, 50, 1000);
+
+    @TempDir
+    static File dir;
+    static String index;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder(), dir, "chr1", TEXT).getPath();
+    }
+
+    @Test
+    void endToEndForwardStrand() {
+        Random random = new Random(22);
+        for (int maxMismatches = 0; maxMismatches <= 3; maxMismatches++) {
+            Aligner aligner = new Aligner(index, SearchMode.endToEnd(maxMismatches).withBothStrands(false));
+            for (int i = 0; i < 200; i++) {
+                String read = read(random, random.nextInt(5), false);
+                assertEndToEnd(aligner.align(read.toCharArray(), qualities(random, read.length())), read,
+                        maxMismatches, false);
+            }
+        }
+    }
+
+    @Test
+    void seededForwardStrand() {
+        Random random = new Random(23);
+        SearchMode mode = SearchMode.seed(2, 28, 70).withBothStrands(false);
+        Aligner aligner = new Aligner(index, mode);
+        for (int i = 0; i < 300; i++) {
+            String read = read(random, random.nextInt(5), false);
+            List<Integer> qualities = qualities(random, read.length());
+            assertSeeded(aligner.align(read.toCharArray(), qualities), read, toBytes(qualities), mode);
+        }
+    }
+
+    @Test
+    void endToEndBothStrands() {
+        Random random = new Random(25);
+        for (int maxMismatches = 0; maxMismatches <= 3; maxMismatches++) {
+            Aligner aligner = new Aligner(index, SearchMode.endToEnd(maxMismatches));
+            for (int i = 0; i < 200; i++) {
+                String read = read(random, random.nextInt(5), random.nextBoolean());
+                assertEndToEnd(aligner.align(read.toCharArray(), qualities(random, read.length())), read,
+                        maxMismatches, true);
+            }
+        }
+    }
+
+    @Test
+    void seededBothStrands() {
+        Random random = new Random(26);
+        //The seed is the start of the read on either strand, which on the reverse strand is the end of the
+        //bases aligned.
+        for (SearchMode mode : new SearchMode[]{SearchMode.seed(2, 28, 70), SearchMode.seed(1, 20, 60).withBest(true)}) {
+            Aligner aligner = new Aligner(index, mode);
+            for (int i = 0; i < 300; i++) {
+                String read = read(random, random.nextInt(5), random.nextBoolean());
+                List<Integer> qualities = qualities(random, read.length());
+                assertSeeded(aligner.align(read.toCharArray(), qualities), read, toBytes(qualities), mode);
+            }
+        }
+    }
+
+    @Test
+    void reportsSomeOrNoneOfTheHits() {
+        Random random = new Random(27);
+        Aligner all = new Aligner(index, SearchMode.endToEnd(1));
+        Aligner some = new Aligner(index, SearchMode.endToEnd(1).withMaxHits(3));
+        Aligner counted = new Aligner(index, SearchMode.endToEnd(1).withCountOnly(true));
+        for (int i = 0; i < 200; i++) {
+            String read = read(random, random.nextInt(2), random.nextBoolean());
+            List<Integer> qualities = qualities(random, read.length());
+            AlignmentResult expected = all.align(read.toCharArray(), qualities);
+            if (!expected.isAligned()) {
+                continue;
+            }
+            List<Long> hits = new ArrayList<>();
+            for (long hit : expected.getHits()) {
+                hits.add(hit);
+            }
+
+            AlignmentResult result = some.align(read.toCharArray(), qualities);
+            assertEquals(expected.getRowCount(), result.getRowCount(), read);
+            assertEquals(Math.min(3, expected.getRowCount()), result.getHits().length, read);
+            for (long hit : result.getHits()) {
+                assertTrue(hits.contains(hit), read);
+            }
+
+            result = counted.align(read.toCharArray(), qualities);
+            assertTrue(result.isAligned(), read);
+            assertEquals(expected.getRowCount(), result.getRowCount(), read);
+            assertEquals(0, result.getHits().length, read);
+        }
+    }
+
+    @Test
+    void refusesReadsWithOtherBases() {
+        Aligner aligner = new Aligner(index, SearchMode.endToEnd(2));
+        String read = TEXT.substring(100, 100 + READ_LENGTH);
+        Random random = new Random(24);
+        assertTrue(aligner.align(read.toCharArray(), qualities(random, READ_LENGTH)).isAligned());
+        String withN = read.substring(0, 10) + 'N' + read.substring(11);
+        AlignmentResult result = aligner.align(withN.toCharArray(), qualities(random, READ_LENGTH));
+        assertEquals(ExitReason.INVALID_READ, result.getExitReason());
+        assertEquals(0, result.getHits().length);
+    }
+
+    /**
+     * Checks an end to end alignment has the fewest mismatches of any position, on the forward strand when it has
+     * them there, and is at every position of the text holding the bases it aligned to.
+     */
+    static void assertEndToEnd(AlignmentResult result, String read, int maxMismatches, boolean bothStrands) {
+        int forward = Scan.fewestMismatches(TEXT, read);
+        int reverse = bothStrands ? Scan.fewestMismatches(TEXT, References.reverseComplement(read)) : Integer.MAX_VALUE;
+        int fewest = Math.min(forward, reverse);
+        if (fewest > maxMismatches) {
+            assertFalse(result.isAligned(), read);
+            return;
+        }
+        assertTrue(result.isAligned(), read);
+        assertEquals(fewest, result.getMismatches(), read);
+        assertEquals(forward > fewest, result.isReverseStrand(), read);
+        assertHitsOfAlignment(result, read);
+    }
+
+    /**
+     * Checks the seeded mode aligns the reads it allows, and the alignment it reports is allowed.
+     */
+    static void assertSeeded(AlignmentResult result, String read, byte[] qualities, SearchMode mode) {
+        int forward = Scan.lowestQualitySum(TEXT, read, qualities, false, mode);
+        int reverse = mode.isBothStrands() ? Scan.lowestQualitySum(TEXT, read, qualities, true, mode) : -1;
+        if (forward < 0 && reverse < 0) {
+            assertFalse(result.isAligned(), read);
+            return;
+        }
+        assertTrue(result.isAligned(), read);
+        long[] hits = assertHitsOfAlignment(result, read);
+        int sum = Scan.seededQualitySum(TEXT, (int) hits[0], read, qualities, result.isReverseStrand(), mode);
+        assertTrue(sum >= 0, read);
+        if (mode.isBest()) {
+            int lowest = forward < 0 ? reverse : reverse < 0 ? forward : Math.min(forward, reverse);
+            assertEquals(lowest, sum, read);
+            assertEquals(forward != lowest, result.isReverseStrand(), read);
+        }
+    }
+
+    /**
+     * Checks every position of the text holding the bases the read aligned to is a hit, and nothing else is.
+     * @return Returns the hits sorted.
+     */
+    static long[] assertHitsOfAlignment(AlignmentResult result, String read) {
+        String bases = result.isReverseStrand() ? References.reverseComplement(read) : read;
+        long[] hits = Scan.sortedHits(result);
+        assertTrue(hits.length > 0, read);
+        String aligned = TEXT.substring((int) hits[0], (int) hits[0] + read.length());
+        assertEquals(result.getMismatches(), Scan.mismatches(aligned, 0, bases), read);
+        long[] expected = Scan.occurrences(TEXT, aligned);
+        assertArrayEquals(expected, hits, read);
+        assertEquals(expected.length, result.getRowCount(), read);
+        for (String contig : result.getHitContigs()) {
+            assertEquals("chr1", contig);
+        }
+        return hits;
+    }
+
+    /**
+     * @return Returns a read of the text, from the repeat one time in four, with the substitutions, or its reverse
+     * complement.
+     */
+    static String read(Random random, int substitutions, boolean reverse) {
+        int position = random.nextInt(4) == 0 ? 1000 * random.nextInt(TEXT.length() / 1000 - 1)
+                : random.nextInt(TEXT.length() - READ_LENGTH);
+        char[] bases = TEXT.substring(position, position + READ_LENGTH).toCharArray();
+        for (int i = 0; i < substitutions; i++) {
+            int offset = random.nextInt(READ_LENGTH);
+            bases[offset] = "ACGT".charAt(("ACGT".indexOf(bases[offset]) + 1 + random.nextInt(3)) % 4);
+        }
+        String read = new String(bases);
+        return reverse ? References.reverseComplement(read) : read;
+    }
+
+    static List<Integer> qualities(Random random, int length) {
+        List<Integer> qualities = new ArrayList<>();
+        for (int i = 0; i < length; i++) {
+            qualities.add(5 + random.nextInt(36));
+        }
+        return qualities;
+    }
+
+    static byte[] toBytes(List<Integer> qualities) {
+        byte[] bytes = new byte[qualities.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (int) qualities.get(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,136 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the pipeline writes, in input order, what aligning the reads one after the other on a single thread gives.
+ */
+class AlignmentPipelineTest {
+
+    private static final String TEXT = References.randomBases(new Random(31), 10000, 40, 700);
+
+    @TempDir
+    static File dir;
+    static String index;
+    static List<FastqRecord> records;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder(), dir, "chr1", TEXT).getPath();
+        Random random = new Random(32);
+        records = Reads.records(Reads.fastq(random, Reads.sample(random, TEXT, 1000, 40, 4)));
+    }
+
+    @Test
+    void writesInInputOrder() throws Exception {
+        for (SearchMode mode : new SearchMode[]{SearchMode.endToEnd(2), SearchMode.defaultMode()}) {
+            Aligner aligner = new Aligner(index, mode);
+            String expected = serial(aligner, records);
+            assertTrue(expected.contains("Strand : -"));
+            assertEquals(expected, pipeline(aligner, records, 3, 7, false));
+            assertEquals(expected, pipeline(aligner, records, 1, 1000, false));
+        }
+    }
+
+    @Test
+    void sortsTheBatchesAndWritesInInputOrder() throws Exception {
+        //Reads ending at the same few positions of the reference share their suffixes, so the ranges of their
+        //exact paths are reused.
+        Random random = new Random(33);
+        List<String> reads = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            int end = 1000 + 1000 * random.nextInt(3);
+            String read = TEXT.substring(end - 25 - random.nextInt(20), end);
+            reads.add(random.nextInt(3) == 0 ? References.reverseComplement(read) : read);
+        }
+        List<FastqRecord> shared = Reads.records(Reads.fastq(random, reads));
+        File kmerDir = new File(dir, "kmer");
+        assertTrue(kmerDir.mkdir());
+        String kmerIndex = References.build(new IndexBuilder().setKmerLength(5), kmerDir, "chr1", TEXT).getPath();
+        for (String path : new String[]{index, kmerIndex}) {
+            for (SearchMode mode : new SearchMode[]{SearchMode.endToEnd(2), SearchMode.defaultMode()}) {
+                Aligner aligner = new Aligner(path, mode);
+                for (List<FastqRecord> batch : List.of(records, shared)) {
+                    String expected = serial(aligner, batch);
+                    assertEquals(expected, pipeline(aligner, batch, 3, 64, true));
+                    assertEquals(expected, pipeline(aligner, batch, 2, 5, true));
+                }
+            }
+        }
+    }
+
+    @Test
+    void stepsTheExactPathsOfSeveralReadsInLockstep() {
+        for (SearchMode mode : new SearchMode[]{SearchMode.endToEnd(1), SearchMode.defaultMode()}) {
+            Aligner aligner = new Aligner(index, mode);
+            String expected = serial(aligner, records);
+            for (int lanes : new int[]{1, 4, 64}) {
+                SearchContext[] contexts = new SearchContext[lanes];
+                for (int lane = 0; lane < lanes; lane++) {
+                    contexts[lane] = new SearchContext();
+                }
+                StringBuilder output = new StringBuilder();
+                for (int first = 0; first < records.size(); first += lanes) {
+                    int count = Math.min(lanes, records.size() - first);
+                    for (int lane = 0; lane < count; lane++) {
+                        FastqRecord record = records.get(first + lane);
+                        aligner.prepare(contexts[lane], record.getBases(), record.getQualities(), record.getLength());
+                    }
+                    aligner.extendExactPaths(contexts, count);
+                    for (int lane = 0; lane < count; lane++) {
+                        if (contexts[lane].getExitReason() != ExitReason.INVALID_READ) {
+                            aligner.finish(contexts[lane]);
+                        }
+                        Aligner.appendResult(contexts[lane], aligner.getContigs(), output);
+                    }
+                }
+                assertEquals(expected, output.toString(), lanes + " lanes");
+            }
+        }
+    }
+
+    /**
+     * @return Returns the output of aligning the reads one after the other with a single context.
+     */
+    static String serial(Aligner aligner, List<FastqRecord> records) {
+        SearchContext context = new SearchContext();
+        StringBuilder output = new StringBuilder();
+        for (FastqRecord record : records) {
+            aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+            Aligner.appendResult(context, aligner.getContigs(), output);
+        }
+        return output.toString();
+    }
+
+    /**
+     * @return Returns the output of the pipeline, without the times taken.
+     */
+    static String pipeline(Aligner aligner, List<FastqRecord> records, int workers, int batchSize,
+                           boolean sortBatches) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (PrintStream out = new PrintStream(bytes, false, StandardCharsets.US_ASCII);
+             AlignmentPipeline pipeline = new AlignmentPipeline(aligner, workers, batchSize, out, sortBatches)) {
+            for (FastqRecord record : records) {
+                pipeline.submit(record);
+            }
+        }
+        return bytes.toString(StandardCharsets.US_ASCII).replaceAll("Time taken in milliseconds : \\d+\n", "");
+    }
+}
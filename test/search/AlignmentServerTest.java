@@ -0,0 +1,149 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import io.SocketStreams;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the server gives every client of its socket the SAM output of its own reads.
+ */
+class AlignmentServerTest {
+
+    private static final String TEXT = References.randomBases(new Random(131), 10000, 40, 700);
+
+    @TempDir
+    static File dir;
+    static Aligner aligner;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        aligner = new Aligner(References.build(new IndexBuilder(), dir, "chr1", TEXT).getPath(),
+                SearchMode.endToEnd(2));
+    }
+
+    @AfterAll
+    static void closeAligner() {
+        aligner.close();
+    }
+
+    @Test
+    void alignsTheReadsOfEveryClient() throws Exception {
+        File socket = new File(dir, "align.sock");
+        AlignmentServer server = new AlignmentServer(aligner, 3, 16, OutputFormat.SAM, false, true, socket.getPath());
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        serving.start();
+
+        //Clients at once, some sending their reads gzip compressed, large enough to fill the socket buffers.
+        int clients = 4;
+        String[] fastq = new String[clients];
+        String[] expected = new String[clients];
+        String[] output = new String[clients];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(132 + c);
+            fastq[c] = Reads.fastq(random, Reads.sample(random, TEXT, 3000, 36, 3));
+            expected[c] = sam(Reads.records(fastq[c]));
+            int client = c;
+            threads[c] = new Thread(() -> output[client] = send(socket, fastq[client], client % 2 == 1));
+            threads[c].start();
+        }
+        for (int c = 0; c < clients; c++) {
+            threads[c].join();
+            assertEquals(expected[c], output[c]);
+        }
+
+        assertTrue(server.drain(10, TimeUnit.SECONDS));
+        serving.join();
+        server.close();
+        assertFalse(socket.exists());
+    }
+
+    @Test
+    void replacesOnlyASocketNobodyListensOn() throws Exception {
+        File socket = new File(dir, "stale.sock");
+        AlignmentServer first = new AlignmentServer(aligner, 1, 16, OutputFormat.SAM, false, true, socket.getPath());
+        IOException e = assertThrows(IOException.class,
+                () -> new AlignmentServer(aligner, 1, 16, OutputFormat.SAM, false, true, socket.getPath()));
+        assertTrue(e.getMessage().startsWith("A server is already listening"), e.getMessage());
+        first.close();
+
+        //A socket file left behind by a server which did not close.
+        try (ServerSocketChannel left = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            left.bind(UnixDomainSocketAddress.of(socket.toPath()));
+        }
+        assertTrue(socket.exists());
+        new AlignmentServer(aligner, 1, 16, OutputFormat.SAM, false, true, socket.getPath()).close();
+        assertFalse(socket.exists());
+    }
+
+    /**
+     * @return Returns the header and the records of the reads aligned one after the other.
+     */
+    private static String sam(List<FastqRecord> records) {
+        StringBuilder sam = new StringBuilder();
+        SamFormat.appendHeader(sam, aligner.getContigs());
+        SearchContext context = new SearchContext();
+        for (FastqRecord record : records) {
+            aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+            SamFormat.appendRead(sam, record, context, aligner.getContigs());
+        }
+        return sam.toString();
+    }
+
+    /**
+     * Sends the reads as AlignClient does, on a thread of their own while the output is read.
+     * @return Returns the output of the server.
+     */
+    private static String send(File socket, String fastq, boolean gzip) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket.toPath()))) {
+            List<IOException> failures = new ArrayList<>();
+            Thread sender = new Thread(() -> {
+                try (OutputStream out = gzip ? new GZIPOutputStream(SocketStreams.output(channel))
+                        : SocketStreams.output(channel)) {
+                    out.write(fastq.getBytes(StandardCharsets.US_ASCII));
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            });
+            sender.start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            SocketStreams.input(channel).transferTo(output);
+            sender.join();
+            assertTrue(failures.isEmpty(), failures.toString());
+            return output.toString(StandardCharsets.US_ASCII);
+        } catch (IOException | InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks a warmed up context aligns reads without allocating, measured with the allocation counter of the thread.
+ */
+class AllocationTest {
+
+    @TempDir
+    File dir;
+
+    @Test
+    void alignsWithoutAllocating() throws Exception {
+        String text = References.randomBases(new Random(41), 10000, 40, 700);
+        String index = References.build(new IndexBuilder(), dir, "chr1", text).getPath();
+        Random random = new Random(42);
+        List<FastqRecord> records = Reads.records(Reads.fastq(random, Reads.sample(random, text, 500, 50, 3)));
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (SearchMode mode : new SearchMode[]{SearchMode.endToEnd(2), SearchMode.defaultMode().withBest(true),
+                SearchMode.endToEnd(1).withMaxHits(3)}) {
+            Aligner aligner = new Aligner(index, mode, 1000);
+            SearchContext context = new SearchContext();
+            //The first round grows the arrays of the context and loads the classes. A round can still see a few
+            //bytes of the compiler's doing, while a read which allocates does so in every round.
+            align(aligner, context, records);
+            long fewest = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                long before = threads.getCurrentThreadAllocatedBytes();
+                align(aligner, context, records);
+                fewest = Math.min(fewest, threads.getCurrentThreadAllocatedBytes() - before);
+            }
+            assertEquals(0, fewest, "bytes allocated by " + records.size() + " reads");
+        }
+    }
+
+    private static void align(Aligner aligner, SearchContext context, List<FastqRecord> records) {
+        //Indexed, as an iterator would allocate.
+        for (int i = 0; i < records.size(); i++) {
+            FastqRecord record = records.get(i);
+            aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+        }
+    }
+}
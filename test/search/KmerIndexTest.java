@@ -0,0 +1,66 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the searches starting from the k-mer table against the scan, with and without the mirror index, which has
+ * a table of its own.
+ */
+class KmerIndexTest {
+
+    @TempDir
+    static File dir;
+    static String[] indexes;
+
+    @BeforeAll
+    static void buildIndexes() throws IOException {
+        File plain = new File(dir, "plain");
+        File mirrored = new File(dir, "mirrored");
+        if (!plain.mkdir() || !mirrored.mkdir()) {
+            throw new IOException("Cannot create the index directories");
+        }
+        indexes = new String[]{
+                References.build(new IndexBuilder().setKmerLength(8), plain, "chr1", AlignerTest.TEXT).getPath(),
+                References.build(new IndexBuilder().setKmerLength(6).setMirror(true), mirrored, "chr1",
+                        AlignerTest.TEXT).getPath()};
+    }
+
+    @Test
+    void endToEnd() {
+        Random random = new Random(61);
+        for (String index : indexes) {
+            for (int maxMismatches = 0; maxMismatches <= 3; maxMismatches++) {
+                Aligner aligner = new Aligner(index, SearchMode.endToEnd(maxMismatches));
+                for (int i = 0; i < 150; i++) {
+                    String read = AlignerTest.read(random, random.nextInt(5), random.nextBoolean());
+                    AlignerTest.assertEndToEnd(aligner.align(read.toCharArray(), AlignerTest.qualities(random,
+                            read.length())), read, maxMismatches, true);
+                }
+            }
+        }
+    }
+
+    @Test
+    void seeded() {
+        Random random = new Random(62);
+        SearchMode mode = SearchMode.seed(2, 28, 70).withBest(true);
+        for (String index : indexes) {
+            Aligner aligner = new Aligner(index, mode);
+            for (int i = 0; i < 300; i++) {
+                String read = AlignerTest.read(random, random.nextInt(5), random.nextBoolean());
+                List<Integer> qualities = AlignerTest.qualities(random, read.length());
+                AlignerTest.assertSeeded(aligner.align(read.toCharArray(), qualities), read,
+                        AlignerTest.toBytes(qualities), mode);
+            }
+        }
+    }
+}
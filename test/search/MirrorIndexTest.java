@@ -0,0 +1,54 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks the searches using the mirror index against the scan, as AlignerTest does without it.
+ */
+class MirrorIndexTest {
+
+    @TempDir
+    static File dir;
+    static String index;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder().setMirror(true), dir, "chr1", AlignerTest.TEXT).getPath();
+    }
+
+    @Test
+    void endToEnd() {
+        Random random = new Random(51);
+        for (int maxMismatches = 0; maxMismatches <= 3; maxMismatches++) {
+            Aligner aligner = new Aligner(index, SearchMode.endToEnd(maxMismatches));
+            for (int i = 0; i < 200; i++) {
+                String read = AlignerTest.read(random, random.nextInt(5), random.nextBoolean());
+                AlignerTest.assertEndToEnd(aligner.align(read.toCharArray(), AlignerTest.qualities(random,
+                        read.length())), read, maxMismatches, true);
+            }
+        }
+    }
+
+    @Test
+    void seeded() {
+        Random random = new Random(52);
+        for (SearchMode mode : new SearchMode[]{SearchMode.seed(2, 28, 70), SearchMode.seed(1, 20, 60).withBest(true)}) {
+            Aligner aligner = new Aligner(index, mode);
+            for (int i = 0; i < 300; i++) {
+                String read = AlignerTest.read(random, random.nextInt(5), random.nextBoolean());
+                List<Integer> qualities = AlignerTest.qualities(random, read.length());
+                AlignerTest.assertSeeded(aligner.align(read.toCharArray(), qualities), read,
+                        AlignerTest.toBytes(qualities), mode);
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks pairs of mates sampled at known places of a reference of two contigs.
+ */
+class PairedEndTest {
+
+    private static final int LENGTH = 36;
+    //A 40 base repeat every 1000 bases of the first contig.
+    private static final String CHR1 = References.randomBases(new Random(81), 6000, 40, 1000);
+    private static final String CHR2 = References.randomBases(new Random(82), 3000, 0, 0);
+
+    @TempDir
+    static File dir;
+    static Aligner aligner;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        aligner = new Aligner(References.build(new IndexBuilder(), dir, "chr1", CHR1, "chr2", CHR2).getPath(),
+                SearchMode.endToEnd(2));
+    }
+
+    @Test
+    void rescuesTheMateNextToTheFirst() {
+        PairedEndMode pairing = PairedEndMode.defaultMode();
+        Pair pair = align(CHR1.substring(2500, 2500 + LENGTH), reverse(CHR1, 2700 - LENGTH), pairing);
+        assertEquals(200, pair.insert);
+        assertHit(pair.first, false, "chr1", 2500);
+        assertHit(pair.second, true, "chr1", 2700 - LENGTH);
+        assertTrue(pair.second.isRescued());
+
+        //The mates the other way round.
+        pair = align(reverse(CHR2, 1200 - LENGTH), CHR2.substring(1000, 1000 + LENGTH), pairing);
+        assertEquals(200, pair.insert);
+        assertHit(pair.first, true, "chr2", 1200 - LENGTH);
+        assertHit(pair.second, false, "chr2", 1000);
+    }
+
+    @Test
+    void placesAMateFromARepeatNextToTheOther() throws IOException {
+        //The second mate is in the repeat, at 6 places of the reference, and rescued at the one next to the first.
+        Pair pair = align(CHR1.substring(2850, 2850 + LENGTH), reverse(CHR1, 3000), PairedEndMode.defaultMode());
+        assertEquals(186, pair.insert);
+        assertHit(pair.second, true, "chr1", 3000);
+
+        //The first mate in the repeat, anchoring the rescue of the second at every one of its places. The place
+        //the second is rescued next to is the primary hit of the first.
+        String first = CHR1.substring(4002, 4002 + LENGTH);
+        String second = reverse(CHR1, 4150);
+        pair = align(first, second, PairedEndMode.defaultMode());
+        assertEquals(184, pair.insert);
+        assertEquals(4002, pair.first.getHit(0));
+        assertEquals("chr1", aligner.getContigs().getName(pair.first.getHitContig(0)));
+        assertHit(pair.second, true, "chr1", 4150);
+        String[][] records = primaryRecords(pair, first, second);
+        assertEquals(List.of("99", "chr1", "4003"), List.of(records[0]).subList(1, 4));
+        assertEquals(List.of("=", "4151", "184"), List.of(records[0]).subList(6, 9));
+        assertEquals(List.of("147", "chr1", "4151"), List.of(records[1]).subList(1, 4));
+        assertEquals(List.of("=", "4003", "-184"), List.of(records[1]).subList(6, 9));
+    }
+
+    @Test
+    void followsTheOrientation() {
+        Pair pair = align(reverse(CHR1, 1500), CHR1.substring(1700, 1700 + LENGTH),
+                new PairedEndMode(PairedEndMode.Orientation.RF, 0, 250));
+        assertEquals(236, pair.insert);
+        assertHit(pair.first, true, "chr1", 1500);
+        assertHit(pair.second, false, "chr1", 1700);
+
+        pair = align(CHR1.substring(1500, 1500 + LENGTH), CHR1.substring(1700, 1700 + LENGTH),
+                new PairedEndMode(PairedEndMode.Orientation.FF, 0, 250));
+        assertEquals(236, pair.insert);
+        assertHit(pair.second, false, "chr1", 1700);
+
+        //Facing the wrong way for FR.
+        pair = align(reverse(CHR1, 1500), CHR1.substring(1700, 1700 + LENGTH), PairedEndMode.defaultMode());
+        assertEquals(-1, pair.insert);
+        assertHit(pair.first, true, "chr1", 1500);
+        assertHit(pair.second, false, "chr1", 1700);
+        assertFalse(pair.second.isRescued());
+    }
+
+    @Test
+    void refusesPairsOutsideTheInsertRange() {
+        Pair pair = align(CHR1.substring(2500, 2500 + LENGTH), reverse(CHR1, 2900 - LENGTH),
+                PairedEndMode.defaultMode());
+        assertEquals(-1, pair.insert);
+        assertHit(pair.first, false, "chr1", 2500);
+        assertHit(pair.second, true, "chr1", 2900 - LENGTH);
+        assertFalse(pair.second.isRescued());
+
+        pair = align(CHR1.substring(2500, 2500 + LENGTH), reverse(CHR1, 2600 - LENGTH),
+                new PairedEndMode(PairedEndMode.Orientation.FR, 150, 250));
+        assertEquals(-1, pair.insert);
+    }
+
+    @Test
+    void keepsThePairInOneContig() {
+        //The mates are 200 bases apart in the text of the index, across the end of the first contig.
+        Pair pair = align(CHR1.substring(5900, 5900 + LENGTH), reverse(CHR2, 100 - LENGTH),
+                PairedEndMode.defaultMode());
+        assertEquals(-1, pair.insert);
+        assertHit(pair.first, false, "chr1", 5900);
+        assertHit(pair.second, true, "chr2", 100 - LENGTH);
+    }
+
+    private static String reverse(String contig, int start) {
+        return References.reverseComplement(contig.substring(start, start + LENGTH));
+    }
+
+    private static void assertHit(SearchContext context, boolean reverse, String contig, long offset) {
+        assertEquals(ExitReason.MATCH, context.getExitReason());
+        assertEquals(reverse, context.isReverseStrand());
+        long[] hits = new long[context.getHitCount()];
+        for (int i = 0; i < hits.length; i++) {
+            hits[i] = context.getHit(i);
+            if (hits[i] == offset) {
+                assertEquals(contig, aligner.getContigs().getName(context.getHitContig(i)));
+            }
+        }
+        assertTrue(Arrays.stream(hits).anyMatch(hit -> hit == offset), Arrays.toString(hits));
+    }
+
+    /**
+     * @return Returns the fields of the primary records of the first mate and of the second one.
+     */
+    private static String[][] primaryRecords(Pair pair, String first, String second) throws IOException {
+        List<FastqRecord> mates = Reads.records(Reads.fastq(new Random(83), List.of(first, second)));
+        StringBuilder out = new StringBuilder();
+        SamFormat.appendMate(out, mates.get(0), pair.first, true, pair.second, pair.insert, aligner.getContigs());
+        int secondStart = out.length();
+        SamFormat.appendMate(out, mates.get(1), pair.second, false, pair.first, pair.insert, aligner.getContigs());
+        return new String[][]{out.substring(0, out.indexOf("\n")).split("\t"),
+                out.substring(secondStart, out.indexOf("\n", secondStart)).split("\t")};
+    }
+
+    private static Pair align(String first, String second, PairedEndMode pairing) {
+        Pair pair = new Pair();
+        byte[] qualities = new byte[LENGTH];
+        Arrays.fill(qualities, (byte) 30);
+        pair.insert = aligner.alignPair(pair.first, pair.second, first.getBytes(StandardCharsets.US_ASCII), qualities,
+                LENGTH, second.getBytes(StandardCharsets.US_ASCII), qualities, LENGTH, pairing);
+        return pair;
+    }
+
+    private static final class Pair {
+        private final SearchContext first = new SearchContext();
+        private final SearchContext second = new SearchContext();
+        private int insert;
+    }
+}
@@ -0,0 +1,108 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the reads found in the read cache get the outcome a search gives them, whatever the cache evicted.
+ */
+class ReadCacheTest {
+
+    private static final String TEXT = References.randomBases(new Random(71), 10000, 40, 700);
+
+    @TempDir
+    static File dir;
+    static String index;
+    static List<FastqRecord> records;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder(), dir, "chr1", TEXT).getPath();
+        //A duplicate has other quality scores than its first read.
+        Random random = new Random(72);
+        records = Reads.records(Reads.fastq(random, Reads.sample(random, TEXT, 1000, 40, 3)));
+    }
+
+    @Test
+    void duplicatesGetTheOutcomeOfTheirFirstRead() {
+        SearchMode mode = SearchMode.endToEnd(2);
+        Aligner cached = new Aligner(index, mode, 0, null, 0, 0, 4096);
+        assertSameOutcomes(new Aligner(index, mode), cached);
+
+        //Every duplicate of a read which can be aligned is found, and its first read is not. A read with an N is
+        //never looked up.
+        Set<String> seen = new HashSet<>();
+        int duplicates = 0;
+        for (FastqRecord record : records) {
+            String bases = new String(record.getBases(), 0, record.getLength());
+            if (bases.indexOf('N') < 0 && !seen.add(bases)) {
+                duplicates++;
+            }
+        }
+        assertTrue(duplicates > 0);
+        assertEquals(duplicates, cached.getReadCache().getHits());
+        assertEquals(seen.size(), cached.getReadCache().getMisses());
+    }
+
+    @Test
+    void keepsTheOutcomesWhileEvicting() {
+        for (SearchMode mode : new SearchMode[]{SearchMode.endToEnd(1), SearchMode.defaultMode().withMaxHits(5)}) {
+            Aligner cached = new Aligner(index, mode, 0, null, 0, 0, 16);
+            assertSameOutcomes(new Aligner(index, mode), cached);
+            assertTrue(cached.getReadCache().getHits() > 0);
+        }
+    }
+
+    @Test
+    void keepsOnlyTheSeededOutcomesTheQualitiesPlayNoPartIn() {
+        //A duplicate with other quality scores may align elsewhere, unless its first read matched exactly.
+        SearchMode mode = SearchMode.seed(2, 28, 50).withBest(true);
+        Aligner cached = new Aligner(index, mode, 0, null, 0, 0, 4096);
+        assertSameOutcomes(new Aligner(index, mode), cached);
+        assertTrue(cached.getReadCache().getHits() > 0);
+    }
+
+    @Test
+    void refusesFewerReadsThanSegments() {
+        assertThrows(IllegalArgumentException.class, () -> new ReadCache(8));
+    }
+
+    /**
+     * Aligns the reads with both aligners and checks the output and the hits are the same, and the reads found in
+     * the cache did no work.
+     */
+    private static void assertSameOutcomes(Aligner expected, Aligner cached) {
+        SearchContext searched = new SearchContext();
+        SearchContext context = new SearchContext();
+        for (FastqRecord record : records) {
+            expected.align(searched, record.getBases(), record.getQualities(), record.getLength());
+            cached.align(context, record.getBases(), record.getQualities(), record.getLength());
+            StringBuilder output = new StringBuilder();
+            Aligner.appendResult(searched, expected.getContigs(), output);
+            StringBuilder cachedOutput = new StringBuilder();
+            Aligner.appendResult(context, cached.getContigs(), cachedOutput);
+            assertEquals(output.toString(), cachedOutput.toString(), record.getName());
+            if (context.isCacheHit()) {
+                assertEquals(0, context.getSteps(), record.getName());
+                assertEquals(0, context.getRankCalls(), record.getName());
+                assertEquals(0, context.getLfSteps(), record.getName());
+                assertEquals(0, context.getBacktracks(), record.getName());
+            }
+        }
+    }
+}
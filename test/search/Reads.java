@@ -0,0 +1,80 @@
+package search;
+
+import index.References;
+import io.FastqReader;
+import io.FastqRecord;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reads sampled from a small reference for the tests, as FASTQ.
+ */
+final class Reads {
+
+    private Reads() {
+    }
+
+    /**
+     * @return Returns reads of the text with up to maxSubstitutions substitutions, half of them reverse
+     * complemented, one in ten a duplicate of an earlier one, and a few with an N.
+     */
+    static List<String> sample(Random random, String text, int count, int length, int maxSubstitutions) {
+        List<String> reads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && random.nextInt(10) == 0) {
+                reads.add(reads.get(random.nextInt(i)));
+                continue;
+            }
+            int position = random.nextInt(text.length() - length + 1);
+            char[] bases = text.substring(position, position + length).toCharArray();
+            int substitutions = random.nextInt(maxSubstitutions + 1);
+            for (int j = 0; j < substitutions; j++) {
+                int offset = random.nextInt(length);
+                bases[offset] = "ACGT".charAt(("ACGT".indexOf(bases[offset]) + 1 + random.nextInt(3)) % 4);
+            }
+            if (random.nextInt(50) == 0) {
+                bases[random.nextInt(length)] = 'N';
+            }
+            String read = new String(bases);
+            reads.add(random.nextBoolean() || read.indexOf('N') >= 0 ? read : References.reverseComplement(read));
+        }
+        return reads;
+    }
+
+    /**
+     * @return Returns the reads as FASTQ, named read0, read1, ... with random quality scores.
+     */
+    static String fastq(Random random, List<String> reads) {
+        StringBuilder fastq = new StringBuilder();
+        for (int i = 0; i < reads.size(); i++) {
+            String read = reads.get(i);
+            fastq.append("@read").append(i).append('\n').append(read).append("\n+\n");
+            for (int j = 0; j < read.length(); j++) {
+                fastq.append((char) (33 + 5 + random.nextInt(36)));
+            }
+            fastq.append('\n');
+        }
+        return fastq.toString();
+    }
+
+    /**
+     * @return Returns the records of the FASTQ text.
+     */
+    static List<FastqRecord> records(String fastq) throws IOException {
+        List<FastqRecord> records = new ArrayList<>();
+        try (FastqReader reader = new FastqReader(new ByteArrayInputStream(fastq.getBytes(StandardCharsets.US_ASCII)))) {
+            FastqRecord record = new FastqRecord();
+            while (reader.next(record)) {
+                FastqRecord copy = new FastqRecord();
+                copy.copyFrom(record);
+                records.add(copy);
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,199 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.AsyncOutput;
+import io.FastqRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the SAM records of reads aligned to a reference of two contigs against the reference itself.
+ */
+class SamOutputTest {
+
+    private static final int LENGTH = 36;
+    //A 40 base repeat every 1000 bases of the first contig.
+    private static final String CHR1 = References.randomBases(new Random(91), 4000, 40, 1000);
+    private static final String CHR2 = References.randomBases(new Random(92), 2000, 0, 0);
+    private static final Map<String, String> CONTIGS = Map.of("chr1", CHR1, "chr2", CHR2);
+
+    @TempDir
+    static File dir;
+    static String index;
+    static List<FastqRecord> records;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder(), dir, "chr1", CHR1, "chr2", CHR2).getPath();
+        Random random = new Random(93);
+        List<String> reads = Reads.sample(random, CHR1, 200, LENGTH, 4);
+        reads.addAll(Reads.sample(random, CHR2, 100, LENGTH, 4));
+        //Reads of the repeat, placed at its 4 copies.
+        for (int i = 0; i < 20; i++) {
+            String read = CHR1.substring(1000 + i % 4, 1000 + i % 4 + LENGTH);
+            reads.add(i % 2 == 0 ? read : References.reverseComplement(read));
+        }
+        records = Reads.records(Reads.fastq(random, reads));
+    }
+
+    @Test
+    void writesEveryContigInTheHeader() {
+        StringBuilder header = new StringBuilder();
+        SamFormat.appendHeader(header, new Aligner(index).getContigs());
+        assertEquals("@HD\tVN:1.6\tSO:unsorted\n@SQ\tSN:chr1\tLN:4000\n@SQ\tSN:chr2\tLN:2000\n"
+                + "@PG\tID:bowtie_impl\tPN:bowtie_impl\n", header.toString());
+    }
+
+    @Test
+    void writesARecordForEveryHit() {
+        Aligner aligner = new Aligner(index, SearchMode.endToEnd(2));
+        SearchContext context = new SearchContext();
+        int reverse = 0;
+        int secondary = 0;
+        int unmapped = 0;
+        for (FastqRecord record : records) {
+            aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+            StringBuilder out = new StringBuilder();
+            SamFormat.appendRead(out, record, context, aligner.getContigs());
+            String[] lines = out.toString().split("\n");
+            String name = new String(record.getNameBytes(), 0, record.getNameLength(), StandardCharsets.US_ASCII);
+            String bases = new String(record.getBases(), 0, record.getLength(), StandardCharsets.US_ASCII);
+            if (context.getExitReason() != ExitReason.MATCH) {
+                assertEquals(1, lines.length);
+                String[] fields = lines[0].split("\t");
+                assertEquals(List.of(name, "4", "*", "0", "0", "*", "*", "0", "0", bases),
+                        List.of(fields).subList(0, 10));
+                unmapped++;
+                continue;
+            }
+            assertEquals(context.getHitCount(), lines.length);
+            String forward = context.isReverseStrand() ? References.reverseComplement(bases) : bases;
+            Set<String> places = new HashSet<>();
+            for (int i = 0; i < lines.length; i++) {
+                String[] fields = lines[i].split("\t");
+                int flags = Integer.parseInt(fields[1]);
+                assertEquals(name, fields[0]);
+                assertEquals(context.isReverseStrand() ? 0x10 : 0, flags & 0x10);
+                assertEquals(i > 0 ? 0x100 : 0, flags & 0x100);
+                assertEquals(0, flags & ~0x110);
+                assertEquals(LENGTH + "M", fields[5]);
+                assertEquals(List.of("*", "0", "0"), List.of(fields).subList(6, 9));
+                assertEquals(i == 0 ? forward : "*", fields[9]);
+                assertEquals("NM:i:" + context.getMismatches(), fields[11]);
+                //The read lies at the position, 1 based, with as many mismatches as it says.
+                int position = Integer.parseInt(fields[3]) - 1;
+                assertEquals(context.getMismatches(), Scan.mismatches(CONTIGS.get(fields[2]), position, forward));
+                assertTrue(places.add(fields[2] + ":" + position));
+                if (i == 0) {
+                    StringBuilder qualities = new StringBuilder();
+                    for (int j = 0; j < LENGTH; j++) {
+                        int read = context.isReverseStrand() ? LENGTH - 1 - j : j;
+                        qualities.append((char) (record.getQualities()[read] + 33));
+                    }
+                    assertEquals(qualities.toString(), fields[10]);
+                }
+            }
+            reverse += context.isReverseStrand() ? 1 : 0;
+            secondary += lines.length - 1;
+        }
+        assertTrue(reverse > 0 && secondary > 0 && unmapped > 0);
+    }
+
+    @Test
+    void writesTheCountOfCountOnlyReadsUnmapped() {
+        Aligner aligner = new Aligner(index, SearchMode.endToEnd(0).withCountOnly(true));
+        FastqRecord record = records.get(records.size() - 2);
+        SearchContext context = new SearchContext();
+        aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+        StringBuilder out = new StringBuilder();
+        SamFormat.appendRead(out, record, context, aligner.getContigs());
+        String[] fields = out.toString().split("\n")[0].split("\t");
+        assertEquals("4", fields[1]);
+        assertEquals("*", fields[2]);
+        assertEquals("XC:i:4", fields[11]);
+    }
+
+    @Test
+    void flagsTheMatesOfAPair() throws IOException {
+        Aligner aligner = new Aligner(index, SearchMode.endToEnd(2));
+        String first = CHR2.substring(500, 500 + LENGTH);
+        String second = References.reverseComplement(CHR2.substring(700 - LENGTH, 700));
+        String[][] pair = pair(aligner, first, second);
+        assertEquals(List.of("pair", "99", "chr2", "501", "255", LENGTH + "M", "=", String.valueOf(700 - LENGTH + 1),
+                "200", first), List.of(pair[0]).subList(0, 10));
+        assertEquals(List.of("pair", "147", "chr2", String.valueOf(700 - LENGTH + 1), "255", LENGTH + "M", "=", "501",
+                "-200", References.reverseComplement(second)), List.of(pair[1]).subList(0, 10));
+
+        //A second mate which does not align is placed where the first is.
+        pair = pair(aligner, first, "ACGTACGTACGTACGTACGTACGTACGTACGTACGT");
+        assertEquals(List.of("pair", "73", "chr2", "501", "255", LENGTH + "M", "=", "501", "0"),
+                List.of(pair[0]).subList(0, 9));
+        assertEquals(List.of("pair", "133", "chr2", "501", "0", "*", "=", "501", "0"),
+                List.of(pair[1]).subList(0, 9));
+    }
+
+    @Test
+    void pipelineWritesTheRecordsPlainOrInBgzf() throws Exception {
+        Aligner aligner = new Aligner(index, SearchMode.endToEnd(2));
+        StringBuilder expected = new StringBuilder();
+        SamFormat.appendHeader(expected, aligner.getContigs());
+        SearchContext context = new SearchContext();
+        for (FastqRecord record : records) {
+            aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+            SamFormat.appendRead(expected, record, context, aligner.getContigs());
+        }
+        for (boolean bgzf : new boolean[]{false, true}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            AsyncOutput out = new AsyncOutput(bytes, bgzf, false);
+            try (AlignmentPipeline pipeline = new AlignmentPipeline(aligner, 3, 16, out, OutputFormat.SAM, true,
+                    null)) {
+                for (FastqRecord record : records) {
+                    pipeline.submit(record);
+                }
+            }
+            out.close();
+            byte[] sam = bgzf ? new GZIPInputStream(new ByteArrayInputStream(bytes.toByteArray())).readAllBytes()
+                    : bytes.toByteArray();
+            assertEquals(expected.toString(), new String(sam, StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * @return Returns the fields of the records of the first mate and of the second one.
+     */
+    private static String[][] pair(Aligner aligner, String first, String second) throws IOException {
+        //Named as mates, which SAM names without their /1 and /2.
+        List<FastqRecord> mates = Reads.records(Reads.fastq(new Random(94), List.of(first, second))
+                .replace("@read0", "@pair/1").replace("@read1", "@pair/2"));
+        SearchContext firstContext = new SearchContext();
+        SearchContext secondContext = new SearchContext();
+        FastqRecord firstMate = mates.get(0);
+        FastqRecord secondMate = mates.get(1);
+        int insert = aligner.alignPair(firstContext, secondContext, firstMate.getBases(), firstMate.getQualities(),
+                firstMate.getLength(), secondMate.getBases(), secondMate.getQualities(), secondMate.getLength(),
+                PairedEndMode.defaultMode());
+        StringBuilder out = new StringBuilder();
+        SamFormat.appendMate(out, firstMate, firstContext, true, secondContext, insert, aligner.getContigs());
+        SamFormat.appendMate(out, secondMate, secondContext, false, firstContext, insert, aligner.getContigs());
+        String[] lines = out.toString().split("\n");
+        assertEquals(2, lines.length);
+        return new String[][]{lines[0].split("\t"), lines[1].split("\t")};
+    }
+}
@@ -0,0 +1,98 @@
+package search;
+
+import index.References;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aligns reads by comparing them to every position of the reference, which the search is checked against.
+ */
+final class Scan {
+
+    private Scan() {
+    }
+
+    /**
+     * @return Returns the mismatches of the bases at the position of the text.
+     */
+    static int mismatches(String text, int position, String bases) {
+        int mismatches = 0;
+        for (int j = 0; j < bases.length(); j++) {
+            if (text.charAt(position + j) != bases.charAt(j)) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * @return Returns the fewest mismatches of the bases at any position of the text.
+     */
+    static int fewestMismatches(String text, String bases) {
+        int fewest = Integer.MAX_VALUE;
+        for (int position = 0; position + bases.length() <= text.length(); position++) {
+            fewest = Math.min(fewest, mismatches(text, position, bases));
+        }
+        return fewest;
+    }
+
+    /**
+     * @return Returns the positions of the text where the bases are, in order.
+     */
+    static long[] occurrences(String text, String bases) {
+        List<Long> positions = new ArrayList<>();
+        for (int position = text.indexOf(bases); position >= 0; position = text.indexOf(bases, position + 1)) {
+            positions.add((long) position);
+        }
+        return positions.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * @return Returns the sum of the quality scores at the mismatches of the read at the position of the text, on
+     * the strand given, when the seeded mode allows them, else -1.
+     */
+    static int seededQualitySum(String text, int position, String read, byte[] qualities, boolean reverse,
+                                SearchMode mode) {
+        String bases = reverse ? References.reverseComplement(read) : read;
+        int seedMismatches = 0;
+        int qualitySum = 0;
+        for (int j = 0; j < bases.length(); j++) {
+            if (text.charAt(position + j) == bases.charAt(j)) {
+                continue;
+            }
+            //On the reverse strand the read runs from the end.
+            int offset = reverse ? bases.length() - 1 - j : j;
+            qualitySum += qualities[offset];
+            if (offset < mode.getSeedLength()) {
+                seedMismatches++;
+            }
+        }
+        return seedMismatches <= mode.getMaxMismatches() && qualitySum <= mode.getMaxQualitySum() ? qualitySum : -1;
+    }
+
+    /**
+     * @return Returns the lowest quality sum the seeded mode allows the read at any position of the text on the
+     * strand, -1 when it allows none.
+     */
+    static int lowestQualitySum(String text, String read, byte[] qualities, boolean reverse, SearchMode mode) {
+        int lowest = -1;
+        for (int position = 0; position + read.length() <= text.length(); position++) {
+            int sum = seededQualitySum(text, position, read, qualities, reverse, mode);
+            if (sum >= 0 && (lowest < 0 || sum < lowest)) {
+                lowest = sum;
+            }
+        }
+        return lowest;
+    }
+
+    /**
+     * @return Returns the hits of the result sorted.
+     */
+    static long[] sortedHits(AlignmentResult result) {
+        long[] hits = result.getHits();
+        Arrays.sort(hits);
+        return hits;
+    }
+}
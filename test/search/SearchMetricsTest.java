@@ -0,0 +1,121 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the metrics add up the counters of the reads aligned on several threads.
+ */
+class SearchMetricsTest {
+
+    private static final String TEXT = References.randomBases(new Random(121), 10000, 40, 500);
+
+    @TempDir
+    static File dir;
+    static String index;
+    static List<FastqRecord> records;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder(), dir, "chr1", TEXT).getPath();
+        Random random = new Random(122);
+        records = Reads.records(Reads.fastq(random, Reads.sample(random, TEXT, 2000, 36, 4)));
+    }
+
+    @Test
+    void addsUpTheCountersOfEveryThread() throws Exception {
+        SearchMetrics metrics = new SearchMetrics();
+        Aligner aligner = new Aligner(index, SearchMode.endToEnd(2), 0, metrics);
+        int threads = 4;
+        long[][] totals = new long[threads][];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            workers[t] = new Thread(() -> totals[first] = align(aligner, first, threads));
+            workers[t].start();
+        }
+        long[] expected = new long[ExitReason.values().length + 3];
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] += totals[t][i];
+            }
+        }
+
+        Map<String, String> prometheus = new HashMap<>();
+        for (String line : metrics.export(SearchMetrics.Format.PROMETHEUS).split("\n")) {
+            if (!line.startsWith("#")) {
+                prometheus.put(line.substring(0, line.lastIndexOf(' ')), line.substring(line.lastIndexOf(' ') + 1));
+            }
+        }
+        long[] exported = new long[expected.length];
+        ExitReason[] reasons = ExitReason.values();
+        for (int i = 0; i < reasons.length; i++) {
+            exported[i] = Long.parseLong(prometheus.get("bowtie_read_exits_total{reason=\""
+                    + reasons[i].name().toLowerCase(Locale.ROOT) + "\"}"));
+        }
+        exported[reasons.length] = Long.parseLong(prometheus.get("bowtie_read_rank_calls_sum"));
+        exported[reasons.length + 1] = Long.parseLong(prometheus.get("bowtie_read_lf_steps_sum"));
+        exported[reasons.length + 2] = Long.parseLong(prometheus.get("bowtie_read_backtracks_sum"));
+        assertArrayEquals(expected, exported);
+        assertTrue(expected[reasons.length] > 0 && expected[reasons.length + 1] > 0);
+        assertEquals(String.valueOf(records.size()), prometheus.get("bowtie_read_latency_seconds_count"));
+        assertEquals(String.valueOf(records.size()), prometheus.get("bowtie_read_backtrack_depth_count"));
+
+        String json = metrics.export(SearchMetrics.Format.JSON);
+        assertTrue(json.startsWith("{\"reads\":" + records.size() + ",\"exitReasons\":{"), json);
+        assertTrue(json.contains("\"readCache\":{\"hits\":0,\"misses\":0}"), json);
+    }
+
+    @Test
+    void replacesTheMetricsFile() throws IOException {
+        SearchMetrics metrics = new SearchMetrics();
+        Aligner aligner = new Aligner(index, SearchMode.defaultMode(), 0, metrics);
+        align(aligner, 0, 1);
+        File metricsDir = new File(dir, "metrics");
+        assertTrue(metricsDir.mkdir());
+        File file = new File(metricsDir, "bowtie.prom");
+        Files.writeString(file.toPath(), "stale");
+        new MetricsReporter(metrics, SearchMetrics.Format.PROMETHEUS, file.getPath(), 0).close();
+        assertEquals(metrics.export(SearchMetrics.Format.PROMETHEUS),
+                Files.readString(file.toPath(), StandardCharsets.UTF_8));
+        assertArrayEquals(new String[]{"bowtie.prom"}, metricsDir.list());
+    }
+
+    /**
+     * Aligns every step-th read from the first on.
+     * @return Returns the reads ended for every exit reason, then the rank calls, LF steps and backtracks.
+     */
+    private static long[] align(Aligner aligner, int first, int step) {
+        int reasons = ExitReason.values().length;
+        long[] totals = new long[reasons + 3];
+        SearchContext context = new SearchContext();
+        for (int i = first; i < records.size(); i += step) {
+            FastqRecord record = records.get(i);
+            aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+            totals[context.getExitReason().ordinal()]++;
+            totals[reasons] += context.getRankCalls();
+            totals[reasons + 1] += context.getLfSteps();
+            totals[reasons + 2] += context.getBacktracks();
+        }
+        return totals;
+    }
+}
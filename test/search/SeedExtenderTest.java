@@ -0,0 +1,176 @@
+package search;
+
+import index.IndexBuilder;
+import index.References;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the alignments with gaps of reads with known insertions and deletions, replaying their CIGAR against the
+ * reference.
+ */
+class SeedExtenderTest {
+
+    private static final String TEXT = References.randomBases(new Random(91), 10000, 0, 0);
+    private static final Pattern CIGAR = Pattern.compile("(\\d+)([MID])");
+
+    @TempDir
+    static File dir;
+    static String index;
+    static Aligner aligner;
+
+    @BeforeAll
+    static void buildIndex() throws IOException {
+        index = References.build(new IndexBuilder(), dir, "chr1", TEXT).getPath();
+        aligner = new Aligner(index, SearchMode.endToEnd(1).withMaxGaps(3));
+    }
+
+    @Test
+    void alignsDeletions() {
+        AlignmentResult result = align(TEXT.substring(1000, 1030) + TEXT.substring(1032, 1062));
+        assertGapped(result, TEXT.substring(1000, 1030) + TEXT.substring(1032, 1062), 1000, -11);
+        assertEquals("2D", gaps(result.getCigar()));
+        assertEquals(2, result.getMismatches());
+    }
+
+    @Test
+    void alignsInsertions() {
+        String read = TEXT.substring(2000, 2030) + "ACG" + TEXT.substring(2030, 2057);
+        AlignmentResult result = align(read);
+        assertGapped(result, read, 2000, -14);
+        assertEquals("3I", gaps(result.getCigar()));
+    }
+
+    @Test
+    void alignsGapsAndMismatches() {
+        char[] bases = (TEXT.substring(3000, 3040) + TEXT.substring(3041, 3071)).toCharArray();
+        bases[10] = bases[10] == 'A' ? 'C' : 'A';
+        bases[60] = bases[60] == 'A' ? 'C' : 'A';
+        String read = new String(bases);
+        assertGapped(align(read), read, 3000, -6 - 6 - 8);
+    }
+
+    @Test
+    void alignsTheReverseStrand() {
+        String forward = TEXT.substring(4000, 4025) + TEXT.substring(4026, 4051) + "T" + TEXT.substring(4051, 4060);
+        String read = References.reverseComplement(forward);
+        AlignmentResult result = align(read);
+        assertTrue(result.isReverseStrand());
+        assertGapped(result, forward, 4000, -16);
+    }
+
+    @Test
+    void leavesReadsWithoutGapsToTheSearch() {
+        AlignmentResult result = align(TEXT.substring(5000, 5060));
+        assertTrue(result.isAligned());
+        assertEquals("60M", result.getCigar());
+        assertEquals(0, result.getScore());
+    }
+
+    @Test
+    void refusesAlignmentsScoringTooLow() {
+        //Two gaps and four mismatches score -42, below the -36.6 of 60 bases.
+        char[] bases = (TEXT.substring(6000, 6020) + TEXT.substring(6021, 6041) + TEXT.substring(6042, 6062))
+                .toCharArray();
+        for (int offset : new int[]{5, 15, 45, 55}) {
+            bases[offset] = bases[offset] == 'A' ? 'C' : 'A';
+        }
+        assertFalse(align(new String(bases)).isAligned());
+    }
+
+    @Test
+    void refusesMoreGapsThanAllowed() {
+        //A deletion and an insertion of 2 bases each : the read stays within the band of 3, but has 4 gaps.
+        String read = TEXT.substring(7000, 7030) + TEXT.substring(7032, 7062) + "TT" + TEXT.substring(7062, 7090);
+        assertFalse(align(read).isAligned());
+
+        AlignmentResult result = align(new Aligner(index, SearchMode.endToEnd(1).withMaxGaps(4)), read);
+        assertGapped(result, read, 7000, -22);
+        assertEquals("2D,2I", gaps(result.getCigar()));
+    }
+
+    /**
+     * Checks the read aligned with gaps at the position, and its CIGAR replayed against the reference gives the
+     * score reported.
+     * @param forward The read on the forward strand.
+     */
+    private static void assertGapped(AlignmentResult result, String forward, long position, int score) {
+        assertTrue(result.isAligned(), forward);
+        assertEquals(1, result.getHits().length);
+        assertEquals(position, result.getHits()[0]);
+        assertEquals(score, result.getScore(), result.getCigar());
+        assertEquals(score, replay(result.getCigar(), forward, (int) position), result.getCigar());
+    }
+
+    /**
+     * @return Returns the score of the read aligned at the position of the reference as the CIGAR says.
+     */
+    private static int replay(String cigar, String read, int position) {
+        Matcher matcher = CIGAR.matcher(cigar);
+        int score = 0;
+        int i = 0;
+        int consumed = 0;
+        while (matcher.find()) {
+            int length = Integer.parseInt(matcher.group(1));
+            consumed += matcher.group(0).length();
+            switch (matcher.group(2)) {
+                case "M":
+                    for (int j = 0; j < length; j++) {
+                        if (read.charAt(i++) != TEXT.charAt(position++)) {
+                            score -= 6;
+                        }
+                    }
+                    break;
+                case "I":
+                    i += length;
+                    score -= 5 + 3 * length;
+                    break;
+                default:
+                    position += length;
+                    score -= 5 + 3 * length;
+            }
+        }
+        assertEquals(cigar.length(), consumed, cigar);
+        assertEquals(read.length(), i, cigar);
+        return score;
+    }
+
+    /**
+     * @return Returns the gaps of the CIGAR.
+     */
+    private static String gaps(String cigar) {
+        List<String> gaps = new ArrayList<>();
+        Matcher matcher = CIGAR.matcher(cigar);
+        while (matcher.find()) {
+            if (!matcher.group(2).equals("M")) {
+                gaps.add(matcher.group(0));
+            }
+        }
+        return String.join(",", gaps);
+    }
+
+    private static AlignmentResult align(String read) {
+        return align(aligner, read);
+    }
+
+    private static AlignmentResult align(Aligner aligner, String read) {
+        List<Integer> qualities = new ArrayList<>();
+        for (int i = 0; i < read.length(); i++) {
+            qualities.add(30);
+        }
+        return aligner.align(read.toCharArray(), qualities);
+    }
+}
@@ -0,0 +1,155 @@
+package search;
+
+import index.ContigTable;
+import index.IndexBuilder;
+import index.References;
+import io.FastqRecord;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks a read searched in every shard of a sharded index gets the alignment it gets in the index of the whole
+ * reference, with the hits of every shard merged and placed in their contigs.
+ */
+class ShardedIndexTest {
+
+    private static final String REPEAT = References.randomBases(new Random(161), 50, 0, 0);
+    private static final String[] CONTIGS = {
+            "chrA", withRepeat(References.randomBases(new Random(162), 3000, 0, 0), 400, 2100),
+            "chrB", withRepeat(References.randomBases(new Random(163), 2500, 0, 0), 1200),
+            "chrC", References.randomBases(new Random(164), 1500, 0, 0),
+            "chrD", withRepeat(References.randomBases(new Random(165), 2000, 0, 0), 0, 1950)
+    };
+
+    @TempDir
+    static File dir;
+    static String whole;
+    static String halves;
+    static String perContig;
+    static List<FastqRecord> records;
+
+    @BeforeAll
+    static void buildIndexes() throws IOException {
+        whole = build(new IndexBuilder(), "whole");
+        halves = build(new IndexBuilder().setShardCount(2), "halves");
+        perContig = build(new IndexBuilder().setShardPerContig(true), "contigs");
+        Random random = new Random(166);
+        List<String> reads = new ArrayList<>();
+        for (int i = 1; i < CONTIGS.length; i += 2) {
+            reads.addAll(Reads.sample(random, CONTIGS[i], 120, 36, 3));
+        }
+        for (int i = 0; i < 40; i++) {
+            String read = REPEAT.substring(i % 10, i % 10 + 36);
+            reads.add(i % 2 == 0 ? read : References.reverseComplement(read));
+        }
+        records = Reads.records(Reads.fastq(random, reads));
+    }
+
+    @Test
+    void splitsTheContigsIntoShards() {
+        //The longest contigs first, each into the shard with the fewest bases so far : chrA and chrC, chrB and chrD,
+        //in the order of the reference within a shard.
+        ContigTable contigs = contigs(halves);
+        assertEquals(2, contigs.getShardCount());
+        assertEquals(List.of("chrA", "chrC", "chrB", "chrD"), names(contigs));
+        assertEquals(List.of(0, 0, 1, 1), List.of(contigs.getShard(0), contigs.getShard(1), contigs.getShard(2),
+                contigs.getShard(3)));
+        assertEquals(4500, contigs.getShardLength(0));
+        assertEquals(4500, contigs.getShardLength(1));
+        assertEquals(3000, contigs.getStart(1));
+        assertEquals(2, contigs.find(1, 2499));
+        assertEquals(3, contigs.find(1, 2500));
+
+        contigs = contigs(perContig);
+        assertEquals(4, contigs.getShardCount());
+        assertEquals(List.of("chrA", "chrB", "chrC", "chrD"), names(contigs));
+        assertEquals(1, contigs(whole).getShardCount());
+    }
+
+    @Test
+    void mergesTheHitsOfEveryShard() {
+        for (SearchMode mode : new SearchMode[]{SearchMode.endToEnd(0), SearchMode.endToEnd(2),
+                SearchMode.endToEnd(1).withMaxHits(3), SearchMode.defaultMode().withBest(true)}) {
+            List<String> expected = align(whole, mode, 0, 0);
+            //The shards searched one after the other and in parallel, loaded lazily or pinned.
+            assertEquals(expected, align(halves, mode, 0, 0));
+            assertEquals(expected, align(halves, mode, 2, 2));
+            assertEquals(expected, align(perContig, mode, 1, 3));
+        }
+    }
+
+    private static ContigTable contigs(String index) {
+        try (Aligner aligner = new Aligner(index)) {
+            return aligner.getContigs();
+        }
+    }
+
+    /**
+     * Aligns the reads with an aligner of the index, which it then closes.
+     * @return Returns the outcome of every read : its exit reason, strand, mismatches and hits, sorted, or only their
+     * number when some are left out.
+     */
+    private static List<String> align(String index, SearchMode mode, int pinnedShards, int shardThreads) {
+        List<String> outcomes = new ArrayList<>();
+        SearchContext context = new SearchContext();
+        int repeats = 0;
+        try (Aligner aligner = new Aligner(index, mode, 0, null, pinnedShards, shardThreads)) {
+            for (FastqRecord record : records) {
+                aligner.align(context, record.getBases(), record.getQualities(), record.getLength());
+                StringBuilder outcome = new StringBuilder().append(context.getExitReason());
+                if (context.getExitReason() == ExitReason.MATCH) {
+                    outcome.append(context.isReverseStrand() ? " - " : " + ").append(context.getMismatches())
+                            .append(' ');
+                    TreeSet<String> hits = new TreeSet<>();
+                    for (int i = 0; i < context.getHitCount(); i++) {
+                        hits.add(aligner.getContigs().getName(context.getHitContig(i)) + ":" + context.getHit(i));
+                    }
+                    outcome.append(context.getHitCount() < context.getRowCount() ? context.getHitCount() : hits);
+                    repeats += context.getRowCount() > 1 ? 1 : 0;
+                }
+                outcomes.add(outcome.toString());
+            }
+        }
+        assertTrue(repeats >= 40, mode.toString());
+        return outcomes;
+    }
+
+    private static List<String> names(ContigTable contigs) {
+        List<String> names = new ArrayList<>();
+        for (int contig = 0; contig < contigs.size(); contig++) {
+            names.add(contigs.getName(contig));
+            //The contigs are given as name then bases.
+            String bases = CONTIGS[List.of(CONTIGS).indexOf(contigs.getName(contig)) + 1];
+            assertEquals(bases.length(), contigs.getLength(contig));
+        }
+        return names;
+    }
+
+    /**
+     * @return Returns the bases with the repeat written at every offset.
+     */
+    private static String withRepeat(String bases, int... offsets) {
+        StringBuilder copy = new StringBuilder(bases);
+        for (int offset : offsets) {
+            copy.replace(offset, offset + REPEAT.length(), REPEAT);
+        }
+        return copy.toString();
+    }
+
+    private static String build(IndexBuilder builder, String name) throws IOException {
+        File sub = new File(dir, name);
+        assertTrue(sub.mkdir());
+        return References.build(builder, sub, CONTIGS).getPath();
+    }
+}